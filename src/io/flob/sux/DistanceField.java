@@ -0,0 +1,199 @@
+package io.flob.sux;
+
+/**
+ * Generates signed distance fields from high resolution glyph rasters. Each
+ * texel of the field holds the distance from its centre to the nearest edge
+ * of the glyph, mapped so the edge is at 0.5, texels inside the glyph are
+ * above it and texels outside below. A field can be drawn at any scale with
+ * linear filtering and an alpha test at 0.5, and the edge stays sharp.
+ *
+ * The distances are exact, found with the linear time Euclidean distance
+ * transform of Felzenszwalb and Huttenlocher, run once for the pixels outside
+ * the glyph and once for those inside. The rows of the raster, being binary,
+ * are transformed with a sweep each way, and only the columns through the
+ * centres of texels are transformed after them, as only they are sampled.
+ *
+ * @author agent
+ */
+final class DistanceField {
+
+    /**
+     * The squared distance standing in for infinity in the transform
+     */
+    private static final float INF = 1e20f;
+
+    /**
+     * Utility class
+     */
+    private DistanceField() {
+    }
+
+    /**
+     * Generate a distance field
+     *
+     * @param pixels The ARGB pixels of the high resolution raster, the glyph
+     * drawn where alpha is at least half
+     * @param stride The width of the raster image
+     * @param width The width of the field
+     * @param height The height of the field
+     * @param scale The number of raster pixels across each texel of the field
+     * @param spread The distance in texels from the edge at which the field
+     * reaches 0 or 1
+     * @return The field, width * height bytes
+     */
+    static byte[] generate(int[] pixels, int stride, int width, int height, int scale, int spread) {
+        int rasterWidth = width * scale;
+        int rasterHeight = height * scale;
+        float[] outside = new float[rasterWidth * rasterHeight];
+        float[] inside = new float[rasterWidth * rasterHeight];
+        boolean empty = true;
+        for (int y = 0; y < rasterHeight; y++) {
+            for (int x = 0; x < rasterWidth; x++) {
+                boolean in = (pixels[(y * stride) + x] >>> 24) >= 128;
+                outside[(y * rasterWidth) + x] = in ? 0 : INF;
+                inside[(y * rasterWidth) + x] = in ? INF : 0;
+                empty &= !in;
+            }
+        }
+
+        byte[] field = new byte[width * height];
+        if (empty) {
+            return field;
+        }
+
+        int length = Math.max(rasterWidth, rasterHeight);
+        float[] row = new float[length];
+        int[] parabolas = new int[length];
+        float[] bounds = new float[length + 1];
+        transformGrid(outside, rasterWidth, rasterHeight, scale, row, parabolas, bounds);
+        transformGrid(inside, rasterWidth, rasterHeight, scale, row, parabolas, bounds);
+
+        float range = 2f * spread * scale;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (((y * scale) + (scale / 2)) * rasterWidth) + (x * scale) + (scale / 2);
+
+                // the edge lies half a pixel from the centre of the nearest
+                // pixel on the other side of it
+                float distance;
+                if (outside[i] > 0) {
+                    distance = (float) Math.sqrt(outside[i]) - 0.5f;
+                } else {
+                    distance = 0.5f - (float) Math.sqrt(inside[i]);
+                }
+
+                int value = Math.round(255 * (0.5f - (distance / range)));
+                field[(y * width) + x] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+
+        return field;
+    }
+
+    /**
+     * Replace the values of a grid in the columns through the centres of
+     * texels with the squared distance to the nearest zero, transforming every
+     * row and then those columns
+     *
+     * @param grid The grid, 0 at features and INF elsewhere
+     * @param width The width of the grid
+     * @param height The height of the grid
+     * @param scale The number of grid values across each texel
+     * @param row Scratch space for a column of values
+     * @param parabolas Scratch space for the parabolas of the lower envelope
+     * @param bounds Scratch space for the boundaries between the parabolas
+     */
+    private static void transformGrid(float[] grid, int width, int height, int scale, float[] row,
+            int[] parabolas, float[] bounds) {
+        for (int y = 0; y < height; y++) {
+            transformRow(grid, y * width, width);
+        }
+        for (int x = scale / 2; x < width; x += scale) {
+            transform(grid, x, width, height, row, parabolas, bounds);
+        }
+    }
+
+    /**
+     * Transform a single row of a grid holding only 0 and INF, by sweeping
+     * across it each way for the distance to the nearest zero
+     *
+     * @param grid The grid
+     * @param offset The index of the first value of the row
+     * @param width The number of values in the row
+     */
+    private static void transformRow(float[] grid, int offset, int width) {
+        int last = -1;
+        for (int x = 0; x < width; x++) {
+            if (grid[offset + x] == 0) {
+                last = x;
+            } else if (last >= 0) {
+                grid[offset + x] = (x - last) * (x - last);
+            }
+        }
+
+        last = -1;
+        for (int x = width - 1; x >= 0; x--) {
+            if (grid[offset + x] == 0) {
+                last = x;
+            } else if (last >= 0) {
+                grid[offset + x] = Math.min(grid[offset + x], (last - x) * (last - x));
+            }
+        }
+    }
+
+    /**
+     * Transform a single column of a grid, by finding the lower
+     * envelope of the parabolas rooted at each value
+     *
+     * @param grid The grid
+     * @param offset The index of the first value
+     * @param step The distance between values
+     * @param length The number of values
+     * @param row Scratch space for the values
+     * @param parabolas Scratch space for the parabolas of the lower envelope
+     * @param bounds Scratch space for the boundaries between the parabolas
+     */
+    private static void transform(float[] grid, int offset, int step, int length, float[] row, int[] parabolas,
+            float[] bounds) {
+        for (int q = 0; q < length; q++) {
+            row[q] = grid[offset + (q * step)];
+        }
+
+        int k = 0;
+        parabolas[0] = 0;
+        bounds[0] = -INF;
+        bounds[1] = INF;
+        for (int q = 1; q < length; q++) {
+            float s = intersect(row, q, parabolas[k]);
+            while (s <= bounds[k]) {
+                k--;
+                s = intersect(row, q, parabolas[k]);
+            }
+            k++;
+            parabolas[k] = q;
+            bounds[k] = s;
+            bounds[k + 1] = INF;
+        }
+
+        k = 0;
+        for (int q = 0; q < length; q++) {
+            while (bounds[k + 1] < q) {
+                k++;
+            }
+            int v = parabolas[k];
+            grid[offset + (q * step)] = ((q - v) * (q - v)) + row[v];
+        }
+    }
+
+    /**
+     * Find where the parabolas rooted at two values intersect
+     *
+     * @param row The values
+     * @param q The index of the later value
+     * @param v The index of the earlier value
+     * @return The position of the intersection
+     */
+    private static float intersect(float[] row, int q, int v) {
+        return ((row[q] + (q * q)) - (row[v] + (v * v))) / (2 * (q - v));
+    }
+}
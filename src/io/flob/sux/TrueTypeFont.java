@@ -1,22 +1,60 @@
 package io.flob.sux;
 
+import io.flob.sux.opengl.BufferPool;
 import io.flob.sux.opengl.GLUtils;
-import io.flob.sux.opengl.Texture;
+import io.flob.sux.opengl.InternalTextureLoader;
+import io.flob.sux.opengl.TextureImpl;
 import io.flob.sux.opengl.renderer.Renderer;
 import io.flob.sux.opengl.renderer.SGL;
-import io.flob.sux.util.BufferedImageUtil;
+import io.flob.sux.util.Log;
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.lwjgl.BufferUtils;
 
 /**
  * A TrueType font implementation for SUX
  *
+ * Glyphs are rasterised when first drawn and packed into a cache of atlas
+ * pages, so any Unicode code point the AWT font can display may be drawn
+ * without being declared up front. Pages start small and grow as glyphs are
+ * added, with further pages created once a page reaches the largest size. When
+ * the most pages allowed are full the least recently drawn page is cleared to
+ * make room, so the glyphs no longer in use are evicted.
+ *
+ * A font created in distance field mode stores a signed distance field of each
+ * glyph, generated from a raster at several times the font's size, rather than
+ * it's coverage. It's drawn with an alpha test against the field, so a single
+ * font can be drawn at any scale with sharp edges.
+ *
  * @author James Chambers (Jimmy)
  * @author Jeremy Adams (elias4444)
  * @author Kevin Glass (kevglass)
@@ -30,20 +68,94 @@ public class TrueTypeFont implements io.flob.sux.Font {
     private static final SGL GL = Renderer.get();
 
     /**
-     * Array that holds necessary information about the font characters
+     * The number of bits of a code point used to index a block of the glyph
+     * table
+     */
+    private static final int BLOCK_BITS = 8;
+
+    /**
+     * The size of a page when it's first created
+     */
+    private static final int INITIAL_PAGE_SIZE = 256;
+
+    /**
+     * The default largest size a page may grow to
+     */
+    private static final int DEFAULT_MAX_PAGE_SIZE = 1024;
+
+    /**
+     * The default number of pages that may be created
+     */
+    private static final int DEFAULT_MAX_PAGES = 4;
+
+    /**
+     * The number of raster pixels across each texel of a distance field
+     */
+    private static final int FIELD_SCALE = 8;
+
+    /**
+     * The distance in texels a distance field extends beyond a glyph
+     */
+    private static final int FIELD_SPREAD = 4;
+
+    /**
+     * The default number of strings whose layout is cached
+     */
+    private static final int DEFAULT_LAYOUT_CACHE_SIZE = 512;
+
+    /**
+     * The transparent border left around each glyph so linear filtering
+     * doesn't bleed in its neighbours
+     */
+    private static final int BORDER = 1;
+
+    /**
+     * The glyphs cached, indexed by code point. The table is split into blocks
+     * of 256 code points which are only created once a glyph in them is used.
      */
-    private final IntObject[] charArray = new IntObject[256];
+    private final IntObject[][] glyphs = new IntObject[(Character.MAX_CODE_POINT >> BLOCK_BITS) + 1][];
 
     /**
-     * Map of user defined font characters (Character <-> IntObject)
+     * The pages the glyphs have been packed into
      */
-    private final Map customChars = new HashMap();
+    private final ArrayList pages = new ArrayList();
 
     /**
      * Boolean flag on whether AntiAliasing is enabled or not
      */
     private boolean antiAlias;
 
+    /**
+     * True if glyphs are stored as distance fields
+     */
+    private final boolean distanceField;
+
+    /**
+     * The space stored around each glyph for it's distance field to extend
+     * into, 0 if glyphs aren't stored as distance fields
+     */
+    private final int padding;
+
+    /**
+     * The alpha a distance field must be above to be drawn
+     */
+    private float threshold = 0.5f;
+
+    /**
+     * The buffer the caller's alpha test function is read into
+     */
+    private final IntBuffer alphaFunc = BufferUtils.createIntBuffer(16);
+
+    /**
+     * The buffer the caller's alpha test reference is read into
+     */
+    private final FloatBuffer alphaRef = BufferUtils.createFloatBuffer(16);
+
+    /**
+     * The font distance fields are rasterised with, created when first needed
+     */
+    private java.awt.Font fieldFont;
+
     /**
      * Font's size
      */
@@ -55,19 +167,41 @@ public class TrueTypeFont implements io.flob.sux.Font {
     private int fontHeight = 0;
 
     /**
-     * Texture used to cache the font 0-255 characters
+     * The largest size a page may grow to
+     */
+    private final int maxPageSize;
+
+    /**
+     * The number of pages that may be created before pages are evicted
+     */
+    private int maxPages = DEFAULT_MAX_PAGES;
+
+    /**
+     * The number of strings drawn, used to find the least recently used page
+     */
+    private long drawCount;
+
+    /**
+     * The number of strings whose layout may be cached
      */
-    private Texture fontTexture;
+    private int layoutCacheSize = DEFAULT_LAYOUT_CACHE_SIZE;
 
     /**
-     * Default font texture width
+     * The layouts of recently drawn strings, least recently drawn first
+     * (String <-> Layout)
      */
-    private int textureWidth = 512;
+    private final LinkedHashMap layouts = new LinkedHashMap(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > layoutCacheSize;
+        }
+    };
 
     /**
-     * Default font texture height
+     * Changed whenever glyphs are moved or removed from the pages, making the
+     * cached layouts out of date
      */
-    private final int textureHeight = 512;
+    private int atlasGeneration;
 
     /**
      * A reference to Java's AWT Font that we create our font texture from
@@ -79,6 +213,52 @@ public class TrueTypeFont implements io.flob.sux.Font {
      */
     private FontMetrics fontMetrics;
 
+    /**
+     * The rasteriser of each thread rasterising glyphs
+     */
+    private static final ThreadLocal rasterisers = new ThreadLocal() {
+        @Override
+        protected Object initialValue() {
+            return new Rasteriser();
+        }
+    };
+
+    /**
+     * The pool of threads rasterising glyphs, shared by every font
+     */
+    private static ExecutorService workers;
+
+    /**
+     * The number of threads glyphs are rasterised with, including the thread
+     * caching them
+     */
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The fewest glyphs worth handing to another thread to rasterise
+     */
+    private static final int MIN_GLYPHS_PER_THREAD = 32;
+
+    /**
+     * The magic number at the start of an atlas cache file ("SUXF")
+     */
+    private static final int ATLAS_MAGIC = 0x53555846;
+
+    /**
+     * The version of the atlas cache file format
+     */
+    private static final int ATLAS_VERSION = 2;
+
+    /**
+     * The directory atlases are cached in between runs, null if they aren't
+     */
+    private static volatile File cacheDirectory;
+
+    /**
+     * True if the atlas was read from the cache rather than rasterised
+     */
+    private boolean loadedFromCache;
+
     /**
      * This is a special internal class that holds our necessary information for
      * the font characters. This includes width, height, and where the character
@@ -87,15 +267,20 @@ public class TrueTypeFont implements io.flob.sux.Font {
     private class IntObject {
 
         /**
-         * Character's width
+         * Character's stored width
          */
         public int width;
 
         /**
-         * Character's height
+         * Character's stored height
          */
         public int height;
 
+        /**
+         * The width the character advances the text by
+         */
+        public int advance;
+
         /**
          * Character's stored x position
          */
@@ -105,6 +290,11 @@ public class TrueTypeFont implements io.flob.sux.Font {
          * Character's stored y position
          */
         public int storedY;
+
+        /**
+         * The page the character is stored on, null if it couldn't be stored
+         */
+        public Page page;
     }
 
     /**
@@ -114,17 +304,105 @@ public class TrueTypeFont implements io.flob.sux.Font {
      *
      * @param font Standard Java AWT font
      * @param antiAlias Whether or not to apply AntiAliasing to the cached font
-     * @param additionalChars Characters of font that will be used in addition
-     * of first 256 (by UNICODE).
+     * @param additionalChars Characters of font that will be cached up front
+     * in addition to the first 256 (by UNICODE). Any other character is cached
+     * when first drawn.
      */
     public TrueTypeFont(java.awt.Font font, boolean antiAlias, char[] additionalChars) {
+        this(font, antiAlias, additionalChars, false);
+    }
+
+    /**
+     * Constructor for the TrueTypeFont class Pass in the pre loaded standard
+     * Java TrueType font, and whether you want it to be cached with
+     * AntiAliasing applied, along with the key identifying the font's content
+     * in the atlas cache.
+     *
+     * @param font Standard Java AWT font
+     * @param antiAlias Whether or not to apply AntiAliasing to the cached font
+     * @param additionalChars Characters of font that will be cached up front
+     * in addition to the first 256 (by UNICODE). Any other character is cached
+     * when first drawn.
+     * @param cacheKey A key that changes whenever the font's file does, or null
+     * to identify the font by it's name, style and size
+     */
+    public TrueTypeFont(java.awt.Font font, boolean antiAlias, char[] additionalChars, String cacheKey) {
+        this(font, antiAlias, additionalChars, false, cacheKey);
+    }
+
+    /**
+     * Constructor for the TrueTypeFont class Pass in the pre loaded standard
+     * Java TrueType font, and whether you want it to be cached with
+     * AntiAliasing applied or as distance fields.
+     *
+     * @param font Standard Java AWT font
+     * @param antiAlias Whether or not to apply AntiAliasing to the cached font,
+     * ignored for distance fields
+     * @param additionalChars Characters of font that will be cached up front
+     * in addition to the first 256 (by UNICODE). Any other character is cached
+     * when first drawn.
+     * @param distanceField True if glyphs should be stored as distance fields
+     * so the font can be drawn at any scale. The size of the AWT font sets the
+     * resolution of the fields, 32 to 48 points suits most uses.
+     */
+    public TrueTypeFont(java.awt.Font font, boolean antiAlias, char[] additionalChars, boolean distanceField) {
+        this(font, antiAlias, additionalChars, distanceField, null);
+    }
+
+    /**
+     * Constructor for the TrueTypeFont class Pass in the pre loaded standard
+     * Java TrueType font, and whether you want it to be cached with
+     * AntiAliasing applied or as distance fields, along with the key
+     * identifying the font's content in the atlas cache.
+     *
+     * @param font Standard Java AWT font
+     * @param antiAlias Whether or not to apply AntiAliasing to the cached font,
+     * ignored for distance fields
+     * @param additionalChars Characters of font that will be cached up front
+     * in addition to the first 256 (by UNICODE). Any other character is cached
+     * when first drawn.
+     * @param distanceField True if glyphs should be stored as distance fields
+     * so the font can be drawn at any scale
+     * @param cacheKey A key that changes whenever the font's file does, such as
+     * a hash of the file or the version of the game shipping it, or null to
+     * identify the font by it's name, style and size. Without a key a changed
+     * font file keeping it's name is drawn from the stale atlas until the
+     * library version changes or the cache is cleared.
+     */
+    public TrueTypeFont(java.awt.Font font, boolean antiAlias, char[] additionalChars, boolean distanceField,
+            String cacheKey) {
         GLUtils.checkGLContext();
 
         this.font = font;
         this.fontSize = font.getSize();
         this.antiAlias = antiAlias;
+        this.distanceField = distanceField;
+        this.padding = distanceField ? FIELD_SPREAD : 0;
+
+        IntBuffer temp = BufferUtils.createIntBuffer(16);
+        GL.glGetInteger(SGL.GL_MAX_TEXTURE_SIZE, temp);
+        maxPageSize = Math.min(DEFAULT_MAX_PAGE_SIZE, temp.get(0));
+
+        File directory = cacheDirectory;
+        byte[] digest = null;
+        File cacheFile = null;
+        if (directory != null) {
+            digest = createDigest(additionalChars, cacheKey);
+            cacheFile = new File(directory, "font-" + toHex(digest) + ".cache");
+            loadedFromCache = readAtlas(cacheFile, digest);
+        }
+
+        if (!loadedFromCache) {
+            fontHeight = getFontMetrics().getHeight();
+            if (fontHeight <= 0) {
+                fontHeight = fontSize;
+            }
 
-        createSet(additionalChars);
+            createSet(additionalChars);
+            if (cacheFile != null) {
+                writeAtlas(cacheFile, digest);
+            }
+        }
     }
 
     /**
@@ -140,273 +418,918 @@ public class TrueTypeFont implements io.flob.sux.Font {
     }
 
     /**
-     * Create a standard Java2D BufferedImage of the given character
+     * Set the directory the atlases of fonts are cached in between runs. A
+     * font created with the same AWT font, cache key, settings and additional
+     * characters as a previous run reads it's glyphs and metrics from the
+     * cache, mapping the file rather than using AWT to rasterise them. Fonts
+     * created before the directory is set aren't affected.
      *
-     * @param ch The character to create a BufferedImage for
+     * @param directory The directory to cache atlases in or null to stop
+     * caching them
+     */
+    public static void setCacheDirectory(File directory) {
+        cacheDirectory = directory;
+    }
+
+    /**
+     * Get the directory the atlases of fonts are cached in between runs
      *
-     * @return A BufferedImage containing the character
+     * @return The cache directory or null if atlases aren't cached
      */
-    private BufferedImage getFontImage(char ch) {
-        // Create a temporary image to extract the character's size
-        BufferedImage tempfontImage = new BufferedImage(1, 1,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = (Graphics2D) tempfontImage.getGraphics();
-        if (antiAlias == true) {
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                    RenderingHints.VALUE_ANTIALIAS_ON);
-        }
-        g.setFont(font);
-        fontMetrics = g.getFontMetrics();
-        int charwidth = fontMetrics.charWidth(ch);
+    public static File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Check if this font's atlas was read from the cache directory rather than
+     * rasterised
+     *
+     * @return True if the atlas was read from the cache
+     */
+    public boolean isLoadedFromCache() {
+        return loadedFromCache;
+    }
 
-        if (charwidth <= 0) {
-            charwidth = 1;
+    /**
+     * Get the metrics of the AWT font, which are only needed once a glyph
+     * isn't found in the atlas
+     *
+     * @return The metrics of the font
+     */
+    private FontMetrics getFontMetrics() {
+        if (fontMetrics == null) {
+            fontMetrics = ((Rasteriser) rasterisers.get()).getFontMetrics(font, antiAlias);
         }
-        int charheight = fontMetrics.getHeight();
-        if (charheight <= 0) {
-            charheight = fontSize;
+
+        return fontMetrics;
+    }
+
+    /**
+     * Create the digest identifying the atlas this font creates up front. This
+     * covers everything the rasterised glyphs and their packing depend on. The
+     * AWT font's name doesn't identify it's content, so the caller's key is
+     * included too when there is one. Without it the font is identified by
+     * it's name, style and size alone.
+     *
+     * @param additionalChars The characters cached in addition to the first
+     * 256
+     * @param cacheKey The key identifying the font's content, or null to rely
+     * on it's name
+     * @return The digest of the atlas
+     */
+    private byte[] createDigest(char[] additionalChars, String cacheKey) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
         }
 
-        // Create another image holding the character we are creating
-        BufferedImage fontImage;
-        fontImage = new BufferedImage(charwidth, charheight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D gt = (Graphics2D) fontImage.getGraphics();
-        if (antiAlias == true) {
-            gt.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                    RenderingHints.VALUE_ANTIALIAS_ON);
+        StringBuilder identity = new StringBuilder();
+        identity.append(font.getName()).append('|');
+        identity.append(font.getStyle()).append('|').append(font.getSize2D()).append('|');
+        identity.append(font.getTransform()).append('|').append(antiAlias).append('|');
+        identity.append(maxPageSize).append('|').append(maxPages).append('|');
+        identity.append(distanceField).append('|').append(padding).append('|').append(FIELD_SCALE).append('|');
+        identity.append(System.getProperty("java.vendor")).append('|');
+        identity.append(System.getProperty("java.version")).append('|');
+        identity.append(System.getProperty("os.name")).append('|');
+        identity.append(Version.getVersion()).append('|');
+        if (additionalChars != null) {
+            identity.append(additionalChars);
+        }
+        identity.append('|');
+        if (cacheKey != null) {
+            identity.append(cacheKey);
         }
-        gt.setFont(font);
 
-        gt.setColor(Color.WHITE);
-        int charx = 0;
-        int chary = 0;
-        gt.drawString(String.valueOf(ch), (charx), (chary)
-                + fontMetrics.getAscent());
+        digest.update(identity.toString().getBytes(Charset.forName("UTF-8")));
+        return digest.digest();
+    }
 
-        return fontImage;
+    /**
+     * Get the hexadecimal form of a digest
+     *
+     * @param digest The digest
+     * @return The digest as a hexadecimal string
+     */
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (int i = 0; i < digest.length; i++) {
+            hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(digest[i] & 0xF, 16));
+        }
 
+        return hex.toString();
     }
 
     /**
-     * Create and store the font
+     * Read the atlas from a cache file, mapping the file and uploading the
+     * pages it holds
      *
-     * @param customCharsArray Characters that should be also added to the
-     * cache.
+     * @param file The cache file
+     * @param digest The digest identifying the atlas
+     * @return True if the atlas was read, false if the file doesn't exist or
+     * doesn't hold the atlas
      */
-    @SuppressWarnings("CallToPrintStackTrace")
-    private void createSet(char[] customCharsArray) {
-        // If there are custom chars then I expand the font texture twice		
-        if (customCharsArray != null && customCharsArray.length > 0) {
-            textureWidth *= 2;
+    private boolean readAtlas(File file, byte[] digest) {
+        if (!file.isFile()) {
+            return false;
         }
 
-        // In any case this should be done in other way. Texture with size 512x512
-        // can maintain only 256 characters with resolution of 32x32. The texture
-        // size should be calculated dynamicaly by looking at character sizes. 
         try {
+            ByteBuffer in;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = raf.getChannel();
+                in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                raf.close();
+            }
 
-            BufferedImage imgTemp = new BufferedImage(textureWidth, textureHeight, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g = (Graphics2D) imgTemp.getGraphics();
-
-            g.setColor(new Color(255, 255, 255, 1));
-            g.fillRect(0, 0, textureWidth, textureHeight);
-
-            int rowHeight = 0;
-            int positionX = 0;
-            int positionY = 0;
-
-            int customCharsLength = (customCharsArray != null) ? customCharsArray.length : 0;
+            if ((in.getInt() != ATLAS_MAGIC) || (in.getInt() != ATLAS_VERSION)) {
+                throw new IOException("Not a font atlas cache");
+            }
+            byte[] stored = new byte[digest.length];
+            in.get(stored);
+            if (!Arrays.equals(digest, stored)) {
+                throw new IOException("Not a cache of this font's atlas");
+            }
 
-            for (int i = 0; i < 256 + customCharsLength; i++) {
+            fontHeight = in.getInt();
+            int pageCount = in.getInt();
+            for (int i = 0; i < pageCount; i++) {
+                int size = in.getInt();
+                if ((size <= 0) || (size > maxPageSize)) {
+                    throw new IOException("Invalid page size: " + size);
+                }
+                Page page = new Page(size);
+                pages.add(page);
+                page.read(in);
+            }
 
-                // get 0-255 characters and then custom characters
-                char ch = (i < 256) ? (char) i : customCharsArray[i - 256];
+            int glyphCount = in.getInt();
+            for (int i = 0; i < glyphCount; i++) {
+                int codePoint = in.getInt();
+                int pageIndex = in.getInt();
+                if (!Character.isValidCodePoint(codePoint) || (pageIndex >= pageCount)) {
+                    throw new IOException("Invalid glyph: " + codePoint);
+                }
 
-                BufferedImage fontImage = getFontImage(ch);
+                IntObject intObject = new IntObject();
+                intObject.width = in.getInt();
+                intObject.height = fontHeight + (padding * 2);
+                intObject.advance = in.getInt();
+                intObject.storedX = in.getInt();
+                intObject.storedY = in.getInt();
+                if (pageIndex >= 0) {
+                    intObject.page = (Page) pages.get(pageIndex);
+                    intObject.page.add(codePoint);
+                }
+                setGlyph(codePoint, intObject);
+            }
 
-                IntObject newIntObject = new IntObject();
+            for (int i = 0; i < pages.size(); i++) {
+                ((Page) pages.get(i)).flush();
+            }
 
-                newIntObject.width = fontImage.getWidth();
-                newIntObject.height = fontImage.getHeight();
+            return true;
+        } catch (IOException e) {
+            Log.warn("Ignoring font atlas cache " + file, e);
+        } catch (BufferUnderflowException e) {
+            Log.warn("Ignoring truncated font atlas cache " + file);
+        }
 
-                if (positionX + newIntObject.width >= textureWidth) {
-                    positionX = 0;
-                    positionY += rowHeight;
-                    rowHeight = 0;
-                }
+        release();
+        Arrays.fill(glyphs, null);
 
-                newIntObject.storedX = positionX;
-                newIntObject.storedY = positionY;
+        return false;
+    }
 
-                if (newIntObject.height > fontHeight) {
-                    fontHeight = newIntObject.height;
+    /**
+     * Write the atlas to a cache file. The file is written under a temporary
+     * name and then renamed so a partly written file is never read.
+     *
+     * @param file The cache file
+     * @param digest The digest identifying the atlas
+     */
+    private void writeAtlas(File file, byte[] digest) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(ATLAS_MAGIC);
+                out.writeInt(ATLAS_VERSION);
+                out.write(digest);
+                out.writeInt(fontHeight);
+
+                out.writeInt(pages.size());
+                for (int i = 0; i < pages.size(); i++) {
+                    Page page = (Page) pages.get(i);
+                    out.writeInt(page.size);
+                    page.write(out);
                 }
 
-                if (newIntObject.height > rowHeight) {
-                    rowHeight = newIntObject.height;
+                int glyphCount = 0;
+                for (int block = 0; block < glyphs.length; block++) {
+                    for (int i = 0; (glyphs[block] != null) && (i < glyphs[block].length); i++) {
+                        if (glyphs[block][i] != null) {
+                            glyphCount++;
+                        }
+                    }
                 }
-
-                // Draw it here
-                g.drawImage(fontImage, positionX, positionY, null);
-
-                positionX += newIntObject.width;
-
-                if (i < 256) { // standard characters
-                    charArray[i] = newIntObject;
-                } else { // custom characters
-                    customChars.put(ch, newIntObject);
+                out.writeInt(glyphCount);
+                for (int block = 0; block < glyphs.length; block++) {
+                    for (int i = 0; (glyphs[block] != null) && (i < glyphs[block].length); i++) {
+                        IntObject intObject = glyphs[block][i];
+                        if (intObject != null) {
+                            out.writeInt((block << BLOCK_BITS) | i);
+                            out.writeInt(intObject.page == null ? -1 : pages.indexOf(intObject.page));
+                            out.writeInt(intObject.width);
+                            out.writeInt(intObject.advance);
+                            out.writeInt(intObject.storedX);
+                            out.writeInt(intObject.storedY);
+                        }
+                    }
                 }
-
-                fontImage = null;
+            } finally {
+                out.close();
             }
 
-            fontTexture = BufferedImageUtil
-                    .getTexture(font.toString(), imgTemp);
-
+            if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
         } catch (IOException e) {
-            System.err.println("Failed to create font.");
-            e.printStackTrace();
+            Log.warn("Failed to write font atlas cache " + file, e);
+            temp.delete();
         }
     }
 
     /**
-     * Draw a textured quad
+     * Cache the first 256 characters and any additional ones requested
      *
-     * @param drawX The left x position to draw to
-     * @param drawY The top y position to draw to
-     * @param drawX2 The right x position to draw to
-     * @param drawY2 The bottom y position to draw to
-     * @param srcX The left source x position to draw from
-     * @param srcY The top source y position to draw from
-     * @param srcX2 The right source x position to draw from
-     * @param srcY2 The bottom source y position to draw from
+     * @param customCharsArray Characters that should be also added to the
+     * cache.
      */
-    private void drawQuad(float drawX, float drawY, float drawX2, float drawY2,
-            float srcX, float srcY, float srcX2, float srcY2) {
-        float DrawWidth = drawX2 - drawX;
-        float DrawHeight = drawY2 - drawY;
-        float TextureSrcX = srcX / textureWidth;
-        float TextureSrcY = srcY / textureHeight;
-        float SrcWidth = srcX2 - srcX;
-        float SrcHeight = srcY2 - srcY;
-        float RenderWidth = (SrcWidth / textureWidth);
-        float RenderHeight = (SrcHeight / textureHeight);
+    private void createSet(char[] customCharsArray) {
+        int[] codePoints = new int[256];
+        for (int i = 0; i < 256; i++) {
+            codePoints[i] = i;
+        }
+        loadGlyphs(codePoints, 256);
 
-        GL.glTexCoord2f(TextureSrcX, TextureSrcY);
-        GL.glVertex2f(drawX, drawY);
-        GL.glTexCoord2f(TextureSrcX, TextureSrcY + RenderHeight);
-        GL.glVertex2f(drawX, drawY + DrawHeight);
-        GL.glTexCoord2f(TextureSrcX + RenderWidth, TextureSrcY + RenderHeight);
-        GL.glVertex2f(drawX + DrawWidth, drawY + DrawHeight);
-        GL.glTexCoord2f(TextureSrcX + RenderWidth, TextureSrcY);
-        GL.glVertex2f(drawX + DrawWidth, drawY);
+        if (customCharsArray != null) {
+            cacheGlyphs(new String(customCharsArray));
+        }
     }
 
     /**
-     * Get the width of a given String
-     *
-     * @param whatchars The characters to get the width of
+     * Cache the glyphs of a string ahead of it being drawn. This may be used
+     * to avoid rasterising the glyphs the first time the string is drawn.
      *
-     * @return The width of the characters
+     * @param text The characters to cache
      */
-    @Override
-    public int getWidth(String whatchars) {
-        int totalwidth = 0;
-        IntObject intObject = null;
-        int currentChar = 0;
-        for (int i = 0; i < whatchars.length(); i++) {
-            currentChar = whatchars.charAt(i);
-            if (currentChar < 256) {
-                intObject = charArray[currentChar];
-            } else {
-                intObject = (IntObject) customChars.get((char) currentChar);
-            }
+    public void cacheGlyphs(String text) {
+        int[] codePoints = new int[text.length()];
+        int length = 0;
+        for (int i = 0; i < text.length();) {
+            codePoints[length] = text.codePointAt(i);
+            i += Character.charCount(codePoints[length++]);
+        }
+        Arrays.sort(codePoints, 0, length);
 
-            if (intObject != null) {
-                totalwidth += intObject.width;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (((count == 0) || (codePoints[count - 1] != codePoints[i])) && (getGlyph(codePoints[i]) == null)) {
+                codePoints[count++] = codePoints[i];
             }
         }
-        return totalwidth;
+        loadGlyphs(codePoints, count);
     }
 
     /**
-     * Get the font's height
+     * Get a cached glyph
      *
-     * @return The height of the font
+     * @param codePoint The code point of the character
+     * @return The glyph or null if it's not cached
      */
-    public int getHeight() {
-        return fontHeight;
+    private IntObject getGlyph(int codePoint) {
+        IntObject[] block = glyphs[codePoint >> BLOCK_BITS];
+
+        return block == null ? null : block[codePoint & ((1 << BLOCK_BITS) - 1)];
     }
 
     /**
-     * Get the height of a String
+     * Store a glyph in the cache
      *
-     * @param HeightString
-     * @return The height of a given string
+     * @param codePoint The code point of the character
+     * @param intObject The glyph
      */
-    @Override
-    public int getHeight(String HeightString) {
-        return fontHeight;
+    private void setGlyph(int codePoint, IntObject intObject) {
+        IntObject[] block = glyphs[codePoint >> BLOCK_BITS];
+        if (block == null) {
+            block = new IntObject[1 << BLOCK_BITS];
+            glyphs[codePoint >> BLOCK_BITS] = block;
+        }
+        block[codePoint & ((1 << BLOCK_BITS) - 1)] = intObject;
     }
 
     /**
-     * Get the font's line height
+     * Get the width a character advances the text by, without caching it
      *
-     * @return The line height of the font
+     * @param codePoint The code point of the character
+     * @return The width of the character
      */
-    @Override
-    public int getLineHeight() {
-        return fontHeight;
+    private int getAdvance(int codePoint) {
+        IntObject intObject = getGlyph(codePoint);
+        if (intObject != null) {
+            return intObject.advance;
+        }
+
+        return Math.max(1, getFontMetrics().charWidth(codePoint));
     }
 
     /**
-     * Draw a string
+     * Rasterise a character and store it on a page. This must not be called
+     * between glBegin() and glEnd().
      *
-     * @param x The x position to draw the string
-     * @param y The y position to draw the string
-     * @param whatchars The string to draw
-     * @param color The colour to draw the text
+     * @param codePoint The code point of the character
+     * @return The glyph created
      */
-    @Override
-    public void drawString(float x, float y, String whatchars,
-            io.flob.sux.Color color) {
-        drawString(x, y, whatchars, color, 0, whatchars.length() - 1);
-    }
-
-    @Override
-    public void drawString(float x, float y, String whatchars,
-            io.flob.sux.Color color, int startIndex, int endIndex) {
-        color.bind();
-        fontTexture.bind();
-
-        IntObject intObject = null;
-        int charCurrent;
+    private IntObject loadGlyph(int codePoint) {
+        loadGlyphs(new int[]{codePoint}, 1);
 
-        GL.glBegin(SGL.GL_QUADS);
-
-        int totalwidth = 0;
-        for (int i = 0; i < whatchars.length(); i++) {
-            charCurrent = whatchars.charAt(i);
-            if (charCurrent < 256) {
-                intObject = charArray[charCurrent];
-            } else {
-                intObject = (IntObject) customChars.get((char) charCurrent);
-            }
+        return getGlyph(codePoint);
+    }
 
-            if (intObject != null) {
-                if ((i >= startIndex) || (i <= endIndex)) {
-                    drawQuad((x + totalwidth), y,
-                            (x + totalwidth + intObject.width),
-                            (y + intObject.height), intObject.storedX,
-                            intObject.storedY, intObject.storedX + intObject.width,
-                            intObject.storedY + intObject.height);
+    /**
+     * Rasterise characters and store them on the pages. Large batches are
+     * rasterised in parallel, then packed in the order given so the layout of
+     * the pages doesn't depend on the threads, and each page changed is
+     * uploaded once. This must not be called between glBegin() and glEnd().
+     *
+     * @param codePoints The code points of the characters, none of which may
+     * be cached already or repeated
+     * @param count The number of code points
+     */
+    private void loadGlyphs(int[] codePoints, int count) {
+        FontMetrics metrics = getFontMetrics();
+        int[] widths = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = Math.max(1, metrics.charWidth(codePoints[i]));
+        }
+        if (distanceField && (fieldFont == null)) {
+            fieldFont = font.deriveFont(font.getSize2D() * FIELD_SCALE);
+        }
+        byte[][] coverage = rasterise(codePoints, widths, count);
+
+        ArrayList changed = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            IntObject intObject = new IntObject();
+            intObject.advance = widths[i];
+            intObject.width = widths[i] + (padding * 2);
+            intObject.height = fontHeight + (padding * 2);
+
+            int cellWidth = intObject.width + (BORDER * 2);
+            int cellHeight = intObject.height + (BORDER * 2);
+            if ((cellWidth <= maxPageSize) && (cellHeight <= maxPageSize)) {
+                try {
+                    Page page = allocate(cellWidth, cellHeight, intObject);
+                    page.store(intObject, coverage[i]);
+                    page.add(codePoints[i]);
+                    intObject.page = page;
+                    if (!changed.contains(page)) {
+                        changed.add(page);
+                    }
+                } catch (IOException e) {
+                    Log.error("Failed to create font page", e);
                 }
-                totalwidth += intObject.width;
             }
+
+            setGlyph(codePoints[i], intObject);
         }
 
-        GL.glEnd();
+        for (int i = 0; i < changed.size(); i++) {
+            ((Page) changed.get(i)).flush();
+        }
+    }
+
+    /**
+     * Rasterise characters, sharing the work with the worker threads if there
+     * are enough of them
+     *
+     * @param codePoints The code points of the characters
+     * @param widths The width of each character
+     * @param count The number of characters
+     * @return The alpha coverage or distance field of each character
+     */
+    private byte[][] rasterise(final int[] codePoints, final int[] widths, int count) {
+        final byte[][] coverage = new byte[count][];
+        int threads = Math.max(1, Math.min(THREAD_COUNT, count / MIN_GLYPHS_PER_THREAD));
+
+        Future[] futures = new Future[threads - 1];
+        for (int t = 1; t < threads; t++) {
+            final int start = (count * t) / threads;
+            final int end = (count * (t + 1)) / threads;
+            futures[t - 1] = getWorkers().submit(new Runnable() {
+                @Override
+                public void run() {
+                    rasterise(codePoints, widths, coverage, start, end);
+                }
+            });
+        }
+        rasterise(codePoints, widths, coverage, 0, count / threads);
+
+        for (int t = 0; t < futures.length; t++) {
+            try {
+                futures[t].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.error("Failed to rasterise glyphs", e.getCause());
+            }
+        }
+
+        // anything a worker didn't finish is rasterised here
+        for (int i = 0; i < count; i++) {
+            if (coverage[i] == null) {
+                rasterise(codePoints, widths, coverage, i, i + 1);
+            }
+        }
+
+        return coverage;
+    }
+
+    /**
+     * Rasterise a range of characters on the current thread
+     *
+     * @param codePoints The code points of the characters
+     * @param widths The width of each character
+     * @param coverage The array to store the alpha coverage or distance field
+     * of each character in
+     * @param start The index of the first character to rasterise
+     * @param end The index after the last character to rasterise
+     */
+    private void rasterise(int[] codePoints, int[] widths, byte[][] coverage, int start, int end) {
+        Rasteriser rasteriser = (Rasteriser) rasterisers.get();
+        int ascent = fontMetrics.getAscent();
+        if (distanceField) {
+            rasteriser.setFont(fieldFont, true);
+            for (int i = start; i < end; i++) {
+                coverage[i] = rasteriser.rasteriseField(codePoints[i], widths[i], fontHeight, ascent, padding,
+                        FIELD_SCALE);
+            }
+            return;
+        }
+
+        rasteriser.setFont(font, antiAlias);
+        for (int i = start; i < end; i++) {
+            coverage[i] = rasteriser.rasterise(codePoints[i], widths[i], fontHeight, ascent);
+        }
+    }
+
+    /**
+     * Get the pool of worker threads, creating it if required
+     *
+     * @return The pool of worker threads
+     */
+    private static synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SUX Font Rasteriser " + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return workers;
+    }
+
+    /**
+     * Find space on a page for a glyph, growing the last page, adding a page
+     * or clearing the least recently used page if needed
+     *
+     * @param cellWidth The width of the glyph including it's border
+     * @param cellHeight The height of the glyph including it's border
+     * @param intObject The glyph to set the stored position of
+     * @return The page the glyph has been placed on
+     * @throws IOException Indicates a failure to create a page texture
+     */
+    private Page allocate(int cellWidth, int cellHeight, IntObject intObject) throws IOException {
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = (Page) pages.get(i);
+            if (page.allocate(cellWidth, cellHeight, intObject)) {
+                return page;
+            }
+        }
+
+        if (!pages.isEmpty()) {
+            Page last = (Page) pages.get(pages.size() - 1);
+            while (last.size < maxPageSize) {
+                last.grow();
+                if (last.allocate(cellWidth, cellHeight, intObject)) {
+                    return last;
+                }
+            }
+        }
+
+        Page page;
+        if (pages.size() < maxPages) {
+            int size = INITIAL_PAGE_SIZE;
+            while ((size < cellWidth) || (size < cellHeight)) {
+                size *= 2;
+            }
+            page = new Page(Math.min(size, maxPageSize));
+            pages.add(page);
+        } else {
+            page = (Page) pages.get(0);
+            for (int i = 1; i < pages.size(); i++) {
+                Page candidate = (Page) pages.get(i);
+                if (candidate.lastUsed < page.lastUsed) {
+                    page = candidate;
+                }
+            }
+            page.clear();
+            while ((page.size < cellWidth) || (page.size < cellHeight)) {
+                page.grow();
+            }
+        }
+
+        page.allocate(cellWidth, cellHeight, intObject);
+
+        return page;
+    }
+
+    /**
+     * Set the number of pages the glyph cache may use. Once this many pages
+     * are full the least recently drawn page is cleared to make room for new
+     * glyphs.
+     *
+     * @param maxPages The number of pages the cache may use, at least 1
+     */
+    public void setMaxPages(int maxPages) {
+        this.maxPages = Math.max(1, maxPages);
+    }
+
+    /**
+     * Get the number of pages the glyph cache may use
+     *
+     * @return The number of pages the cache may use
+     */
+    public int getMaxPages() {
+        return maxPages;
+    }
+
+    /**
+     * Get the number of pages the glyph cache is using
+     *
+     * @return The number of pages
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Release the pages of the glyph cache. Glyphs drawn afterwards are cached
+     * again.
+     */
+    public void release() {
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = (Page) pages.get(i);
+            page.clear();
+            page.texture.release();
+        }
+        pages.clear();
+        layouts.clear();
+    }
+
+    /**
+     * Set the number of strings whose layout is cached. Drawing a cached
+     * string emits the quads worked out when it was first drawn rather than
+     * looking up each glyph again.
+     *
+     * @param layoutCacheSize The number of strings to cache the layout of, 0
+     * to disable the cache
+     */
+    public void setLayoutCacheSize(int layoutCacheSize) {
+        this.layoutCacheSize = Math.max(0, layoutCacheSize);
+
+        Iterator iterator = layouts.keySet().iterator();
+        while (layouts.size() > this.layoutCacheSize) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Get the number of strings whose layout is cached
+     *
+     * @return The number of strings to cache the layout of
+     */
+    public int getLayoutCacheSize() {
+        return layoutCacheSize;
+    }
+
+    /**
+     * Check if this font stores it's glyphs as distance fields
+     *
+     * @return True if glyphs are stored as distance fields
+     */
+    public boolean isDistanceField() {
+        return distanceField;
+    }
+
+    /**
+     * Set the alpha a distance field must be above to be drawn. Lower values
+     * draw bolder text and higher values thinner. The alpha of the colour text
+     * is drawn with multiplies the field, so also thins the text rather than
+     * fading it.
+     *
+     * @param threshold The threshold between 0 and 1, 0.5 for the glyph's
+     * outline
+     */
+    public void setDistanceFieldThreshold(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the alpha a distance field must be above to be drawn
+     *
+     * @return The threshold between 0 and 1
+     */
+    public float getDistanceFieldThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get the layout of a string, from the cache if it's still valid
+     *
+     * @param text The string to lay out
+     * @return The layout of the string or null if it couldn't be cached
+     * because laying it out moved glyphs it uses
+     */
+    private Layout getLayout(String text) {
+        Layout layout = (Layout) layouts.get(text);
+        if ((layout != null) && (layout.generation == atlasGeneration)) {
+            return layout;
+        }
+
+        layout = new Layout(text);
+        if (layout.generation != atlasGeneration) {
+            layouts.remove(text);
+            return null;
+        }
+        layouts.put(text, layout);
+
+        return layout;
+    }
+
+    /**
+     * Draw a textured quad
+     *
+     * @param drawX The left x position to draw to
+     * @param drawY The top y position to draw to
+     * @param drawX2 The right x position to draw to
+     * @param drawY2 The bottom y position to draw to
+     * @param srcX The left source x position to draw from
+     * @param srcY The top source y position to draw from
+     * @param srcX2 The right source x position to draw from
+     * @param srcY2 The bottom source y position to draw from
+     * @param pageSize The width and height of the page drawn from
+     */
+    private void drawQuad(float drawX, float drawY, float drawX2, float drawY2,
+            float srcX, float srcY, float srcX2, float srcY2, int pageSize) {
+        float DrawWidth = drawX2 - drawX;
+        float DrawHeight = drawY2 - drawY;
+        float TextureSrcX = srcX / pageSize;
+        float TextureSrcY = srcY / pageSize;
+        float SrcWidth = srcX2 - srcX;
+        float SrcHeight = srcY2 - srcY;
+        float RenderWidth = (SrcWidth / pageSize);
+        float RenderHeight = (SrcHeight / pageSize);
+
+        GL.glTexCoord2f(TextureSrcX, TextureSrcY);
+        GL.glVertex2f(drawX, drawY);
+        GL.glTexCoord2f(TextureSrcX, TextureSrcY + RenderHeight);
+        GL.glVertex2f(drawX, drawY + DrawHeight);
+        GL.glTexCoord2f(TextureSrcX + RenderWidth, TextureSrcY + RenderHeight);
+        GL.glVertex2f(drawX + DrawWidth, drawY + DrawHeight);
+        GL.glTexCoord2f(TextureSrcX + RenderWidth, TextureSrcY);
+        GL.glVertex2f(drawX + DrawWidth, drawY);
+    }
+
+    /**
+     * Get the width of a given String
+     *
+     * @param whatchars The characters to get the width of
+     *
+     * @return The width of the characters
+     */
+    @Override
+    public int getWidth(String whatchars) {
+        Layout layout = (Layout) layouts.get(whatchars);
+        if (layout != null) {
+            return layout.width;
+        }
+
+        int totalwidth = 0;
+        for (int i = 0; i < whatchars.length();) {
+            int codePoint = whatchars.codePointAt(i);
+            totalwidth += getAdvance(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return totalwidth;
+    }
+
+    /**
+     * Get the font's height
+     *
+     * @return The height of the font
+     */
+    public int getHeight() {
+        return fontHeight;
+    }
+
+    /**
+     * Get the height of a String
+     *
+     * @param HeightString
+     * @return The height of a given string
+     */
+    @Override
+    public int getHeight(String HeightString) {
+        return fontHeight;
+    }
+
+    /**
+     * Get the font's line height
+     *
+     * @return The line height of the font
+     */
+    @Override
+    public int getLineHeight() {
+        return fontHeight;
+    }
+
+    /**
+     * Draw a string
+     *
+     * @param x The x position to draw the string
+     * @param y The y position to draw the string
+     * @param whatchars The string to draw
+     * @param color The colour to draw the text
+     */
+    @Override
+    public void drawString(float x, float y, String whatchars,
+            io.flob.sux.Color color) {
+        drawString(x, y, whatchars, color, 0, whatchars.length() - 1);
+    }
+
+    @Override
+    public void drawString(float x, float y, String whatchars,
+            io.flob.sux.Color color, int startIndex, int endIndex) {
+        drawString(x, y, whatchars, color, startIndex, endIndex, 1);
+    }
+
+    /**
+     * Draw a string scaled from the font's size. Fonts storing glyphs as
+     * distance fields keep sharp edges at any scale, others are filtered.
+     *
+     * @param x The x position to draw the string
+     * @param y The y position to draw the string
+     * @param whatchars The string to draw
+     * @param color The colour to draw the text
+     * @param scale The scale to draw the text at, 1 for the font's size
+     */
+    public void drawString(float x, float y, String whatchars,
+            io.flob.sux.Color color, float scale) {
+        drawString(x, y, whatchars, color, 0, whatchars.length() - 1, scale);
+    }
+
+    /**
+     * Draw part of a string scaled from the font's size
+     *
+     * @param x The x position to draw the string
+     * @param y The y position to draw the string
+     * @param whatchars The string to draw
+     * @param color The colour to draw the text
+     * @param startIndex The index of the first character to draw
+     * @param endIndex The index of the last character to draw
+     * @param scale The scale to draw the text at, 1 for the font's size
+     */
+    private void drawString(float x, float y, String whatchars,
+            io.flob.sux.Color color, int startIndex, int endIndex, float scale) {
+        Layout layout = null;
+        if ((layoutCacheSize > 0) && (startIndex <= 0) && (endIndex >= whatchars.length() - 1)) {
+            layout = getLayout(whatchars);
+        }
+
+        color.bind();
+        drawCount++;
+
+        // a distance field is drawn where it's above the threshold, the
+        // filtered field giving an edge that's sharp at any scale. The
+        // caller's blend and alpha test state is put back afterwards, the
+        // renderer answering the queries from the state it has set.
+        boolean blend = false;
+        boolean alphaTest = false;
+        if (distanceField) {
+            blend = GL.glIsEnabled(SGL.GL_BLEND);
+            alphaTest = GL.glIsEnabled(SGL.GL_ALPHA_TEST);
+            GL.glGetInteger(SGL.GL_ALPHA_TEST_FUNC, alphaFunc);
+            GL.glGetFloat(SGL.GL_ALPHA_TEST_REF, alphaRef);
+
+            if (blend) {
+                GL.glDisable(SGL.GL_BLEND);
+            }
+            if (!alphaTest) {
+                GL.glEnable(SGL.GL_ALPHA_TEST);
+            }
+            GL.glAlphaFunc(SGL.GL_GREATER, threshold);
+        }
+
+        if (layout != null) {
+            layout.draw(x, y, scale);
+        } else {
+            drawGlyphs(x, y, whatchars, startIndex, endIndex, scale);
+        }
+
+        if (distanceField) {
+            GL.glAlphaFunc(alphaFunc.get(0), alphaRef.get(0));
+            if (!alphaTest) {
+                GL.glDisable(SGL.GL_ALPHA_TEST);
+            }
+            if (blend) {
+                GL.glEnable(SGL.GL_BLEND);
+            }
+        }
+    }
+
+    /**
+     * Draw the glyphs of part of a string without using the layout cache
+     *
+     * @param x The x position to draw the string
+     * @param y The y position to draw the string
+     * @param whatchars The string to draw
+     * @param startIndex The index of the first character to draw
+     * @param endIndex The index of the last character to draw
+     * @param scale The scale to draw the text at
+     */
+    private void drawGlyphs(float x, float y, String whatchars, int startIndex, int endIndex, float scale) {
+        Page bound = null;
+        int totalwidth = 0;
+        for (int i = 0; i < whatchars.length();) {
+            int codePoint = whatchars.codePointAt(i);
+            if ((i < startIndex) || (i > endIndex)) {
+                totalwidth += getAdvance(codePoint);
+                i += Character.charCount(codePoint);
+                continue;
+            }
+
+            IntObject intObject = getGlyph(codePoint);
+            if (intObject == null) {
+                // the glyph is uploaded to it's page outside of glBegin()
+                if (bound != null) {
+                    GL.glEnd();
+                    bound = null;
+                }
+                intObject = loadGlyph(codePoint);
+            }
+
+            Page page = intObject.page;
+            if (page != null) {
+                if (page != bound) {
+                    if (bound != null) {
+                        GL.glEnd();
+                    }
+                    page.texture.bind();
+                    GL.glBegin(SGL.GL_QUADS);
+                    bound = page;
+                }
+                page.lastUsed = drawCount;
+
+                float drawX = x + ((totalwidth - padding) * scale);
+                float drawY = y - (padding * scale);
+                drawQuad(drawX, drawY,
+                        drawX + (intObject.width * scale),
+                        drawY + (intObject.height * scale), intObject.storedX,
+                        intObject.storedY, intObject.storedX + intObject.width,
+                        intObject.storedY + intObject.height, page.size);
+            }
+            totalwidth += intObject.advance;
+            i += Character.charCount(codePoint);
+        }
+
+        if (bound != null) {
+            GL.glEnd();
+        }
     }
 
     /**
@@ -421,4 +1344,565 @@ public class TrueTypeFont implements io.flob.sux.Font {
         drawString(x, y, whatchars, io.flob.sux.Color.white);
     }
 
+
+    /**
+     * A texture glyphs are packed into in rows. A copy of the glyph coverage is
+     * kept so the page can grow by recreating it's texture at a larger size.
+     */
+    private class Page {
+
+        /**
+         * The texture holding the page's glyphs
+         */
+        private TextureImpl texture;
+
+        /**
+         * The width and height of the page
+         */
+        private int size;
+
+        /**
+         * The alpha of each pixel of the page
+         */
+        private byte[] coverage;
+
+        /**
+         * The x position the next glyph in the current row will be placed at
+         */
+        private int rowX;
+
+        /**
+         * The y position of the current row
+         */
+        private int rowY;
+
+        /**
+         * The height of the current row
+         */
+        private int rowHeight;
+
+        /**
+         * The code points of the glyphs stored on the page
+         */
+        private int[] codePoints = new int[64];
+
+        /**
+         * The number of glyphs stored on the page
+         */
+        private int glyphCount;
+
+        /**
+         * The value of drawCount when a glyph on the page was last drawn
+         */
+        private long lastUsed;
+
+        /**
+         * The left edge of the area changed since the last flush
+         */
+        private int dirtyLeft;
+
+        /**
+         * The top edge of the area changed since the last flush
+         */
+        private int dirtyTop;
+
+        /**
+         * The right edge of the area changed since the last flush, no greater
+         * than dirtyLeft if nothing has changed
+         */
+        private int dirtyRight;
+
+        /**
+         * The bottom edge of the area changed since the last flush
+         */
+        private int dirtyBottom;
+
+        /**
+         * Create a new empty page
+         *
+         * @param size The width and height of the page
+         * @throws IOException Indicates a failure to create the page texture
+         */
+        Page(int size) throws IOException {
+            this.size = size;
+            coverage = new byte[size * size];
+            texture = createTexture(size);
+            lastUsed = drawCount;
+        }
+
+        /**
+         * Create a texture for the page, which restores the page's glyphs from
+         * the coverage when it's reloaded
+         *
+         * @param textureSize The width and height of the texture
+         * @return The texture created
+         * @throws IOException Indicates a failure to create the texture
+         */
+        private TextureImpl createTexture(int textureSize) throws IOException {
+            TextureImpl created = (TextureImpl) InternalTextureLoader.get().createTexture(textureSize, textureSize,
+                    SGL.GL_LINEAR);
+            created.setReloadCallback(new Runnable() {
+                @Override
+                public void run() {
+                    int used = rowY + rowHeight;
+                    if (used > 0) {
+                        upload(0, 0, size, used);
+                    }
+                }
+            });
+
+            return created;
+        }
+
+        /**
+         * Find space for a glyph on the page
+         *
+         * @param cellWidth The width of the glyph including it's border
+         * @param cellHeight The height of the glyph including it's border
+         * @param intObject The glyph to set the stored position of
+         * @return True if the glyph fits on the page
+         */
+        boolean allocate(int cellWidth, int cellHeight, IntObject intObject) {
+            int x = rowX;
+            int y = rowY;
+            int height = rowHeight;
+            if (x + cellWidth > size) {
+                x = 0;
+                y += height;
+                height = 0;
+            }
+            if ((x + cellWidth > size) || (y + cellHeight > size)) {
+                return false;
+            }
+
+            intObject.storedX = x + BORDER;
+            intObject.storedY = y + BORDER;
+            rowX = x + cellWidth;
+            rowY = y;
+            rowHeight = Math.max(height, cellHeight);
+
+            return true;
+        }
+
+        /**
+         * Copy a rasterised glyph, with it's border, to the page. The page
+         * texture isn't updated until flush() is called.
+         *
+         * @param intObject The glyph being stored
+         * @param glyphCoverage The alpha coverage of the glyph
+         */
+        void store(IntObject intObject, byte[] glyphCoverage) {
+            int cellX = intObject.storedX - BORDER;
+            int cellY = intObject.storedY - BORDER;
+            int cellWidth = intObject.width + (BORDER * 2);
+            int cellHeight = intObject.height + (BORDER * 2);
+
+            for (int y = 0; y < cellHeight; y++) {
+                int ofs = ((cellY + y) * size) + cellX;
+                Arrays.fill(coverage, ofs, ofs + cellWidth, (byte) 0);
+            }
+            for (int y = 0; y < intObject.height; y++) {
+                System.arraycopy(glyphCoverage, y * intObject.width, coverage,
+                        ((intObject.storedY + y) * size) + intObject.storedX, intObject.width);
+            }
+
+            if (dirtyRight <= dirtyLeft) {
+                dirtyLeft = cellX;
+                dirtyTop = cellY;
+                dirtyRight = cellX + cellWidth;
+                dirtyBottom = cellY + cellHeight;
+            } else {
+                dirtyLeft = Math.min(dirtyLeft, cellX);
+                dirtyTop = Math.min(dirtyTop, cellY);
+                dirtyRight = Math.max(dirtyRight, cellX + cellWidth);
+                dirtyBottom = Math.max(dirtyBottom, cellY + cellHeight);
+            }
+        }
+
+        /**
+         * Upload the area of the page changed since the last flush
+         */
+        void flush() {
+            if (dirtyRight > dirtyLeft) {
+                upload(dirtyLeft, dirtyTop, dirtyRight - dirtyLeft, dirtyBottom - dirtyTop);
+                dirtyRight = dirtyLeft;
+            }
+        }
+
+        /**
+         * Upload an area of the coverage to the page texture as white pixels
+         * with the coverage as alpha
+         *
+         * @param x The x position of the area
+         * @param y The y position of the area
+         * @param width The width of the area
+         * @param height The height of the area
+         */
+        private void upload(int x, int y, int width, int height) {
+            ByteBuffer pixels = BufferPool.get().allocate(width * height * 4);
+            for (int row = 0; row < height; row++) {
+                int ofs = ((y + row) * size) + x;
+                for (int col = 0; col < width; col++) {
+                    pixels.put((byte) 255).put((byte) 255).put((byte) 255).put(coverage[ofs + col]);
+                }
+            }
+            pixels.flip();
+
+            // anything batched may still be drawn from the area being replaced
+            GL.flush();
+            texture.bind();
+            GL.glTexSubImage2D(SGL.GL_TEXTURE_2D, 0, x, y, width, height, SGL.GL_RGBA, SGL.GL_UNSIGNED_BYTE,
+                    pixels);
+            BufferPool.get().release(pixels);
+        }
+
+        /**
+         * Double the size of the page, keeping the glyphs stored on it where
+         * they are. The page texture isn't updated until flush() is called.
+         *
+         * @throws IOException Indicates a failure to create the new texture
+         */
+        void grow() throws IOException {
+            int newSize = size * 2;
+            byte[] newCoverage = new byte[newSize * newSize];
+            for (int y = 0; y < size; y++) {
+                System.arraycopy(coverage, y * size, newCoverage, y * newSize, size);
+            }
+
+            TextureImpl newTexture = createTexture(newSize);
+            GL.flush();
+            texture.release();
+            texture = newTexture;
+            coverage = newCoverage;
+            size = newSize;
+            atlasGeneration++;
+
+            // the new texture is filled in by the next flush
+            dirtyLeft = 0;
+            dirtyTop = 0;
+            dirtyRight = rowY + rowHeight > 0 ? size : 0;
+            dirtyBottom = rowY + rowHeight;
+        }
+
+        /**
+         * Read the packing state and coverage of the page from an atlas cache.
+         * The page texture isn't updated until flush() is called.
+         *
+         * @param in The buffer to read from
+         * @throws IOException Indicates the data is invalid for the page
+         */
+        void read(ByteBuffer in) throws IOException {
+            rowX = in.getInt();
+            rowY = in.getInt();
+            rowHeight = in.getInt();
+            int used = rowY + rowHeight;
+            if ((rowX < 0) || (rowX > size) || (rowY < 0) || (rowHeight < 0) || (used > size)) {
+                throw new IOException("Invalid page rows");
+            }
+
+            in.get(coverage, 0, used * size);
+            dirtyLeft = 0;
+            dirtyTop = 0;
+            dirtyRight = used > 0 ? size : 0;
+            dirtyBottom = used;
+        }
+
+        /**
+         * Write the packing state and coverage of the page to an atlas cache
+         *
+         * @param out The stream to write to
+         * @throws IOException Indicates a failure to write the stream
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(rowX);
+            out.writeInt(rowY);
+            out.writeInt(rowHeight);
+            out.write(coverage, 0, (rowY + rowHeight) * size);
+        }
+
+        /**
+         * Record a glyph stored on the page
+         *
+         * @param codePoint The code point of the glyph
+         */
+        void add(int codePoint) {
+            if (glyphCount == codePoints.length) {
+                codePoints = Arrays.copyOf(codePoints, glyphCount * 2);
+            }
+            codePoints[glyphCount++] = codePoint;
+        }
+
+        /**
+         * Remove every glyph from the page so it can be reused
+         */
+        void clear() {
+            for (int i = 0; i < glyphCount; i++) {
+                glyphs[codePoints[i] >> BLOCK_BITS][codePoints[i] & ((1 << BLOCK_BITS) - 1)] = null;
+            }
+            glyphCount = 0;
+            rowX = 0;
+            rowY = 0;
+            rowHeight = 0;
+            lastUsed = drawCount;
+            atlasGeneration++;
+        }
+    }
+
+    /**
+     * The quads a string is drawn with, relative to the position it's drawn
+     * at, grouped into runs drawn from the same page
+     */
+    private class Layout {
+
+        /**
+         * The quads of the string, each the left, top, right and bottom of the
+         * quad followed by the left, top, right and bottom of it's texture
+         * coordinates
+         */
+        private final float[] quads;
+
+        /**
+         * The page each run of quads is drawn from
+         */
+        private final Page[] runPages;
+
+        /**
+         * The index of the quad after the end of each run
+         */
+        private final int[] runEnds;
+
+        /**
+         * The width of the string
+         */
+        private final int width;
+
+        /**
+         * The value of atlasGeneration before the string was laid out
+         */
+        private final int generation;
+
+        /**
+         * Lay out a string, caching any glyphs it uses that aren't cached.
+         * This must not be called between glBegin() and glEnd().
+         *
+         * @param text The string to lay out
+         */
+        Layout(String text) {
+            generation = atlasGeneration;
+
+            float[] allQuads = new float[text.length() * 8];
+            Page[] allPages = new Page[text.length()];
+            int[] allEnds = new int[text.length()];
+            int quadCount = 0;
+            int runCount = 0;
+            int totalwidth = 0;
+            for (int i = 0; i < text.length();) {
+                int codePoint = text.codePointAt(i);
+                IntObject intObject = getGlyph(codePoint);
+                if (intObject == null) {
+                    intObject = loadGlyph(codePoint);
+                }
+
+                Page page = intObject.page;
+                if (page != null) {
+                    if ((runCount == 0) || (allPages[runCount - 1] != page)) {
+                        allPages[runCount++] = page;
+                    }
+
+                    int q = quadCount * 8;
+                    float srcX = (float) intObject.storedX / page.size;
+                    float srcY = (float) intObject.storedY / page.size;
+                    allQuads[q] = totalwidth - padding;
+                    allQuads[q + 1] = -padding;
+                    allQuads[q + 2] = (totalwidth - padding) + intObject.width;
+                    allQuads[q + 3] = intObject.height - padding;
+                    allQuads[q + 4] = srcX;
+                    allQuads[q + 5] = srcY;
+                    allQuads[q + 6] = srcX + ((float) intObject.width / page.size);
+                    allQuads[q + 7] = srcY + ((float) intObject.height / page.size);
+                    allEnds[runCount - 1] = ++quadCount;
+                }
+                totalwidth += intObject.advance;
+                i += Character.charCount(codePoint);
+            }
+
+            quads = Arrays.copyOf(allQuads, quadCount * 8);
+            runPages = Arrays.copyOf(allPages, runCount);
+            runEnds = Arrays.copyOf(allEnds, runCount);
+            width = totalwidth;
+        }
+
+        /**
+         * Draw the string
+         *
+         * @param x The x position to draw the string
+         * @param y The y position to draw the string
+         * @param scale The scale to draw the string at
+         */
+        void draw(float x, float y, float scale) {
+            int q = 0;
+            for (int run = 0; run < runPages.length; run++) {
+                Page page = runPages[run];
+                page.lastUsed = drawCount;
+                page.texture.bind();
+
+                GL.glBegin(SGL.GL_QUADS);
+                for (int end = runEnds[run] * 8; q < end; q += 8) {
+                    float left = x + (quads[q] * scale);
+                    float top = y + (quads[q + 1] * scale);
+                    float right = x + (quads[q + 2] * scale);
+                    float bottom = y + (quads[q + 3] * scale);
+                    GL.glTexCoord2f(quads[q + 4], quads[q + 5]);
+                    GL.glVertex2f(left, top);
+                    GL.glTexCoord2f(quads[q + 4], quads[q + 7]);
+                    GL.glVertex2f(left, bottom);
+                    GL.glTexCoord2f(quads[q + 6], quads[q + 7]);
+                    GL.glVertex2f(right, bottom);
+                    GL.glTexCoord2f(quads[q + 6], quads[q + 5]);
+                    GL.glVertex2f(right, top);
+                }
+                GL.glEnd();
+            }
+        }
+    }
+
+    /**
+     * The scratch image a thread rasterises glyphs into, reused between glyphs
+     * and fonts
+     */
+    private static class Rasteriser {
+
+        /**
+         * The image glyphs are drawn into
+         */
+        private BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+        /**
+         * The graphics context drawing into the scratch image
+         */
+        private Graphics2D graphics = createGraphics();
+
+        /**
+         * The font glyphs are drawn with
+         */
+        private java.awt.Font font;
+
+        /**
+         * True if glyphs are drawn with AntiAliasing
+         */
+        private boolean antiAlias;
+
+        /**
+         * Create a graphics context drawing into the scratch image
+         *
+         * @return The graphics context
+         */
+        private Graphics2D createGraphics() {
+            Graphics2D g = (Graphics2D) scratch.getGraphics();
+            g.setColor(Color.WHITE);
+
+            return g;
+        }
+
+        /**
+         * Set the font glyphs are drawn with
+         *
+         * @param font The font to draw with
+         * @param antiAlias True if glyphs are drawn with AntiAliasing
+         */
+        void setFont(java.awt.Font font, boolean antiAlias) {
+            this.font = font;
+            this.antiAlias = antiAlias;
+            graphics.setFont(font);
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    antiAlias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_DEFAULT);
+        }
+
+        /**
+         * Get the metrics of a font
+         *
+         * @param font The font to get the metrics of
+         * @param antiAlias True if glyphs are drawn with AntiAliasing
+         * @return The metrics of the font
+         */
+        FontMetrics getFontMetrics(java.awt.Font font, boolean antiAlias) {
+            setFont(font, antiAlias);
+
+            return graphics.getFontMetrics();
+        }
+
+        /**
+         * Rasterise a character as a distance field. The character is drawn
+         * at the scale of the field into the scratch image, which the field is
+         * generated from.
+         *
+         * @param codePoint The code point of the character
+         * @param width The width of the character at the font's size
+         * @param height The height of the character at the font's size
+         * @param ascent The ascent of the font at the font's size
+         * @param padding The space around the character the field extends
+         * into
+         * @param scale The scale the current font is drawn at
+         * @return The distance field of the character, with the padding
+         */
+        byte[] rasteriseField(int codePoint, int width, int height, int ascent, int padding, int scale) {
+            int fieldWidth = width + (padding * 2);
+            int fieldHeight = height + (padding * 2);
+            int[] pixels = draw(codePoint, fieldWidth * scale, fieldHeight * scale, padding * scale,
+                    (padding + ascent) * scale);
+
+            return DistanceField.generate(pixels, scratch.getWidth(), fieldWidth, fieldHeight, scale, padding);
+        }
+
+        /**
+         * Rasterise a character
+         *
+         * @param codePoint The code point of the character
+         * @param width The width of the character
+         * @param height The height of the character
+         * @param ascent The ascent of the font
+         * @return The alpha coverage of the character, width * height bytes
+         */
+        byte[] rasterise(int codePoint, int width, int height, int ascent) {
+            int[] pixels = draw(codePoint, width, height, 0, ascent);
+            int stride = scratch.getWidth();
+            byte[] coverage = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    coverage[(y * width) + x] = (byte) (pixels[(y * stride) + x] >>> 24);
+                }
+            }
+
+            return coverage;
+        }
+
+        /**
+         * Draw a character into the top left of the scratch image
+         *
+         * @param codePoint The code point of the character
+         * @param width The width of the area to draw into
+         * @param height The height of the area to draw into
+         * @param x The x position to draw the character at
+         * @param baseline The y position of the character's baseline
+         * @return The ARGB pixels of the scratch image
+         */
+        private int[] draw(int codePoint, int width, int height, int x, int baseline) {
+            if ((scratch.getWidth() < width) || (scratch.getHeight() < height)) {
+                graphics.dispose();
+                scratch = new BufferedImage(Math.max(width, scratch.getWidth()), Math.max(height, scratch.getHeight()),
+                        BufferedImage.TYPE_INT_ARGB);
+                graphics = createGraphics();
+                setFont(font, antiAlias);
+            }
+
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setComposite(AlphaComposite.SrcOver);
+            graphics.setClip(0, 0, width, height);
+            graphics.drawString(new String(Character.toChars(codePoint)), x, baseline);
+            graphics.setClip(null);
+
+            return ((DataBufferInt) scratch.getRaster().getDataBuffer()).getData();
+        }
+    }
 }
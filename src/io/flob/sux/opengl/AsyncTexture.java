@@ -0,0 +1,366 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.SGL;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A texture proxy whose image is decoded on a worker thread by the
+ * AsyncTextureLoader and uploaded later on the GL thread. Using the texture
+ * before the upload has happened uploads it immediately, decoding it on the GL
+ * thread if no worker has started to, or waiting for the worker that has.
+ *
+ * @author agent
+ */
+public class AsyncTexture extends TextureImpl {
+
+    /**
+     * The name of the resource to load
+     */
+    private final String resourceName;
+    /**
+     * The key the texture will be stored against in the cache
+     */
+    private final TextureKey key;
+    /**
+     * The stream to decode the image from, or null to open the resource
+     */
+    private InputStream in;
+    /**
+     * Set by the first thread to start decoding the image, so it's decoded
+     * only once
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean();
+    /**
+     * True if loading was cancelled before the texture was uploaded
+     */
+    private boolean cancelled;
+    /**
+     * Released once the decode has completed, successfully or not
+     */
+    private final CountDownLatch decodeLatch = new CountDownLatch(1);
+    /**
+     * The decoded image data waiting to be uploaded
+     */
+    private volatile DecodedImageData decoded;
+    /**
+     * The failure that occured while decoding, or null if none
+     */
+    private volatile IOException failure;
+    /**
+     * The texture we're proxying for
+     */
+    private TextureImpl target;
+
+    /**
+     * Create a new asynchronously loaded texture
+     *
+     * @param key The key the texture will be stored against in the cache
+     * @param in The stream to decode the image from, or null to open the
+     * resource
+     */
+    AsyncTexture(TextureKey key, InputStream in) {
+        this.resourceName = key.getResourceName();
+        this.key = key;
+        this.in = in;
+    }
+
+    /**
+     * Get the key this texture will be stored against in the cache
+     *
+     * @return The key this texture will be stored against in the cache
+     */
+    TextureKey getKey() {
+        return key;
+    }
+
+    /**
+     * Claim the decode of the image for the calling thread
+     *
+     * @return True if the caller should decode the image, false if another
+     * thread has already started to or loading was cancelled
+     */
+    boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Take the stream to decode the image from, called by the thread that
+     * claimed the decode
+     *
+     * @return The stream or null to open the resource
+     */
+    InputStream takeStream() {
+        InputStream stream = in;
+        in = null;
+        return stream;
+    }
+
+    /**
+     * Notification that the image has been decoded
+     *
+     * @param data The decoded image data
+     */
+    synchronized void decoded(DecodedImageData data) {
+        if (cancelled) {
+            InternalTextureLoader.release(data);
+            return;
+        }
+        decoded = data;
+        decodeLatch.countDown();
+    }
+
+    /**
+     * Notification that the image failed to decode
+     *
+     * @param e The failure that occured
+     */
+    synchronized void failed(IOException e) {
+        if (cancelled) {
+            return;
+        }
+        failure = e;
+        decodeLatch.countDown();
+    }
+
+    /**
+     * Cancel loading a texture that hasn't been uploaded, releasing any
+     * decoded image data. Using the texture afterwards fails.
+     */
+    synchronized void cancel() {
+        if (cancelled || (target != null)) {
+            return;
+        }
+
+        cancelled = true;
+        if (claimed.compareAndSet(false, true) && (in != null)) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore, it'll never be read
+            }
+        }
+        if (decoded != null) {
+            InternalTextureLoader.release(decoded);
+            decoded = null;
+        }
+        failure = new IOException("Loading was cancelled before the texture was uploaded: " + resourceName);
+        decodeLatch.countDown();
+    }
+
+    /**
+     * Check if loading was cancelled before the texture was uploaded
+     *
+     * @return True if loading was cancelled
+     */
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Check if the texture has been uploaded and OpenGL has finished reading
+     * it's pixel data
+     *
+     * @return True if the texture has been uploaded
+     */
+    public boolean isLoaded() {
+        return (target != null) && target.isUploadComplete();
+    }
+
+    @Override
+    public boolean isUploadComplete() {
+        return isLoaded();
+    }
+
+    /**
+     * Upload the decoded image. If no worker has started decoding it, it's
+     * decoded on the calling thread, otherwise the worker that has is waited
+     * for. Workers never block once they've started decoding, so the wait is
+     * only ever for the decode itself. Must be called on the GL thread. Does
+     * nothing if the texture has already been uploaded.
+     *
+     * @throws IOException Indicates a failure to decode or upload the image
+     */
+    void upload() throws IOException {
+        if (target != null) {
+            return;
+        }
+
+        if (claim()) {
+            AsyncTextureLoader.get().decode(this);
+        }
+        try {
+            decodeLatch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for texture decode: " + resourceName);
+        }
+
+        AsyncTextureLoader.get().uploaded(this);
+        if (failure != null) {
+            throw failure;
+        }
+
+        InternalTextureLoader loader = InternalTextureLoader.get();
+        target = loader.upload(key, decoded);
+        loader.getCache().put(key, target);
+        decoded = null;
+    }
+
+    private void checkTarget() {
+        if (target == null) {
+            try {
+                upload();
+            } catch (IOException e) {
+                throw new RuntimeException("Attempt to use asynchronous texture that failed to load: " + resourceName);
+            }
+        }
+    }
+
+    @Override
+    public void bind() {
+        checkTarget();
+
+        target.bind();
+    }
+
+    @Override
+    public float getHeight() {
+        checkTarget();
+
+        return target.getHeight();
+    }
+
+    @Override
+    public int getImageHeight() {
+        checkTarget();
+        return target.getImageHeight();
+    }
+
+    @Override
+    public int getImageWidth() {
+        checkTarget();
+        return target.getImageWidth();
+    }
+
+    @Override
+    public int getTextureHeight() {
+        checkTarget();
+        return target.getTextureHeight();
+    }
+
+    @Override
+    public int getTextureID() {
+        checkTarget();
+        return target.getTextureID();
+    }
+
+    @Override
+    public String getTextureRef() {
+        return resourceName;
+    }
+
+    @Override
+    public int getTextureWidth() {
+        checkTarget();
+        return target.getTextureWidth();
+    }
+
+    @Override
+    public float getWidth() {
+        checkTarget();
+        return target.getWidth();
+    }
+
+    @Override
+    public void release() {
+        checkTarget();
+        target.release();
+    }
+
+    @Override
+    public void setAlpha(boolean alpha) {
+        checkTarget();
+        target.setAlpha(alpha);
+    }
+
+    @Override
+    public void setHeight(int height) {
+        checkTarget();
+        target.setHeight(height);
+    }
+
+    @Override
+    public void setTextureHeight(int texHeight) {
+        checkTarget();
+        target.setTextureHeight(texHeight);
+    }
+
+    @Override
+    public void setTextureID(int textureID) {
+        checkTarget();
+        target.setTextureID(textureID);
+    }
+
+    @Override
+    public void setTextureWidth(int texWidth) {
+        checkTarget();
+        target.setTextureWidth(texWidth);
+    }
+
+    @Override
+    public void setWidth(int width) {
+        checkTarget();
+        target.setWidth(width);
+    }
+
+    @Override
+    public byte[] getTextureData() {
+        checkTarget();
+        return target.getTextureData();
+    }
+
+    @Override
+    public boolean hasAlpha() {
+        checkTarget();
+        return target.hasAlpha();
+    }
+
+    @Override
+    public boolean isPremultipliedAlpha() {
+        checkTarget();
+        return target.isPremultipliedAlpha();
+    }
+
+    @Override
+    public void setTextureFilter(int textureFilter) {
+        checkTarget();
+        target.setTextureFilter(textureFilter);
+    }
+
+    @Override
+    void setPinned(boolean pinned) {
+        checkTarget();
+        target.setPinned(pinned);
+    }
+
+    @Override
+    public boolean isPinned() {
+        checkTarget();
+        return target.isPinned();
+    }
+
+    @Override
+    public boolean isEvicted() {
+        checkTarget();
+        return target.isEvicted();
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        checkTarget();
+        return target.getMemoryUsage();
+    }
+}
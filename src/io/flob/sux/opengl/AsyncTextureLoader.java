@@ -0,0 +1,353 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.util.Log;
+import io.flob.sux.util.ResourceLoader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A two stage texture loader. Images are decoded on a pool of worker threads
+ * and the results placed on an upload queue, which is drained on the GL thread
+ * by calling update() once a frame with a time budget. This keeps the
+ * expensive decode off the render thread and lets it scale with the number of
+ * cores available. The number of decoded images waiting for upload is bounded
+ * by workers waiting for a slot before they start a decode, never after, so a
+ * texture used before it's uploaded can always be decoded on the GL thread.
+ *
+ * Expected usage:
+ *
+ * <code>
+ * Texture tex = AsyncTextureLoader.get().getTexture("res/sprite.png", false, SGL.GL_LINEAR);
+ * ...
+ * // once a frame on the GL thread, upload for at most 4ms
+ * AsyncTextureLoader.get().update(4);
+ * </code>
+ *
+ * @author agent
+ */
+public class AsyncTextureLoader {
+
+    /**
+     * The default number of decoded images that may wait for upload
+     */
+    private static final int DEFAULT_QUEUE_SIZE = 16;
+
+    /**
+     * The single instance of this loader
+     */
+    private static final AsyncTextureLoader loader = new AsyncTextureLoader();
+
+    /**
+     * Get the single instance of this texture loader
+     *
+     * @return The single instance of the texture loader
+     */
+    public static AsyncTextureLoader get() {
+        return loader;
+    }
+
+    /**
+     * The pool of threads decoding images
+     */
+    private ExecutorService workers;
+    /**
+     * The number of threads to decode with
+     */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    /**
+     * The queue of decoded textures waiting to be uploaded
+     */
+    private final LinkedBlockingQueue uploads = new LinkedBlockingQueue();
+    /**
+     * The slots for decoded textures waiting to be uploaded, taken by a worker
+     * before it decodes and given back as the texture is taken for upload
+     */
+    private volatile Semaphore slots = new Semaphore(DEFAULT_QUEUE_SIZE);
+    /**
+     * The textures that have been requested but not yet uploaded (TextureKey
+     * <-> AsyncTexture)
+     */
+    private final HashMap pending = new HashMap();
+
+    /**
+     * Create a new loader
+     */
+    private AsyncTextureLoader() {
+    }
+
+    /**
+     * Set the number of worker threads used to decode images. Only takes effect
+     * before the first texture is requested or after shutdown().
+     *
+     * @param threadCount The number of worker threads to use
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Set the number of decoded images that may wait for upload before the
+     * worker threads stop decoding. Bounding this bounds the memory held in
+     * decoded pixel data. Only takes effect while nothing is pending.
+     *
+     * @param size The maximum number of decoded images waiting for upload
+     */
+    public void setUploadQueueSize(int size) {
+        if (pending.isEmpty() && uploads.isEmpty()) {
+            slots = new Semaphore(Math.max(1, size));
+        }
+    }
+
+    /**
+     * Get a texture from a resource location, decoding it in the background
+     *
+     * @param resourceName The location to load the texture from
+     * @param flipped True if we should flip the texture on the y axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @return The texture, which will be ready once it has been uploaded
+     */
+    public Texture getTexture(String resourceName, boolean flipped, int filter) {
+        return getTexture(null, resourceName, flipped, filter, null);
+    }
+
+    /**
+     * Get a texture from a resource location, decoding it in the background
+     *
+     * @param resourceName The location to load the texture from
+     * @param flipped True if we should flip the texture on the y axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @param transparent The colour to interpret as transparent or null if none
+     * @return The texture, which will be ready once it has been uploaded
+     */
+    public Texture getTexture(String resourceName, boolean flipped, int filter, int[] transparent) {
+        return getTexture(null, resourceName, flipped, filter, transparent);
+    }
+
+    /**
+     * Get a texture from a image stream, decoding it in the background. The
+     * stream will be read and closed on a worker thread.
+     *
+     * @param in The stream from which we can load the image, or null to open
+     * the resource named
+     * @param resourceName The name to give this image in the internal cache
+     * @param flipped True if we should flip the image on the y-axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @param transparent The colour to interpret as transparent or null if none
+     * @return The texture, which will be ready once it has been uploaded
+     */
+    public Texture getTexture(final InputStream in, final String resourceName, boolean flipped,
+            int filter, int[] transparent) {
+        final InternalTextureLoader internal = InternalTextureLoader.get();
+        final TextureKey key = internal.createKey(resourceName, filter, flipped, transparent);
+
+        TextureImpl cached = internal.getCache().get(key);
+        if (cached != null) {
+            close(in);
+            return cached;
+        }
+        AsyncTexture tex = (AsyncTexture) pending.get(key);
+        if (tex != null) {
+            close(in);
+            return tex;
+        }
+
+        final AsyncTexture texture = new AsyncTexture(key, in);
+        final Semaphore taskSlots = slots;
+        pending.put(key, texture);
+
+        getWorkers().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taskSlots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                // the GL thread may have decoded it already, or be doing so
+                if (!texture.claim()) {
+                    taskSlots.release();
+                    return;
+                }
+                decode(texture);
+                if (texture.isCancelled()) {
+                    taskSlots.release();
+                    return;
+                }
+                uploads.add(texture);
+            }
+        });
+
+        return texture;
+    }
+
+    /**
+     * Decode the image of a texture, on the thread that claimed the decode
+     *
+     * @param texture The texture to decode the image of
+     */
+    void decode(AsyncTexture texture) {
+        String resourceName = texture.getKey().getResourceName();
+        InputStream stream = texture.takeStream();
+        try {
+            if (stream == null) {
+                stream = ResourceLoader.getResourceAsStream(resourceName);
+            }
+            InternalTextureLoader loader = InternalTextureLoader.get();
+            DecodedImageData data = loader.decode(stream, texture.getKey());
+            loader.hold(resourceName, data);
+            texture.decoded(data);
+        } catch (IOException e) {
+            texture.failed(e);
+        } catch (RuntimeException e) {
+            texture.failed(new IOException("Failed to decode texture: " + resourceName, e));
+        } finally {
+            close(stream);
+        }
+    }
+
+    /**
+     * Upload decoded textures until the time budget has been used. Must be
+     * called on the GL thread. At least one texture is uploaded per call if one
+     * is waiting so loading always progresses.
+     *
+     * @param budget The time in milliseconds that may be spent uploading
+     * @return The number of textures still waiting to be decoded or uploaded
+     */
+    public int update(long budget) {
+        long end = System.nanoTime() + (budget * 1000000L);
+
+        do {
+            AsyncTexture texture = (AsyncTexture) uploads.poll();
+            if (texture == null) {
+                break;
+            }
+            slots.release();
+            upload(texture);
+        } while (System.nanoTime() < end);
+
+        return pending.size();
+    }
+
+    /**
+     * Block until every requested texture has been decoded and uploaded. Must
+     * be called on the GL thread.
+     */
+    public void finish() {
+        while (!pending.isEmpty()) {
+            try {
+                AsyncTexture texture = (AsyncTexture) uploads.take();
+                slots.release();
+                upload(texture);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Get the number of textures still waiting to be decoded or uploaded
+     *
+     * @return The number of textures still waiting to be decoded or uploaded
+     */
+    public int getRemaining() {
+        return pending.size();
+    }
+
+    /**
+     * Stop the worker threads and cancel every texture that hasn't been
+     * uploaded, releasing it's decoded image data. Using a cancelled texture
+     * fails. The pool is recreated by the next request.
+     */
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdown();
+            workers = null;
+        }
+
+        Iterator textures = pending.values().iterator();
+        while (textures.hasNext()) {
+            ((AsyncTexture) textures.next()).cancel();
+        }
+        pending.clear();
+        while (uploads.poll() != null) {
+            slots.release();
+        }
+    }
+
+    /**
+     * Notification that a texture has been taken for upload, successfully or
+     * not, and is no longer pending
+     *
+     * @param texture The texture being uploaded
+     */
+    void uploaded(AsyncTexture texture) {
+        pending.remove(texture.getKey());
+    }
+
+    /**
+     * Upload a texture taken from the queue, logging any failure
+     *
+     * @param texture The texture to upload
+     */
+    private void upload(AsyncTexture texture) {
+        if (texture.isCancelled()) {
+            return;
+        }
+        try {
+            texture.upload();
+        } catch (IOException e) {
+            Log.error("Failed to load texture: " + texture.getTextureRef(), e);
+        }
+    }
+
+    /**
+     * Get the pool of worker threads, creating it if required
+     *
+     * @return The pool of worker threads
+     */
+    private ExecutorService getWorkers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SUX Texture Decoder " + (++count));
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                }
+            });
+        }
+
+        return workers;
+    }
+
+    /**
+     * Close a stream quietly
+     *
+     * @param in The stream to close, may be null
+     */
+    private static void close(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore, we're done with it
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.util.Log;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * A pool of direct byte buffers used as scratch space while decoding images.
+ * Direct buffers are expensive to allocate and are only freed when the garbage
+ * collector gets around to it, so buffers are handed out from power of two
+ * size classes and reused once they are released back to the pool.
+ *
+ * Buffers are cleared to zero when reused, as they would be when freshly
+ * allocated. A buffer that is never released is simply garbage collected.
+ * The pool is safe to use from the decoding threads.
+ *
+ * @author agent
+ */
+public class BufferPool {
+
+    /**
+     * The single instance of the pool
+     */
+    private static final BufferPool pool = new BufferPool();
+
+    /**
+     * Get the single instance of the pool
+     *
+     * @return The single instance of the pool
+     */
+    public static BufferPool get() {
+        return pool;
+    }
+
+    /**
+     * The log2 of the smallest size class (4KB)
+     */
+    private static final int MIN_SHIFT = 12;
+    /**
+     * The log2 of the largest size class (64MB), larger buffers aren't pooled
+     */
+    private static final int MAX_SHIFT = 26;
+    /**
+     * Zeros used to clear reused buffers
+     */
+    private static final byte[] ZERO = new byte[8192];
+
+    /**
+     * The released buffers waiting to be reused, one list per size class
+     */
+    private final ArrayList[] free = new ArrayList[MAX_SHIFT - MIN_SHIFT + 1];
+    /**
+     * The maximum number of bytes of released buffers to keep
+     */
+    private long maxRetained = 64L * 1024 * 1024;
+    /**
+     * The number of bytes of released buffers being kept
+     */
+    private long retained;
+    /**
+     * The number of bytes of buffers handed out and not yet released
+     */
+    private long inUse;
+    /**
+     * The largest number of bytes that have been in use at once
+     */
+    private long highWaterMark;
+    /**
+     * The number of new direct buffers allocated
+     */
+    private long allocations;
+    /**
+     * The number of requests satisfied by reusing a released buffer
+     */
+    private long reuses;
+    /**
+     * The number of buffers released back to the pool
+     */
+    private long releases;
+
+    /**
+     * Create the pool
+     */
+    private BufferPool() {
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayList();
+        }
+    }
+
+    /**
+     * Get a direct buffer in native order, reusing a released one if possible.
+     * The buffer's position is 0 and it's limit is the size requested, though
+     * it's capacity may be larger.
+     *
+     * @param size The number of bytes required
+     * @return The buffer, cleared to zero
+     */
+    public ByteBuffer allocate(int size) {
+        int sizeClass = getSizeClass(size);
+        ByteBuffer buffer = null;
+
+        synchronized (this) {
+            if ((sizeClass >= 0) && !free[sizeClass].isEmpty()) {
+                buffer = (ByteBuffer) free[sizeClass].remove(free[sizeClass].size() - 1);
+                retained -= buffer.capacity();
+                reuses++;
+            } else {
+                allocations++;
+            }
+
+            int capacity = sizeClass >= 0 ? 1 << (sizeClass + MIN_SHIFT) : size;
+            inUse += capacity;
+            highWaterMark = Math.max(highWaterMark, inUse);
+        }
+
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(sizeClass >= 0 ? 1 << (sizeClass + MIN_SHIFT) : size);
+            buffer.order(ByteOrder.nativeOrder());
+        } else {
+            buffer.clear();
+            while (buffer.remaining() > ZERO.length) {
+                buffer.put(ZERO);
+            }
+            buffer.put(ZERO, 0, buffer.remaining());
+            buffer.clear();
+        }
+
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Release a buffer back to the pool. The buffer must not be used again by
+     * the caller. Buffers that didn't come from the pool, such as read only or
+     * heap buffers, are ignored.
+     *
+     * @param buffer The buffer to release, may be null
+     */
+    public void release(ByteBuffer buffer) {
+        if ((buffer == null) || !buffer.isDirect() || buffer.isReadOnly()) {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        int sizeClass = getSizeClass(capacity);
+        boolean pooled = (sizeClass >= 0) && (capacity == 1 << (sizeClass + MIN_SHIFT));
+
+        synchronized (this) {
+            if (pooled) {
+                ArrayList list = free[sizeClass];
+                for (int i = 0; i < list.size(); i++) {
+                    if (list.get(i) == buffer) {
+                        Log.warn("Buffer released to the pool twice");
+                        return;
+                    }
+                }
+            }
+
+            inUse = Math.max(0, inUse - capacity);
+            releases++;
+
+            if (pooled && (retained + capacity <= maxRetained)) {
+                free[sizeClass].add(buffer);
+                retained += capacity;
+            }
+        }
+    }
+
+    /**
+     * Set the maximum number of bytes of released buffers the pool keeps for
+     * reuse. Buffers released beyond this are left for the garbage collector.
+     *
+     * @param maxRetained The maximum number of bytes to keep
+     */
+    public synchronized void setMaxRetained(long maxRetained) {
+        this.maxRetained = maxRetained;
+        for (int i = free.length - 1; (i >= 0) && (retained > maxRetained); i--) {
+            while (!free[i].isEmpty() && (retained > maxRetained)) {
+                retained -= ((ByteBuffer) free[i].remove(free[i].size() - 1)).capacity();
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of bytes of released buffers the pool keeps
+     *
+     * @return The maximum number of bytes to keep
+     */
+    public synchronized long getMaxRetained() {
+        return maxRetained;
+    }
+
+    /**
+     * Get the number of bytes of released buffers being kept for reuse
+     *
+     * @return The number of bytes retained
+     */
+    public synchronized long getRetained() {
+        return retained;
+    }
+
+    /**
+     * Get the number of bytes of buffers handed out and not yet released
+     *
+     * @return The number of bytes in use
+     */
+    public synchronized long getInUse() {
+        return inUse;
+    }
+
+    /**
+     * Get the largest number of bytes that have been in use at once
+     *
+     * @return The high-water mark in bytes
+     */
+    public synchronized long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    /**
+     * Get the number of new direct buffers allocated
+     *
+     * @return The number of allocations
+     */
+    public synchronized long getAllocationCount() {
+        return allocations;
+    }
+
+    /**
+     * Get the number of requests satisfied by reusing a released buffer
+     *
+     * @return The number of reuses
+     */
+    public synchronized long getReuseCount() {
+        return reuses;
+    }
+
+    /**
+     * Get the number of buffers released back to the pool
+     *
+     * @return The number of releases
+     */
+    public synchronized long getReleaseCount() {
+        return releases;
+    }
+
+    /**
+     * Reset the counters and the high-water mark
+     */
+    public synchronized void resetStatistics() {
+        allocations = 0;
+        reuses = 0;
+        releases = 0;
+        highWaterMark = inUse;
+    }
+
+    /**
+     * Drop all the released buffers being kept for reuse
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < free.length; i++) {
+            free[i].clear();
+        }
+        retained = 0;
+    }
+
+    /**
+     * Get the size class a buffer of a given size belongs to
+     *
+     * @param size The size of the buffer
+     * @return The index of the size class or -1 if too large to pool
+     */
+    private static int getSizeClass(int size) {
+        int shift = MIN_SHIFT;
+        while ((1 << shift) < size) {
+            shift++;
+            if (shift > MAX_SHIFT) {
+                return -1;
+            }
+        }
+
+        return shift - MIN_SHIFT;
+    }
+}
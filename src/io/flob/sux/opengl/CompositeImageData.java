@@ -131,4 +131,11 @@ public class CompositeImageData implements LoadableImageData {
         }
     }
 
+    @Override
+    public void configurePowerOfTwo(boolean powerOfTwo) {
+        for (Object source : sources) {
+            ((LoadableImageData) source).configurePowerOfTwo(powerOfTwo);
+        }
+    }
+
 }
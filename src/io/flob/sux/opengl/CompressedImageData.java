@@ -0,0 +1,30 @@
+package io.flob.sux.opengl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An image data source whose pixels stay block compressed so they can be
+ * handed straight to glCompressedTexImage2D. The buffer returned from
+ * loadImage() is the compressed top level, the texture is always the size of
+ * the image since compressed blocks can't be padded out to a power of two.
+ *
+ * @author agent
+ */
+public interface CompressedImageData extends LoadableImageData {
+
+    /**
+     * Get the OpenGL internal format of the compressed data
+     *
+     * @return The compressed internal format, e.g.
+     * SGL.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT
+     */
+    public int getInternalFormat();
+
+    /**
+     * Get the mip map levels read from the file
+     *
+     * @return The compressed levels with the top level at index 0, there is
+     * always at least one
+     */
+    public ByteBuffer[] getMipMaps();
+}
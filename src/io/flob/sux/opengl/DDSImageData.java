@@ -0,0 +1,343 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.SGL;
+import io.flob.sux.util.Log;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A loader for DirectDraw Surface (DDS) files holding DXT1, DXT3 or DXT5
+ * compressed images. The blocks are kept compressed and any mip map levels
+ * stored in the file are read along with the top level. Note: NOT THREAD SAFE
+ *
+ * @author agent
+ */
+public class DDSImageData implements CompressedImageData {
+
+    /**
+     * The magic number at the start of every DDS file ("DDS ")
+     */
+    private static final int DDS_MAGIC = 0x20534444;
+    /**
+     * The size of the DDS header including the magic number
+     */
+    private static final int HEADER_SIZE = 128;
+    /**
+     * The header flag indicating the mip map count is valid
+     */
+    private static final int DDSD_MIPMAPCOUNT = 0x20000;
+    /**
+     * The pixel format flag indicating the image has alpha
+     */
+    private static final int DDPF_ALPHAPIXELS = 0x1;
+    /**
+     * The pixel format flag indicating the four CC code is valid
+     */
+    private static final int DDPF_FOURCC = 0x4;
+    /**
+     * The caps flag indicating the file holds a cube map
+     */
+    private static final int DDSCAPS2_CUBEMAP = 0x200;
+    /**
+     * The four CC code for DXT1 compression
+     */
+    private static final int FOURCC_DXT1 = 0x31545844;
+    /**
+     * The four CC code for DXT3 compression
+     */
+    private static final int FOURCC_DXT3 = 0x33545844;
+    /**
+     * The four CC code for DXT5 compression
+     */
+    private static final int FOURCC_DXT5 = 0x35545844;
+
+    /**
+     * The width of the image
+     */
+    private int width;
+    /**
+     * The height of the image
+     */
+    private int height;
+    /**
+     * The bit depth of the image
+     */
+    private int depth;
+    /**
+     * The compressed internal format of the image
+     */
+    private int internalFormat;
+    /**
+     * The compressed mip map levels read from the file
+     */
+    private ByteBuffer[] mipMaps;
+
+    /**
+     * Create a new DDS loader
+     */
+    public DDSImageData() {
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTexWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTexHeight() {
+        return height;
+    }
+
+    @Override
+    public ByteBuffer getImageBufferData() {
+        return mipMaps == null ? null : mipMaps[0];
+    }
+
+    @Override
+    public int getInternalFormat() {
+        return internalFormat;
+    }
+
+    @Override
+    public ByteBuffer[] getMipMaps() {
+        return mipMaps;
+    }
+
+    @Override
+    public void configureEdging(boolean edging) {
+    }
+
+    @Override
+    public void configurePowerOfTwo(boolean powerOfTwo) {
+    }
+
+    @Override
+    public ByteBuffer loadImage(InputStream fis) throws IOException {
+        return loadImage(fis, false, null);
+    }
+
+    @Override
+    public ByteBuffer loadImage(InputStream fis, boolean flipped, int[] transparent) throws IOException {
+        return loadImage(fis, flipped, false, transparent);
+    }
+
+    @Override
+    public ByteBuffer loadImage(InputStream fis, boolean flipped, boolean forceAlpha, int[] transparent) throws IOException {
+        if (transparent != null) {
+            Log.warn("Transparent colours are not supported for compressed DDS images");
+        }
+
+        DataInputStream dis = new DataInputStream(fis);
+        byte[] headerData = new byte[HEADER_SIZE];
+        dis.readFully(headerData);
+        ByteBuffer header = ByteBuffer.wrap(headerData).order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((header.getInt(0) != DDS_MAGIC) || (header.getInt(4) != 124)) {
+            throw new IOException("Not a DDS file");
+        }
+        if ((header.getInt(112) & DDSCAPS2_CUBEMAP) != 0) {
+            throw new IOException("SUX does not support DDS cube maps");
+        }
+
+        int flags = header.getInt(8);
+        height = header.getInt(12);
+        width = header.getInt(16);
+
+        int pixelFlags = header.getInt(80);
+        int fourCC = header.getInt(84);
+        if ((pixelFlags & DDPF_FOURCC) == 0) {
+            throw new IOException("SUX only supports DXT1, DXT3 and DXT5 compressed DDS images");
+        }
+
+        switch (fourCC) {
+            case FOURCC_DXT1:
+                if ((pixelFlags & DDPF_ALPHAPIXELS) != 0) {
+                    internalFormat = SGL.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT;
+                    depth = 32;
+                } else {
+                    internalFormat = SGL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+                    depth = 24;
+                }
+                break;
+            case FOURCC_DXT3:
+                internalFormat = SGL.GL_COMPRESSED_RGBA_S3TC_DXT3_EXT;
+                depth = 32;
+                break;
+            case FOURCC_DXT5:
+                internalFormat = SGL.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+                depth = 32;
+                break;
+            default:
+                throw new IOException("SUX only supports DXT1, DXT3 and DXT5 compressed DDS images");
+        }
+
+        int levels = 1;
+        if ((flags & DDSD_MIPMAPCOUNT) != 0) {
+            levels = Math.max(1, header.getInt(28));
+        }
+        levels = Math.min(levels, MipMapGenerator.getLevelCount(width, height));
+
+        mipMaps = new ByteBuffer[levels];
+        int levelWidth = width;
+        int levelHeight = height;
+        for (int level = 0; level < levels; level++) {
+            byte[] data = new byte[getCompressedSize(levelWidth, levelHeight, internalFormat)];
+            dis.readFully(data);
+            if (flipped) {
+                flipBlocks(data, levelWidth, levelHeight, internalFormat);
+            }
+
+            mipMaps[level] = BufferPool.get().allocate(data.length);
+            mipMaps[level].put(data);
+            mipMaps[level].flip();
+
+            levelWidth = Math.max(1, levelWidth / 2);
+            levelHeight = Math.max(1, levelHeight / 2);
+        }
+
+        return mipMaps[0];
+    }
+
+    /**
+     * Check if an internal format is one of the S3TC (DXT) formats
+     *
+     * @param internalFormat The internal format to check
+     * @return True if the format is DXT1, DXT3 or DXT5
+     */
+    static boolean isS3TC(int internalFormat) {
+        return (internalFormat == SGL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT)
+                || (internalFormat == SGL.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT)
+                || (internalFormat == SGL.GL_COMPRESSED_RGBA_S3TC_DXT3_EXT)
+                || (internalFormat == SGL.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT);
+    }
+
+    /**
+     * Get the number of bytes an S3TC compressed image takes
+     *
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param internalFormat The S3TC format the image is compressed with
+     * @return The size of the compressed image in bytes
+     */
+    static int getCompressedSize(int width, int height, int internalFormat) {
+        return Math.max(1, (width + 3) / 4) * Math.max(1, (height + 3) / 4) * getBlockSize(internalFormat);
+    }
+
+    /**
+     * Get the number of bytes in each 4x4 block of an S3TC format
+     *
+     * @param internalFormat The S3TC format
+     * @return The size of each block in bytes
+     */
+    private static int getBlockSize(int internalFormat) {
+        if ((internalFormat == SGL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT)
+                || (internalFormat == SGL.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT)) {
+            return 8;
+        }
+        return 16;
+    }
+
+    /**
+     * Flip an S3TC compressed image on the y-axis without decompressing it.
+     * The rows of blocks are reversed and then the rows of texels within each
+     * block.
+     *
+     * @param data The compressed image
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param internalFormat The S3TC format the image is compressed with
+     * @throws IOException Indicates the image can't be flipped since it's
+     * height doesn't fill whole blocks
+     */
+    static void flipBlocks(byte[] data, int width, int height, int internalFormat) throws IOException {
+        int blockSize = getBlockSize(internalFormat);
+        int blocksWide = Math.max(1, (width + 3) / 4);
+        int blocksHigh = Math.max(1, (height + 3) / 4);
+        if ((blocksHigh > 1) && ((height % 4) != 0)) {
+            throw new IOException("Compressed images can only be flipped if their height is a multiple of 4");
+        }
+
+        int rows = Math.min(4, height);
+        for (int ofs = 0; ofs < blocksWide * blocksHigh * blockSize; ofs += blockSize) {
+            if (blockSize == 8) {
+                reverseRows(data, ofs + 4, 1, rows);
+            } else if (internalFormat == SGL.GL_COMPRESSED_RGBA_S3TC_DXT3_EXT) {
+                reverseRows(data, ofs, 2, rows);
+                reverseRows(data, ofs + 12, 1, rows);
+            } else {
+                reverseDXT5AlphaRows(data, ofs + 2, rows);
+                reverseRows(data, ofs + 12, 1, rows);
+            }
+        }
+
+        int stride = blocksWide * blockSize;
+        byte[] temp = new byte[stride];
+        for (int top = 0, bottom = blocksHigh - 1; top < bottom; top++, bottom--) {
+            System.arraycopy(data, top * stride, temp, 0, stride);
+            System.arraycopy(data, bottom * stride, data, top * stride, stride);
+            System.arraycopy(temp, 0, data, bottom * stride, stride);
+        }
+    }
+
+    /**
+     * Reverse the order of the first rows of a block where each row is stored
+     * in whole bytes
+     *
+     * @param data The compressed image
+     * @param ofs The offset of the first row
+     * @param rowSize The number of bytes in each row
+     * @param rows The number of rows to reverse
+     */
+    private static void reverseRows(byte[] data, int ofs, int rowSize, int rows) {
+        for (int top = 0, bottom = rows - 1; top < bottom; top++, bottom--) {
+            for (int i = 0; i < rowSize; i++) {
+                byte temp = data[ofs + (top * rowSize) + i];
+                data[ofs + (top * rowSize) + i] = data[ofs + (bottom * rowSize) + i];
+                data[ofs + (bottom * rowSize) + i] = temp;
+            }
+        }
+    }
+
+    /**
+     * Reverse the order of the first rows of a DXT5 alpha block, whose 3 bit
+     * indices are packed 12 bits to a row
+     *
+     * @param data The compressed image
+     * @param ofs The offset of the 6 bytes of indices
+     * @param rows The number of rows to reverse
+     */
+    private static void reverseDXT5AlphaRows(byte[] data, int ofs, int rows) {
+        long bits = 0;
+        for (int i = 0; i < 6; i++) {
+            bits |= (data[ofs + i] & 0xFFL) << (8 * i);
+        }
+
+        long flipped = 0;
+        for (int row = 0; row < 4; row++) {
+            int from = row < rows ? rows - 1 - row : row;
+            flipped |= ((bits >>> (12 * from)) & 0xFFF) << (12 * row);
+        }
+
+        for (int i = 0; i < 6; i++) {
+            data[ofs + i] = (byte) (flipped >>> (8 * i));
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package io.flob.sux.opengl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A snapshot of an image that has been decoded but not yet uploaded. The
+ * loaders keep their results in mutable fields, so this copies them out along
+ * with the decoded pixels allowing the upload to happen later and possibly on a
+ * different thread to the decode.
+ *
+ * @author agent
+ */
+class DecodedImageData implements ImageData {
+
+    /**
+     * The bit depth of the image
+     */
+    private final int depth;
+    /**
+     * The width of the image
+     */
+    private final int width;
+    /**
+     * The height of the image
+     */
+    private final int height;
+    /**
+     * The width of the texture required for the image
+     */
+    private final int texWidth;
+    /**
+     * The height of the texture required for the image
+     */
+    private final int texHeight;
+    /**
+     * The decoded pixel data
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The mip map chain generated from the pixel data or null if none
+     */
+    private final ByteBuffer[] mipMaps;
+    /**
+     * The compressed internal format of the pixel data or 0 if uncompressed
+     */
+    private final int compressedFormat;
+    /**
+     * The packed 16 bit internal format of the pixel data or 0 if 8 bits per
+     * channel
+     */
+    private final int packedFormat;
+    /**
+     * The compressed copy of the pixel data to be held by the texture, or null
+     * if none has been made
+     */
+    private HeldTextureData held;
+
+    /**
+     * Create a new snapshot of some decoded image data
+     *
+     * @param data The image data that performed the decode
+     * @param buffer The pixel data produced by the decode
+     */
+    DecodedImageData(ImageData data, ByteBuffer buffer) {
+        this(data, buffer, null);
+    }
+
+    /**
+     * Create a new snapshot of some decoded image data
+     *
+     * @param data The image data that performed the decode
+     * @param buffer The pixel data produced by the decode
+     * @param mipMaps The mip map chain generated from the pixel data, with the
+     * pixel data itself at index 0, or null if none
+     */
+    DecodedImageData(ImageData data, ByteBuffer buffer, ByteBuffer[] mipMaps) {
+        this(data, buffer, mipMaps, 0);
+    }
+
+    /**
+     * Create a new snapshot of some decoded image data
+     *
+     * @param data The image data that performed the decode
+     * @param buffer The pixel data produced by the decode
+     * @param mipMaps The mip map chain with the pixel data itself at index 0,
+     * or null if none
+     * @param compressedFormat The compressed internal format of the pixel data
+     * or 0 if uncompressed
+     */
+    DecodedImageData(ImageData data, ByteBuffer buffer, ByteBuffer[] mipMaps, int compressedFormat) {
+        this(data.getDepth(), data.getWidth(), data.getHeight(), data.getTexWidth(), data.getTexHeight(),
+                buffer, mipMaps, compressedFormat);
+    }
+
+    /**
+     * Create a new snapshot of some decoded image data
+     *
+     * @param depth The bit depth of the image
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param texWidth The width of the texture required for the image
+     * @param texHeight The height of the texture required for the image
+     * @param buffer The decoded pixel data
+     * @param mipMaps The mip map chain with the pixel data itself at index 0,
+     * or null if none
+     * @param compressedFormat The compressed internal format of the pixel data
+     * or 0 if uncompressed
+     */
+    DecodedImageData(int depth, int width, int height, int texWidth, int texHeight,
+            ByteBuffer buffer, ByteBuffer[] mipMaps, int compressedFormat) {
+        this(depth, width, height, texWidth, texHeight, buffer, mipMaps, compressedFormat, 0);
+    }
+
+    /**
+     * Create a new snapshot of some decoded image data
+     *
+     * @param depth The bit depth of the image
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param texWidth The width of the texture required for the image
+     * @param texHeight The height of the texture required for the image
+     * @param buffer The decoded pixel data
+     * @param mipMaps The mip map chain with the pixel data itself at index 0,
+     * or null if none
+     * @param compressedFormat The compressed internal format of the pixel data
+     * or 0 if uncompressed
+     * @param packedFormat The packed 16 bit internal format of the pixel data
+     * or 0 if 8 bits per channel
+     */
+    DecodedImageData(int depth, int width, int height, int texWidth, int texHeight,
+            ByteBuffer buffer, ByteBuffer[] mipMaps, int compressedFormat, int packedFormat) {
+        this.depth = depth;
+        this.width = width;
+        this.height = height;
+        this.texWidth = texWidth;
+        this.texHeight = texHeight;
+        this.buffer = buffer;
+        this.mipMaps = mipMaps;
+        this.compressedFormat = compressedFormat;
+        this.packedFormat = packedFormat;
+    }
+
+    /**
+     * Check if the pixel data is block compressed
+     *
+     * @return True if the pixel data must be uploaded with
+     * glCompressedTexImage2D
+     */
+    boolean isCompressed() {
+        return compressedFormat != 0;
+    }
+
+    /**
+     * Get the compressed internal format of the pixel data
+     *
+     * @return The compressed internal format or 0 if uncompressed
+     */
+    int getCompressedFormat() {
+        return compressedFormat;
+    }
+
+    /**
+     * Get the packed 16 bit internal format of the pixel data
+     *
+     * @return The packed internal format or 0 if 8 bits per channel
+     */
+    int getPackedFormat() {
+        return packedFormat;
+    }
+
+    /**
+     * Get the mip map chain generated from the pixel data
+     *
+     * @return The levels of the chain with the pixel data itself at index 0,
+     * or null if no chain was generated
+     */
+    ByteBuffer[] getMipMaps() {
+        return mipMaps;
+    }
+
+    /**
+     * Get the levels of the pixel data, the pixel data itself at index 0
+     *
+     * @return The mip map chain or just the pixel data if there is no chain
+     */
+    ByteBuffer[] getLevels() {
+        return mipMaps == null ? new ByteBuffer[]{buffer} : mipMaps;
+    }
+
+    /**
+     * Set the compressed copy of the pixel data to be held by the texture
+     *
+     * @param held The held data or null if none
+     */
+    synchronized void setHeldData(HeldTextureData held) {
+        this.held = held;
+    }
+
+    /**
+     * Take the compressed copy of the pixel data to be held by the texture,
+     * leaving none
+     *
+     * @return The held data or null if none was made
+     */
+    synchronized HeldTextureData takeHeldData() {
+        HeldTextureData taken = held;
+        held = null;
+        return taken;
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTexWidth() {
+        return texWidth;
+    }
+
+    @Override
+    public int getTexHeight() {
+        return texHeight;
+    }
+
+    @Override
+    public ByteBuffer getImageBufferData() {
+        return buffer;
+    }
+}
@@ -37,6 +37,18 @@ public class DeferredTexture extends TextureImpl implements DeferredResource {
      * The colour to be transparent
      */
     private final int[] trans;
+    /**
+     * True if the colour should be premultiplied by alpha
+     */
+    private final boolean premultiplied;
+    /**
+     * The packed 16 bit format to convert to or 0 for none
+     */
+    private final int packedFormat;
+    /**
+     * The dithering used when packing
+     */
+    private final int dithering;
 
     /**
      * Create a new deferred texture
@@ -47,13 +59,49 @@ public class DeferredTexture extends TextureImpl implements DeferredResource {
      * @param filter The filter to apply
      * @param trans The colour to defined as transparent
      */
-    @SuppressWarnings("LeakingThisInConstructor")
     public DeferredTexture(InputStream in, String resourceName, boolean flipped, int filter, int[] trans) {
+        this(in, resourceName, flipped, filter, trans, false);
+    }
+
+    /**
+     * Create a new deferred texture
+     *
+     * @param in The input stream from which to read the texture
+     * @param resourceName The name to give the resource
+     * @param flipped True if the image should be flipped
+     * @param filter The filter to apply
+     * @param trans The colour to defined as transparent
+     * @param premultiplied True if the colour should be premultiplied by alpha
+     */
+    public DeferredTexture(InputStream in, String resourceName, boolean flipped, int filter, int[] trans,
+            boolean premultiplied) {
+        this(in, resourceName, flipped, filter, trans, premultiplied, InternalTextureLoader.get().getPackedFormat(),
+                InternalTextureLoader.get().getDithering());
+    }
+
+    /**
+     * Create a new deferred texture converted to a packed 16 bit format
+     *
+     * @param in The input stream from which to read the texture
+     * @param resourceName The name to give the resource
+     * @param flipped True if the image should be flipped
+     * @param filter The filter to apply
+     * @param trans The colour to defined as transparent
+     * @param premultiplied True if the colour should be premultiplied by alpha
+     * @param packedFormat The packed 16 bit format to convert to or 0 for none
+     * @param dithering The dithering used when packing
+     */
+    @SuppressWarnings("LeakingThisInConstructor")
+    public DeferredTexture(InputStream in, String resourceName, boolean flipped, int filter, int[] trans,
+            boolean premultiplied, int packedFormat, int dithering) {
         this.in = in;
         this.resourceName = resourceName;
         this.flipped = flipped;
         this.filter = filter;
         this.trans = trans;
+        this.premultiplied = premultiplied;
+        this.packedFormat = packedFormat;
+        this.dithering = dithering;
 
         LoadingList.get().add(this);
     }
@@ -62,7 +110,8 @@ public class DeferredTexture extends TextureImpl implements DeferredResource {
     public void load() throws IOException {
         boolean before = InternalTextureLoader.get().isDeferredLoading();
         InternalTextureLoader.get().setDeferredLoading(false);
-        target = InternalTextureLoader.get().getTexture(in, resourceName, flipped, filter, trans);
+        target = InternalTextureLoader.get().getTexture(in, resourceName, flipped, filter, trans, premultiplied,
+                packedFormat, dithering);
         InternalTextureLoader.get().setDeferredLoading(before);
     }
 
@@ -192,9 +241,44 @@ public class DeferredTexture extends TextureImpl implements DeferredResource {
         return target.hasAlpha();
     }
 
+    @Override
+    public boolean isUploadComplete() {
+        return (target != null) && target.isUploadComplete();
+    }
+
+    @Override
+    public boolean isPremultipliedAlpha() {
+        checkTarget();
+        return target.isPremultipliedAlpha();
+    }
+
     @Override
     public void setTextureFilter(int textureFilter) {
         checkTarget();
         target.setTextureFilter(textureFilter);
     }
+
+    @Override
+    void setPinned(boolean pinned) {
+        checkTarget();
+        target.setPinned(pinned);
+    }
+
+    @Override
+    public boolean isPinned() {
+        checkTarget();
+        return target.isPinned();
+    }
+
+    @Override
+    public boolean isEvicted() {
+        checkTarget();
+        return target.isEvicted();
+    }
+
+    @Override
+    public long getMemoryUsage() {
+        checkTarget();
+        return target.getMemoryUsage();
+    }
 }
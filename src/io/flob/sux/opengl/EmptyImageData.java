@@ -4,7 +4,10 @@ import java.nio.ByteBuffer;
 import org.lwjgl.BufferUtils;
 
 /**
- * An image data implementation which represents an empty texture
+ * An image data implementation which represents an empty texture. Textures
+ * created from it by the InternalTextureLoader have their storage allocated
+ * without copying any client data, so their content is undefined until it's
+ * drawn to.
  *
  * @author kevin
  */
@@ -18,6 +21,10 @@ public class EmptyImageData implements ImageData {
      * The height of the data
      */
     private final int height;
+    /**
+     * True if the texture should have power of two dimensions
+     */
+    private final boolean powerOfTwo;
 
     /**
      * Create an empty image data source
@@ -26,8 +33,21 @@ public class EmptyImageData implements ImageData {
      * @param height The height of the source
      */
     public EmptyImageData(int width, int height) {
+        this(width, height, true);
+    }
+
+    /**
+     * Create an empty image data source
+     *
+     * @param width The width of the source
+     * @param height The height of the source
+     * @param powerOfTwo True if the texture should have power of two
+     * dimensions
+     */
+    public EmptyImageData(int width, int height, boolean powerOfTwo) {
         this.width = width;
         this.height = height;
+        this.powerOfTwo = powerOfTwo;
     }
 
     @Override
@@ -40,6 +60,12 @@ public class EmptyImageData implements ImageData {
         return height;
     }
 
+    /**
+     * Get a buffer of transparent pixels the size of the texture. The
+     * InternalTextureLoader doesn't call this, to avoid allocating the buffer.
+     *
+     * @return A new buffer of zeroed RGBA pixels
+     */
     @Override
     public ByteBuffer getImageBufferData() {
         return BufferUtils.createByteBuffer(getTexWidth() * getTexHeight() * 4);
@@ -47,12 +73,12 @@ public class EmptyImageData implements ImageData {
 
     @Override
     public int getTexHeight() {
-        return InternalTextureLoader.get2Fold(height);
+        return powerOfTwo ? InternalTextureLoader.get2Fold(height) : height;
     }
 
     @Override
     public int getTexWidth() {
-        return InternalTextureLoader.get2Fold(width);
+        return powerOfTwo ? InternalTextureLoader.get2Fold(width) : width;
     }
 
     @Override
@@ -0,0 +1,257 @@
+package io.flob.sux.opengl;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+
+/**
+ * The pixel data a texture holds so it can be reloaded, kept compressed with
+ * the LZCodec in direct buffers outside the Java heap. The data is inflated
+ * into buffers from the BufferPool when it's needed. The total size of the
+ * held data is tracked so it can be limited, including data whose texture was
+ * dropped without being released, which stops counting once it's collected. A
+ * level may be null, for a texture created without any pixels.
+ *
+ * @author agent
+ */
+final class HeldTextureData {
+
+    /**
+     * The bytes of compressed data held by every texture
+     */
+    private static long totalSize;
+    /**
+     * The trackers of the held data still counted in the total size
+     */
+    private static final HashSet counted = new HashSet();
+    /**
+     * The queue the trackers of collected held data are added to
+     */
+    private static final ReferenceQueue collected = new ReferenceQueue();
+
+    /**
+     * The compressed levels of the texture
+     */
+    private final ByteBuffer[] levels;
+    /**
+     * The size of each level when decompressed
+     */
+    private final int[] lengths;
+    /**
+     * The bytes of compressed data held
+     */
+    private final long size;
+    /**
+     * The tracker counting this data in the total size
+     */
+    private Tracker tracker;
+
+    /**
+     * Create held data
+     *
+     * @param levels The compressed levels
+     * @param lengths The size of each level when decompressed
+     * @param size The bytes of compressed data
+     */
+    private HeldTextureData(ByteBuffer[] levels, int[] lengths, long size) {
+        this.levels = levels;
+        this.lengths = lengths;
+        this.size = size;
+    }
+
+    /**
+     * Compress texture data to be held
+     *
+     * @param levels The levels of the texture, the top level at index 0
+     * @param limit The most bytes of compressed data that may be held in total
+     * @return The held data or null if holding it would exceed the limit
+     */
+    static HeldTextureData hold(ByteBuffer[] levels, long limit) {
+        ByteBuffer[] compressed = new ByteBuffer[levels.length];
+        int[] lengths = new int[levels.length];
+        long size = 0;
+
+        byte[] raw = null;
+        byte[] packed = null;
+        for (int level = 0; level < levels.length; level++) {
+            if (levels[level] == null) {
+                continue;
+            }
+            ByteBuffer data = levels[level].duplicate();
+            data.position(0);
+            int length = data.limit();
+            if ((raw == null) || (raw.length < length)) {
+                raw = new byte[length];
+                packed = new byte[LZCodec.getMaxCompressedLength(length)];
+            }
+            data.get(raw, 0, length);
+
+            int packedLength = LZCodec.compress(raw, length, packed);
+            compressed[level] = ByteBuffer.allocateDirect(packedLength);
+            compressed[level].put(packed, 0, packedLength);
+            compressed[level].flip();
+            lengths[level] = length;
+            size += packedLength;
+        }
+
+        HeldTextureData held = new HeldTextureData(compressed, lengths, size);
+        synchronized (HeldTextureData.class) {
+            expunge();
+            if (totalSize + size > limit) {
+                return null;
+            }
+            totalSize += size;
+            held.tracker = new Tracker(held, size);
+            counted.add(held.tracker);
+        }
+
+        return held;
+    }
+
+    /**
+     * Get the bytes of compressed data held by every texture
+     *
+     * @return The number of bytes held
+     */
+    static synchronized long getTotalSize() {
+        expunge();
+        return totalSize;
+    }
+
+    /**
+     * Stop counting the held data that has been collected. Must be called
+     * while synchronized on the class.
+     */
+    private static void expunge() {
+        Tracker tracker;
+        while ((tracker = (Tracker) collected.poll()) != null) {
+            if (counted.remove(tracker)) {
+                totalSize -= tracker.size;
+            }
+        }
+    }
+
+    /**
+     * Get the bytes of compressed data held for this texture
+     *
+     * @return The number of bytes held
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of bytes a level decompresses to
+     *
+     * @param level The level
+     * @return The number of bytes
+     */
+    int getLength(int level) {
+        return lengths[level];
+    }
+
+    /**
+     * Decompress every level of the texture. The buffers should be released to
+     * the BufferPool when finished with.
+     *
+     * @return The levels with the top level at index 0, null where the level
+     * held no pixels
+     * @throws IOException Indicates the held data is corrupt
+     */
+    ByteBuffer[] inflate() throws IOException {
+        ByteBuffer[] inflated = new ByteBuffer[levels.length];
+        byte[] packed = null;
+        byte[] raw = null;
+        for (int level = 0; level < levels.length; level++) {
+            if (levels[level] == null) {
+                continue;
+            }
+            ByteBuffer data = levels[level].duplicate();
+            if ((packed == null) || (packed.length < data.remaining())) {
+                packed = new byte[data.remaining()];
+            }
+            if ((raw == null) || (raw.length < lengths[level])) {
+                raw = new byte[lengths[level]];
+            }
+
+            int packedLength = data.remaining();
+            data.get(packed, 0, packedLength);
+            try {
+                LZCodec.decompress(packed, packedLength, raw, lengths[level]);
+            } catch (IOException e) {
+                release(inflated);
+                throw e;
+            }
+
+            inflated[level] = BufferPool.get().allocate(lengths[level]);
+            inflated[level].put(raw, 0, lengths[level]);
+            inflated[level].flip();
+        }
+
+        return inflated;
+    }
+
+    /**
+     * Decompress the top level of the texture
+     *
+     * @return The pixel data of the top level
+     * @throws IOException Indicates the held data is corrupt
+     */
+    byte[] inflateTop() throws IOException {
+        ByteBuffer data = levels[0].duplicate();
+        byte[] packed = new byte[data.remaining()];
+        data.get(packed);
+
+        byte[] raw = new byte[lengths[0]];
+        LZCodec.decompress(packed, packed.length, raw, lengths[0]);
+
+        return raw;
+    }
+
+    /**
+     * Stop holding the data, so it no longer counts towards the limit
+     */
+    void discard() {
+        synchronized (HeldTextureData.class) {
+            if (counted.remove(tracker)) {
+                totalSize -= size;
+            }
+        }
+    }
+
+    /**
+     * Release levels returned by inflate() back to the BufferPool
+     *
+     * @param inflated The levels to release
+     */
+    static void release(ByteBuffer[] inflated) {
+        for (int level = 0; level < inflated.length; level++) {
+            BufferPool.get().release(inflated[level]);
+        }
+    }
+
+    /**
+     * The reference counting held data in the total size until it's discarded
+     * or collected
+     */
+    private static class Tracker extends WeakReference {
+
+        /**
+         * The bytes of compressed data counted
+         */
+        private final long size;
+
+        /**
+         * Create a new tracker
+         *
+         * @param held The held data to track
+         * @param size The bytes of compressed data counted
+         */
+        Tracker(HeldTextureData held, long size) {
+            super(held, collected);
+            this.size = size;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package io.flob.sux.opengl;
 
 import io.flob.sux.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 
 /**
  * A static utility to create the appropriate image data for a particular
@@ -27,6 +30,103 @@ public class ImageDataFactory {
      */
     private static final String PNG_LOADER = "io.flob.sux.pngloader";
 
+    /**
+     * The number of bytes examined to recognise the format of an image
+     */
+    public static final int HEADER_SIZE = 32;
+
+    /**
+     * The bytes every PNG image starts with
+     */
+    private static final byte[] PNG_SIGNATURE = {(byte) 137, 'P', 'N', 'G', 13, 10, 26, 10};
+
+    /**
+     * The registered formats in the order they are checked
+     */
+    private static final ArrayList formats = new ArrayList();
+
+    static {
+        // the PNG decoder is picked from the header, so the image is streamed
+        // through one decoder. ImageIO gets any PNG whose header it rejects.
+        formats.add(new SignatureFormat(PNG_SIGNATURE, new String[]{".png"}) {
+            @Override
+            public boolean matches(byte[] header, int length) {
+                return super.matches(header, length) && (!usePngLoader || PNGDecoder.isSupported(header, length));
+            }
+
+            @Override
+            public LoadableImageData create() {
+                return usePngLoader ? new PNGImageData() : new ImageIOImageData();
+            }
+        });
+        formats.add(new SignatureFormat(PNG_SIGNATURE, new String[]{".png"}) {
+            @Override
+            public LoadableImageData create() {
+                return new ImageIOImageData();
+            }
+        });
+        formats.add(new SignatureFormat(new byte[]{'D', 'D', 'S', ' '}, new String[]{".dds"}) {
+            @Override
+            public LoadableImageData create() {
+                return new DDSImageData();
+            }
+        });
+        formats.add(new SignatureFormat(new byte[]{(byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB}, new String[]{".ktx"}) {
+            @Override
+            public LoadableImageData create() {
+                return new KTXImageData();
+            }
+        });
+        formats.add(new SignatureFormat(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}, new String[]{".jpg", ".jpeg"}) {
+            @Override
+            public LoadableImageData create() {
+                return new ImageIOImageData();
+            }
+        });
+        formats.add(new SignatureFormat(new byte[]{'G', 'I', 'F', '8'}, new String[]{".gif"}) {
+            @Override
+            public LoadableImageData create() {
+                return new ImageIOImageData();
+            }
+        });
+        formats.add(new SignatureFormat(new byte[]{'B', 'M'}, new String[]{".bmp"}) {
+            @Override
+            public LoadableImageData create() {
+                return new ImageIOImageData();
+            }
+        });
+        // TGA has no signature so the header fields are checked for sanity
+        formats.add(new ImageFormat() {
+            @Override
+            public boolean matches(byte[] header, int length) {
+                if (length < 18) {
+                    return false;
+                }
+
+                int colourMapType = header[1] & 0xFF;
+                int imageType = header[2] & 0xFF;
+                int width = (header[12] & 0xFF) | ((header[13] & 0xFF) << 8);
+                int height = (header[14] & 0xFF) | ((header[15] & 0xFF) << 8);
+                int depth = header[16] & 0xFF;
+
+                return (colourMapType <= 1)
+                        && ((imageType == 2) || (imageType == 10))
+                        && (width > 0) && (height > 0)
+                        && ((depth == 24) || (depth == 32));
+            }
+
+            @Override
+            public String[] getExtensions() {
+                return new String[]{".tga"};
+            }
+
+            @Override
+            public LoadableImageData create() {
+                return new TGAImageData();
+            }
+        });
+    }
+
     /**
      * Check PNG loader property. If set the native PNG loader will not be used.
      */
@@ -53,6 +153,59 @@ public class ImageDataFactory {
         }
     }
 
+    /**
+     * Register a format so it's loader is used for images matching it. Formats
+     * registered later are checked first, allowing the built in loaders to be
+     * replaced.
+     *
+     * @param format The format to register
+     */
+    public static void registerFormat(ImageFormat format) {
+        synchronized (formats) {
+            formats.add(0, format);
+        }
+    }
+
+    /**
+     * Create an image data that is appropriate for the data in a stream. The
+     * first bytes of the stream are examined to recognise the format, so the
+     * loader is picked correctly even when the reference is mislabelled. The
+     * extension of the reference is only used if nothing is recognised.
+     *
+     * @param in The stream the image will be read from, it must support mark
+     * and is left at the start of the image
+     * @param ref The reference to the image to retrieve
+     * @return The image data that can be used to retrieve the data for that
+     * resource
+     * @throws IOException Indicates a failure to read the stream
+     */
+    public static LoadableImageData getImageDataFor(InputStream in, String ref) throws IOException {
+        checkProperty();
+
+        byte[] header = new byte[HEADER_SIZE];
+        int length = 0;
+        in.mark(HEADER_SIZE);
+        try {
+            int read;
+            while ((length < HEADER_SIZE) && ((read = in.read(header, length, HEADER_SIZE - length)) != -1)) {
+                length += read;
+            }
+        } finally {
+            in.reset();
+        }
+
+        synchronized (formats) {
+            for (int i = 0; i < formats.size(); i++) {
+                ImageFormat format = (ImageFormat) formats.get(i);
+                if (format.matches(header, length)) {
+                    return format.create();
+                }
+            }
+        }
+
+        return getImageDataFor(ref);
+    }
+
     /**
      * Create an image data that is appropriate for the reference supplied
      *
@@ -65,19 +218,63 @@ public class ImageDataFactory {
 
         ref = ref.toLowerCase();
 
-        if (ref.endsWith(".tga")) {
-            return new TGAImageData();
+        synchronized (formats) {
+            for (int i = 0; i < formats.size(); i++) {
+                ImageFormat format = (ImageFormat) formats.get(i);
+                String[] extensions = format.getExtensions();
+                for (int j = 0; j < extensions.length; j++) {
+                    if (ref.endsWith(extensions[j])) {
+                        return format.create();
+                    }
+                }
+            }
+        }
+
+        return new ImageIOImageData();
+    }
+
+    /**
+     * A format recognised by a fixed signature at the start of the data
+     */
+    private abstract static class SignatureFormat implements ImageFormat {
+
+        /**
+         * The bytes every image in the format starts with
+         */
+        private final byte[] signature;
+        /**
+         * The extensions used by the format
+         */
+        private final String[] extensions;
+
+        /**
+         * Create a new format
+         *
+         * @param signature The bytes every image in the format starts with
+         * @param extensions The extensions used by the format
+         */
+        SignatureFormat(byte[] signature, String[] extensions) {
+            this.signature = signature;
+            this.extensions = extensions;
         }
-        if (ref.endsWith(".png")) {
-            CompositeImageData data = new CompositeImageData();
-            if (usePngLoader) {
-                data.add(new PNGImageData());
+
+        @Override
+        public boolean matches(byte[] header, int length) {
+            if (length < signature.length) {
+                return false;
+            }
+            for (int i = 0; i < signature.length; i++) {
+                if (header[i] != signature[i]) {
+                    return false;
+                }
             }
-            data.add(new ImageIOImageData());
 
-            return data;
+            return true;
         }
 
-        return new ImageIOImageData();
+        @Override
+        public String[] getExtensions() {
+            return extensions;
+        }
     }
 }
@@ -0,0 +1,36 @@
+package io.flob.sux.opengl;
+
+/**
+ * A format of image that can be recognised from the first few bytes of it's
+ * data and loaded by a particular LoadableImageData. Formats are registered
+ * with the ImageDataFactory so new loaders can be plugged in.
+ *
+ * @author agent
+ */
+public interface ImageFormat {
+
+    /**
+     * Check if the start of some image data is in this format
+     *
+     * @param header The first bytes of the image data
+     * @param length The number of bytes available in the header, at most
+     * ImageDataFactory.HEADER_SIZE and fewer for very small files
+     * @return True if the data is in this format
+     */
+    public boolean matches(byte[] header, int length);
+
+    /**
+     * Get the file extensions used by this format, used to pick a loader when
+     * no data is available to sniff
+     *
+     * @return The lower case extensions including the leading dot
+     */
+    public String[] getExtensions();
+
+    /**
+     * Create a new loader for this format
+     *
+     * @return The image data that will load the image
+     */
+    public LoadableImageData create();
+}
@@ -8,12 +8,15 @@ import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import javax.imageio.ImageIO;
 
 /**
@@ -21,6 +24,10 @@ import javax.imageio.ImageIO;
  * suitable for creating OpenGL textures. This implementation is used when
  * formats not natively supported by the library are required.
  *
+ * Images in the common raster layouts, packed int RGB(A), interleaved byte
+ * RGB(A) in any band order and 8 bit indexed, are read straight from their
+ * data buffer a row at a time. Anything else is drawn with Java2D.
+ *
  * @author kevin
  */
 public class ImageIOImageData implements LoadableImageData {
@@ -71,6 +78,10 @@ public class ImageIOImageData implements LoadableImageData {
      * True if we should edge
      */
     private boolean edging = true;
+    /**
+     * True if the texture should have power of two dimensions
+     */
+    private boolean powerOfTwo = true;
 
     @Override
     public int getDepth() {
@@ -114,25 +125,31 @@ public class ImageIOImageData implements LoadableImageData {
         }
 
         BufferedImage bufferedImage = ImageIO.read(fis);
+        if (bufferedImage == null) {
+            throw new IOException("Unsupported image format");
+        }
         return imageToByteBuffer(bufferedImage, flipped, forceAlpha, transparent);
     }
 
-    @SuppressWarnings("UseOfObsoleteCollectionType")
+    /**
+     * Convert a buffered image into a texture buffer
+     *
+     * @param image The image to convert
+     * @param flipped True if the image should be flipped on the y-axis
+     * @param forceAlpha True if the texture should have an alpha channel even
+     * if the image doesn't
+     * @param transparent The colour to interpret as transparent or null if none
+     * @return The texture buffer, from the BufferPool
+     */
     public ByteBuffer imageToByteBuffer(BufferedImage image, boolean flipped, boolean forceAlpha, int[] transparent) {
-        ByteBuffer imageBuffer;
-        WritableRaster raster;
-        BufferedImage texImage;
-
-        int localTexWidth = 2;
-        int localTexHeight = 2;
+        int localTexWidth = image.getWidth();
+        int localTexHeight = image.getHeight();
 
         // find the closest power of 2 for the width and height
         // of the produced texture
-        while (localTexWidth < image.getWidth()) {
-            localTexWidth *= 2;
-        }
-        while (localTexHeight < image.getHeight()) {
-            localTexHeight *= 2;
+        if (powerOfTwo) {
+            localTexWidth = InternalTextureLoader.get2Fold(localTexWidth);
+            localTexHeight = InternalTextureLoader.get2Fold(localTexHeight);
         }
 
         this.width = image.getWidth();
@@ -140,17 +157,147 @@ public class ImageIOImageData implements LoadableImageData {
         this.texHeight = localTexHeight;
         this.texWidth = localTexWidth;
 
-        // create a raster that can be used by OpenGL as a source
-        // for a texture
         boolean useAlpha = image.getColorModel().hasAlpha() || forceAlpha;
+        depth = useAlpha ? 32 : 24;
+        int perPixel = useAlpha ? 4 : 3;
+
+        ByteBuffer imageBuffer = BufferPool.get().allocate(localTexWidth * localTexHeight * perPixel);
+        PixelProcessor processor = new PixelProcessor(imageBuffer, width, height, localTexWidth, localTexHeight,
+                perPixel, flipped, transparent, edging);
+
+        if (copyRaster(image, processor, perPixel)) {
+            processor.finish();
+        } else {
+            drawImage(image, imageBuffer, useAlpha);
+            processor.processInPlace();
+        }
+
+        return imageBuffer;
+    }
+
+    /**
+     * Copy an image in one of the common raster layouts straight from it's
+     * data buffer
+     *
+     * @param image The image to copy
+     * @param processor The processor writing the texture buffer
+     * @param perPixel The number of bytes per pixel in the texture
+     * @return True if the image was copied, false if it's layout isn't one
+     * read directly
+     */
+    private boolean copyRaster(BufferedImage image, PixelProcessor processor, int perPixel) {
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        ColorModel model = image.getColorModel();
+        byte[] row = new byte[width * perPixel];
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+
+        int type = image.getType();
+        if (((type == BufferedImage.TYPE_INT_ARGB) || (type == BufferedImage.TYPE_INT_RGB))
+                && (raster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                && (buffer instanceof DataBufferInt)) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int base = buffer.getOffset() - (ty * stride) - tx;
+            int opaque = type == BufferedImage.TYPE_INT_RGB ? 0xFF000000 : 0;
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0, p = base + (y * stride), s = 0; x < width; x++, p++, s += perPixel) {
+                    putPixel(row, s, data[p] | opaque, perPixel);
+                }
+                processor.putRow(y, row, perPixel);
+            }
+            return true;
+        }
+
+        if (!(raster.getSampleModel() instanceof PixelInterleavedSampleModel) || !(buffer instanceof DataBufferByte)
+                || (buffer.getNumBanks() != 1)) {
+            return false;
+        }
+        PixelInterleavedSampleModel sample = (PixelInterleavedSampleModel) raster.getSampleModel();
+        byte[] data = ((DataBufferByte) buffer).getData();
+        int pixelStride = sample.getPixelStride();
+        int stride = sample.getScanlineStride();
+        int[] offsets = sample.getBandOffsets();
+        int base = buffer.getOffset() - (ty * stride) - (tx * pixelStride);
+
+        if ((model instanceof IndexColorModel) && (offsets.length == 1) && (model.getPixelSize() == 8)) {
+            int[] palette = new int[256];
+            ((IndexColorModel) model).getRGBs(palette);
+            base += offsets[0];
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0, p = base + (y * stride), s = 0; x < width; x++, p += pixelStride, s += perPixel) {
+                    putPixel(row, s, palette[data[p] & 0xFF], perPixel);
+                }
+                processor.putRow(y, row, perPixel);
+            }
+            return true;
+        }
+
+        if (!(model instanceof ComponentColorModel) || !model.getColorSpace().isCS_sRGB()
+                || model.isAlphaPremultiplied() || (model.getPixelSize() != offsets.length * 8)
+                || ((offsets.length != 3) && (offsets.length != 4))) {
+            return false;
+        }
+
+        int r = base + offsets[0];
+        int g = base + offsets[1];
+        int b = base + offsets[2];
+        int a = offsets.length == 4 ? base + offsets[3] : -1;
+        for (int y = 0; y < height; y++) {
+            int line = y * stride;
+            for (int x = 0, p = line, s = 0; x < width; x++, p += pixelStride, s += perPixel) {
+                row[s] = data[r + p];
+                row[s + 1] = data[g + p];
+                row[s + 2] = data[b + p];
+                if (perPixel == 4) {
+                    row[s + 3] = a < 0 ? (byte) 0xFF : data[a + p];
+                }
+            }
+            processor.putRow(y, row, perPixel);
+        }
+        return true;
+    }
+
+    /**
+     * Write an ARGB pixel to a row of RGB(A) bytes
+     *
+     * @param row The row to write to
+     * @param s The offset of the pixel in the row
+     * @param argb The pixel
+     * @param perPixel The number of bytes per pixel in the row
+     */
+    private static void putPixel(byte[] row, int s, int argb, int perPixel) {
+        row[s] = (byte) (argb >> 16);
+        row[s + 1] = (byte) (argb >> 8);
+        row[s + 2] = (byte) argb;
+        if (perPixel == 4) {
+            row[s + 3] = (byte) (argb >>> 24);
+        }
+    }
 
+    /**
+     * Draw an image with Java2D into the top left corner of a texture buffer,
+     * converting it from whatever colour model it has
+     *
+     * @param image The image to draw
+     * @param imageBuffer The texture buffer to fill
+     * @param useAlpha True if the texture has an alpha channel
+     */
+    @SuppressWarnings("UseOfObsoleteCollectionType")
+    private void drawImage(BufferedImage image, ByteBuffer imageBuffer, boolean useAlpha) {
+        WritableRaster raster;
+        BufferedImage texImage;
+
+        // create a raster that can be used by OpenGL as a source
+        // for a texture
         if (useAlpha) {
-            depth = 32;
-            raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, localTexWidth, localTexHeight, 4, null);
+            raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, texWidth, texHeight, 4, null);
             texImage = new BufferedImage(glAlphaColorModel, raster, false, new java.util.Hashtable());
         } else {
-            depth = 24;
-            raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, localTexWidth, localTexHeight, 3, null);
+            raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, texWidth, texHeight, 3, null);
             texImage = new BufferedImage(glColorModel, raster, false, new java.util.Hashtable());
         }
 
@@ -160,54 +307,15 @@ public class ImageIOImageData implements LoadableImageData {
         // only need to blank the image for mac compatibility if we're using alpha
         if (useAlpha) {
             g.setColor(new Color(0f, 0f, 0f, 0f));
-            g.fillRect(0, 0, localTexWidth, localTexHeight);
-        }
-
-        if (flipped) {
-            g.scale(1, -1);
-            g.drawImage(image, 0, -height, null);
-        } else {
-            g.drawImage(image, 0, 0, null);
+            g.fillRect(0, 0, texWidth, texHeight);
         }
 
-        if (edging) {
-            if (height < localTexHeight - 1) {
-                copyArea(texImage, 0, 0, width, 1, 0, localTexHeight - 1);
-                copyArea(texImage, 0, height - 1, width, 1, 0, 1);
-            }
-            if (width < localTexWidth - 1) {
-                copyArea(texImage, 0, 0, 1, height, localTexWidth - 1, 0);
-                copyArea(texImage, width - 1, 0, 1, height, 1, 0);
-            }
-        }
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
 
-        // build a byte buffer from the temporary image 
-        // that be used by OpenGL to produce a texture.
         byte[] data = ((DataBufferByte) texImage.getRaster().getDataBuffer()).getData();
-
-        if (transparent != null) {
-            for (int i = 0; i < data.length; i += 4) {
-                boolean match = true;
-                for (int c = 0; c < 3; c++) {
-                    int value = data[i + c] < 0 ? 256 + data[i + c] : data[i + c];
-                    if (value != transparent[c]) {
-                        match = false;
-                    }
-                }
-
-                if (match) {
-                    data[i + 3] = 0;
-                }
-            }
-        }
-
-        imageBuffer = ByteBuffer.allocateDirect(data.length);
-        imageBuffer.order(ByteOrder.nativeOrder());
         imageBuffer.put(data, 0, data.length);
         imageBuffer.flip();
-        g.dispose();
-
-        return imageBuffer;
     }
 
     @Override
@@ -215,25 +323,13 @@ public class ImageIOImageData implements LoadableImageData {
         throw new RuntimeException("ImageIOImageData doesn't store it's image.");
     }
 
-    /**
-     * Implement of transform copy area for 1.4
-     *
-     * @param image The image to copy
-     * @param x The x position to copy to
-     * @param y The y position to copy to
-     * @param width The width of the image
-     * @param height The height of the image
-     * @param dx The transform on the x axis
-     * @param dy The transform on the y axis
-     */
-    private void copyArea(BufferedImage image, int x, int y, int width, int height, int dx, int dy) {
-        Graphics2D g = (Graphics2D) image.getGraphics();
-
-        g.drawImage(image.getSubimage(x, y, width, height), x + dx, y + dy, null);
-    }
-
     @Override
     public void configureEdging(boolean edging) {
         this.edging = edging;
     }
+
+    @Override
+    public void configurePowerOfTwo(boolean powerOfTwo) {
+        this.powerOfTwo = powerOfTwo;
+    }
 }
@@ -2,18 +2,26 @@ package io.flob.sux.opengl;
 
 import io.flob.sux.opengl.renderer.Renderer;
 import io.flob.sux.opengl.renderer.SGL;
+import io.flob.sux.util.Log;
 import io.flob.sux.util.ResourceLoader;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.lwjgl.BufferUtils;
 
 /**
@@ -28,10 +36,32 @@ public class InternalTextureLoader {
      * The renderer to use for all GL operations
      */
     protected static SGL GL = Renderer.get();
+    /**
+     * Indicates packed textures are rounded to the nearest value
+     */
+    public static final int DITHER_NONE = 0;
+    /**
+     * Indicates packed textures are dithered with an ordered 4x4 pattern,
+     * which is fast and stable but leaves a visible grid on flat areas
+     */
+    public static final int DITHER_ORDERED = 1;
+    /**
+     * Indicates packed textures are dithered with Floyd-Steinberg error
+     * diffusion, which gives the smoothest gradients
+     */
+    public static final int DITHER_FLOYD_STEINBERG = 2;
     /**
      * The standard texture loaded used everywhere
      */
     private static final InternalTextureLoader loader = new InternalTextureLoader();
+    /**
+     * The number of pixel buffer objects uploads are spread across
+     */
+    private static final int PIXEL_BUFFER_COUNT = 3;
+    /**
+     * The smallest upload worth staging through a pixel buffer object
+     */
+    private static final int PIXEL_BUFFER_THRESHOLD = 64 * 1024;
 
     /**
      * Get the single instance of this texture loader
@@ -43,13 +73,9 @@ public class InternalTextureLoader {
     }
 
     /**
-     * The table of textures that have been loaded in this loader
-     */
-    private final HashMap texturesLinear = new HashMap();
-    /**
-     * The table of textures that have been loaded in this loader
+     * The cache of textures that have been loaded in this loader
      */
-    private final HashMap texturesNearest = new HashMap();
+    private final TextureCache cache = new TextureCache();
     /**
      * The destination pixel format
      */
@@ -61,7 +87,55 @@ public class InternalTextureLoader {
     /**
      * True if we should hold texture data
      */
-    private boolean holdTextureData;
+    private volatile boolean holdTextureData;
+    /**
+     * The most bytes of compressed texture data held across every texture
+     */
+    private long heldTextureDataLimit = Long.MAX_VALUE;
+    /**
+     * True if we should use non power of two textures when supported
+     */
+    private boolean nonPowerOfTwo;
+    /**
+     * True if the hardware supports non power of two textures, null if not yet
+     * checked
+     */
+    private Boolean nonPowerOfTwoSupported;
+    /**
+     * True if we should generate mip maps for loaded textures
+     */
+    private boolean mipMapping;
+    /**
+     * The persistent cache of decoded textures or null if none
+     */
+    private volatile TextureDiskCache diskCache;
+    /**
+     * True if textures should be uploaded through pixel buffer objects where
+     * supported
+     */
+    private boolean pixelBufferUploads = true;
+    /**
+     * The ring of pixel buffer objects used for uploads, null until first used
+     * or if not supported
+     */
+    private PixelBufferRing pixelBuffers;
+    /**
+     * True if pixel buffer objects are supported, null if not yet checked
+     */
+    private Boolean pixelBuffersSupported;
+    /**
+     * The packed 16 bit format textures are converted to or 0 for none
+     */
+    private int packedFormat;
+    /**
+     * The dithering applied when converting textures to a packed format
+     */
+    private int dithering = DITHER_NONE;
+    /**
+     * The textures outside the cache whose content is restored by a reload
+     * callback
+     */
+    private final ArrayList restorable = new ArrayList();
 
     /**
      * Create a new texture loader based on the game panel
@@ -79,6 +153,36 @@ public class InternalTextureLoader {
         this.holdTextureData = holdTextureData;
     }
 
+    /**
+     * Limit the memory used by held texture data. Held data is kept
+     * compressed outside the Java heap, and once the limit is reached further
+     * textures don't hold their data and are decoded again from their source
+     * when they need reloading.
+     *
+     * @param heldTextureDataLimit The most bytes of compressed data to hold
+     */
+    public void setHeldTextureDataLimit(long heldTextureDataLimit) {
+        this.heldTextureDataLimit = heldTextureDataLimit;
+    }
+
+    /**
+     * Get the limit on the memory used by held texture data
+     *
+     * @return The most bytes of compressed data held
+     */
+    public long getHeldTextureDataLimit() {
+        return heldTextureDataLimit;
+    }
+
+    /**
+     * Get the memory currently used by held texture data
+     *
+     * @return The bytes of compressed data held
+     */
+    public long getHeldTextureDataSize() {
+        return HeldTextureData.getTotalSize();
+    }
+
     /**
      * True if we should only record the request to load in the intention of
      * loading the texture later
@@ -98,31 +202,195 @@ public class InternalTextureLoader {
         return deferred;
     }
 
+    /**
+     * Get the cache of textures that have been loaded in this loader. The
+     * cache can be used to set a texture memory budget, pin textures and
+     * inspect how well it is performing.
+     *
+     * @return The cache of loaded textures
+     */
+    public TextureCache getCache() {
+        return cache;
+    }
+
     /**
      * Remove a particular named image from the cache
      *
      * @param name The name of the image to be cleared
      */
     public void clear(String name) {
-        texturesLinear.remove(name);
-        texturesNearest.remove(name);
+        cache.remove(name);
     }
 
     /**
      * Clear out the cached textures
      */
     public void clear() {
-        texturesLinear.clear();
-        texturesNearest.clear();
+        cache.clear();
+    }
+
+    /**
+     * Note whether a texture outside the cache should be reloaded by reload()
+     * to restore it's content
+     *
+     * @param texture The texture
+     * @param restore True if the texture should be reloaded
+     */
+    void setRestorable(TextureImpl texture, boolean restore) {
+        restorable.remove(texture);
+        if (restore) {
+            restorable.add(texture);
+        }
+    }
+
+    /**
+     * Indicate whether textures should be created at the exact size of their
+     * images rather than padded to power of two dimensions. This only takes
+     * effect if the hardware supports non power of two textures, otherwise the
+     * padding is kept.
+     *
+     * @param nonPowerOfTwo True if textures should be the exact size of their
+     * images where supported
+     */
+    public void setNonPowerOfTwo(boolean nonPowerOfTwo) {
+        this.nonPowerOfTwo = nonPowerOfTwo;
+    }
+
+    /**
+     * Check if textures are being created at the exact size of their images.
+     * Must be called on the GL thread.
+     *
+     * @return True if non power of two textures are requested and supported
+     */
+    public boolean isNonPowerOfTwo() {
+        if (!nonPowerOfTwo) {
+            return false;
+        }
+        if (nonPowerOfTwoSupported == null) {
+            nonPowerOfTwoSupported = GL.canTextureNonPowerOfTwo();
+            if (!nonPowerOfTwoSupported) {
+                Log.warn("Non power of two textures not supported, falling back to power of two");
+            }
+        }
+
+        return nonPowerOfTwoSupported;
+    }
+
+    /**
+     * Indicate whether a mip map chain should be generated for textures
+     * loaded from images. The chain is built on the CPU when the image is
+     * decoded and every level uploaded, the texture then uses a trilinear
+     * minification filter.
+     *
+     * @param mipMapping True if mip maps should be generated
+     */
+    public void setMipMapping(boolean mipMapping) {
+        this.mipMapping = mipMapping;
+    }
+
+    /**
+     * Check if a mip map chain is generated for textures loaded from images
+     *
+     * @return True if mip maps are generated
+     */
+    public boolean isMipMapping() {
+        return mipMapping;
+    }
+
+    /**
+     * Set the file used to persist decoded textures between runs. Images found
+     * in the cache are mapped straight from the file rather than decoded,
+     * making warm starts much faster. Any previous cache is closed.
+     *
+     * @param file The file holding the cache or null to stop using one
+     * @throws IOException Indicates a failure to open the cache file
+     */
+    public void setDiskCache(File file) throws IOException {
+        TextureDiskCache old = diskCache;
+        diskCache = file == null ? null : new TextureDiskCache(file);
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * Get the persistent cache of decoded textures
+     *
+     * @return The disk cache or null if none is in use
+     */
+    public TextureDiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Indicate whether large textures should be uploaded through pixel buffer
+     * objects. The pixel data is copied into a buffer object that OpenGL reads
+     * from in the background, rather than being copied by the driver before
+     * the upload returns. Textures uploaded this way report they are complete
+     * once OpenGL has finished reading them. Ignored if the hardware doesn't
+     * support pixel buffer objects and fences.
+     *
+     * @param pixelBufferUploads True if pixel buffer objects should be used
+     */
+    public void setPixelBufferUploads(boolean pixelBufferUploads) {
+        this.pixelBufferUploads = pixelBufferUploads;
+        if (!pixelBufferUploads && (pixelBuffers != null)) {
+            pixelBuffers.release();
+            pixelBuffers = null;
+        }
+    }
+
+    /**
+     * Check if large textures are uploaded through pixel buffer objects
+     *
+     * @return True if pixel buffer objects are used where supported
+     */
+    public boolean isPixelBufferUploads() {
+        return pixelBufferUploads;
     }
 
     /**
-     * Tell the loader to produce 16 bit textures
+     * Tell the loader to produce 16 bit textures. Note this is 16 bits per
+     * channel, doubling the memory used; see setPackedFormat() to reduce it.
      */
     public void set16BitMode() {
         dstPixelFormat = SGL.GL_RGBA16;
     }
 
+    /**
+     * Indicate whether loaded textures should be converted to a packed 16 bit
+     * per texel format, halving the memory and bandwidth they use at the cost
+     * of colour precision. Images without alpha are always stored as RGB565.
+     * Compressed images are unaffected.
+     *
+     * @param packedFormat The packed internal format, SGL.GL_RGBA4,
+     * SGL.GL_RGB5 (RGB565) or SGL.GL_RGB5_A1, or 0 to keep 8 bits per channel
+     * @param dithering The dithering used to hide banding, DITHER_NONE,
+     * DITHER_ORDERED or DITHER_FLOYD_STEINBERG
+     */
+    public void setPackedFormat(int packedFormat, int dithering) {
+        this.packedFormat = packedFormat;
+        this.dithering = dithering;
+    }
+
+    /**
+     * Get the packed format textures are converted to
+     *
+     * @return The packed internal format or 0 if 8 bits per channel
+     */
+    public int getPackedFormat() {
+        return packedFormat;
+    }
+
+    /**
+     * Get the dithering applied when converting textures to a packed format
+     *
+     * @return One of the DITHER_ constants
+     */
+    public int getDithering() {
+        return dithering;
+    }
+
     /**
      * Create a new texture ID
      *
@@ -202,6 +470,26 @@ public class InternalTextureLoader {
         return getTexture(in, resourceName, flipped, filter, transparent);
     }
 
+    /**
+     * Get a texture from a resource location
+     *
+     * @param resourceName The location to load the texture from
+     * @param flipped True if we should flip the texture on the y axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param premultiplied True if the colour channels should be premultiplied
+     * by alpha while loading, for blending with GL_ONE, GL_ONE_MINUS_SRC_ALPHA
+     * @return The texture loaded
+     * @throws IOException Indicates a failure to load the image
+     */
+    public Texture getTexture(String resourceName, boolean flipped, int filter, int[] transparent,
+            boolean premultiplied) throws IOException {
+        InputStream in = ResourceLoader.getResourceAsStream(resourceName);
+
+        return getTexture(in, resourceName, flipped, filter, transparent, premultiplied);
+    }
+
     /**
      * Get a texture from a image file
      *
@@ -230,36 +518,82 @@ public class InternalTextureLoader {
      * @throws IOException Indicates a failure to load the image
      */
     public TextureImpl getTexture(InputStream in, String resourceName, boolean flipped, int filter, int[] transparent) throws IOException {
-        if (deferred) {
-            return new DeferredTexture(in, resourceName, flipped, filter, transparent);
-        }
+        return getTexture(in, resourceName, flipped, filter, transparent, false);
+    }
 
-        HashMap hash = texturesLinear;
-        if (filter == SGL.GL_NEAREST) {
-            hash = texturesNearest;
-        }
+    /**
+     * Get a texture from a image file
+     *
+     * @param in The stream from which we can load the image
+     * @param resourceName The name to give this image in the internal cache
+     * @param flipped True if we should flip the image on the y-axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param premultiplied True if the colour channels should be premultiplied
+     * by alpha while loading, for blending with GL_ONE, GL_ONE_MINUS_SRC_ALPHA
+     * @return The texture loaded
+     * @throws IOException Indicates a failure to load the image
+     */
+    public TextureImpl getTexture(InputStream in, String resourceName, boolean flipped, int filter, int[] transparent,
+            boolean premultiplied) throws IOException {
+        return getTexture(in, resourceName, flipped, filter, transparent, premultiplied, packedFormat, dithering);
+    }
+
+    /**
+     * Get a texture from a resource location, converted to a packed 16 bit
+     * format regardless of the loader's setting
+     *
+     * @param resourceName The location to load the texture from
+     * @param flipped True if we should flip the texture on the y axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param premultiplied True if the colour channels should be premultiplied
+     * by alpha while loading
+     * @param packedFormat The packed internal format, see setPackedFormat(), or
+     * 0 to keep 8 bits per channel
+     * @param dithering The dithering used when packing
+     * @return The texture loaded
+     * @throws IOException Indicates a failure to load the image
+     */
+    public Texture getTexture(String resourceName, boolean flipped, int filter, int[] transparent,
+            boolean premultiplied, int packedFormat, int dithering) throws IOException {
+        InputStream in = ResourceLoader.getResourceAsStream(resourceName);
+
+        return getTexture(in, resourceName, flipped, filter, transparent, premultiplied, packedFormat, dithering);
+    }
 
-        String resName = resourceName;
-        if (transparent != null) {
-            resName += ":" + transparent[0] + ":" + transparent[1] + ":" + transparent[2];
+    /**
+     * Get a texture from a image file, converted to a packed 16 bit format
+     * regardless of the loader's setting
+     *
+     * @param in The stream from which we can load the image
+     * @param resourceName The name to give this image in the internal cache
+     * @param flipped True if we should flip the image on the y-axis while
+     * loading
+     * @param filter The filter to use when scaling the texture
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param premultiplied True if the colour channels should be premultiplied
+     * by alpha while loading
+     * @param packedFormat The packed internal format, see setPackedFormat(), or
+     * 0 to keep 8 bits per channel
+     * @param dithering The dithering used when packing
+     * @return The texture loaded
+     * @throws IOException Indicates a failure to load the image
+     */
+    public TextureImpl getTexture(InputStream in, String resourceName, boolean flipped, int filter, int[] transparent,
+            boolean premultiplied, int packedFormat, int dithering) throws IOException {
+        if (deferred) {
+            return new DeferredTexture(in, resourceName, flipped, filter, transparent, premultiplied, packedFormat,
+                    dithering);
         }
-        resName += ":" + flipped;
 
-        if (holdTextureData) {
-            TextureImpl tex = (TextureImpl) hash.get(resName);
-            if (tex != null) {
-                return tex;
-            }
-        } else {
-            SoftReference ref = (SoftReference) hash.get(resName);
-            if (ref != null) {
-                TextureImpl tex = (TextureImpl) ref.get();
-                if (tex != null) {
-                    return tex;
-                } else {
-                    hash.remove(resName);
-                }
-            }
+        TextureKey key = createKey(resourceName, filter, flipped, transparent, mipMapping, premultiplied,
+                packedFormat, dithering);
+        TextureImpl tex = cache.get(key);
+        if (tex != null) {
+            return tex;
         }
 
         // horrible test until I can find something more suitable
@@ -269,154 +603,261 @@ public class InternalTextureLoader {
             throw new RuntimeException("Image based resources must be loaded as part of init() or the game loop. They cannot be loaded before initialisation.");
         }
 
-        TextureImpl tex = getTexture(in, resourceName,
-                SGL.GL_TEXTURE_2D,
-                filter,
-                filter, flipped, transparent);
-
-        tex.setCacheName(resName);
-        if (holdTextureData) {
-            hash.put(resName, tex);
-        } else {
-            hash.put(resName, new SoftReference(tex));
-        }
+        DecodedImageData imageData = decode(in, key);
+        tex = upload(key, imageData);
+        cache.put(key, tex);
 
         return tex;
     }
 
     /**
-     * Get a texture from a image file
+     * Create the key describing a texture load with the loader's current
+     * settings. Must be called on the GL thread.
      *
-     * @param in The stream from which we can load the image
-     * @param resourceName The name to give this image in the internal cache
+     * @param resourceName The name of the resource being loaded
+     * @param filter The filter to use when scaling the texture
      * @param flipped True if we should flip the image on the y-axis while
      * loading
-     * @param target The texture target we're loading this texture into
-     * @param minFilter The scaling down filter
-     * @param magFilter The scaling up filter
      * @param transparent The colour to interpret as transparent or null if none
-     * @return The texture loaded
-     * @throws IOException Indicates a failure to load the image
+     * @return The key describing the load
      */
-    private TextureImpl getTexture(InputStream in,
-            String resourceName,
-            int target,
-            int magFilter,
-            int minFilter, boolean flipped, int[] transparent) throws IOException {
-        // create the texture ID for this texture 
-        ByteBuffer textureBuffer;
+    TextureKey createKey(String resourceName, int filter, boolean flipped, int[] transparent) {
+        return createKey(resourceName, filter, flipped, transparent, mipMapping);
+    }
 
-        LoadableImageData imageData = ImageDataFactory.getImageDataFor(resourceName);
-        textureBuffer = imageData.loadImage(new BufferedInputStream(in), flipped, transparent);
+    /**
+     * Create the key describing a texture load with the loader's current
+     * settings. Must be called on the GL thread.
+     *
+     * @param resourceName The name of the resource being loaded
+     * @param filter The filter to use when scaling the texture
+     * @param flipped True if we should flip the image on the y-axis while
+     * loading
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param mipMapped True if a mip map chain should be generated
+     * @return The key describing the load
+     */
+    TextureKey createKey(String resourceName, int filter, boolean flipped, int[] transparent, boolean mipMapped) {
+        return createKey(resourceName, filter, flipped, transparent, mipMapped, false);
+    }
 
-        int textureID = createTextureID();
-        TextureImpl texture = new TextureImpl(resourceName, target, textureID);
-        // bind this texture 
-        GL.glBindTexture(target, textureID);
+    /**
+     * Create the key describing a texture load with the loader's current
+     * settings. Must be called on the GL thread.
+     *
+     * @param resourceName The name of the resource being loaded
+     * @param filter The filter to use when scaling the texture
+     * @param flipped True if we should flip the image on the y-axis while
+     * loading
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param mipMapped True if a mip map chain should be generated
+     * @param premultiplied True if the colour channels should be premultiplied
+     * by alpha
+     * @return The key describing the load
+     */
+    TextureKey createKey(String resourceName, int filter, boolean flipped, int[] transparent, boolean mipMapped,
+            boolean premultiplied) {
+        return createKey(resourceName, filter, flipped, transparent, mipMapped, premultiplied, packedFormat, dithering);
+    }
 
-        int width;
-        int height;
-        int texWidth;
-        int texHeight;
+    /**
+     * Create the key describing a texture load. Must be called on the GL
+     * thread.
+     *
+     * @param resourceName The name of the resource being loaded
+     * @param filter The filter to use when scaling the texture
+     * @param flipped True if we should flip the image on the y-axis while
+     * loading
+     * @param transparent The colour to interpret as transparent or null if none
+     * @param mipMapped True if a mip map chain should be generated
+     * @param premultiplied True if the colour channels should be premultiplied
+     * by alpha
+     * @param packedFormat The packed 16 bit internal format or 0 if 8 bits per
+     * channel
+     * @param dithering The dithering used when packing
+     * @return The key describing the load
+     */
+    TextureKey createKey(String resourceName, int filter, boolean flipped, int[] transparent, boolean mipMapped,
+            boolean premultiplied, int packedFormat, int dithering) {
+        return new TextureKey(resourceName, filter, flipped, transparent, !isNonPowerOfTwo(), mipMapped, premultiplied,
+                packedFormat, dithering);
+    }
 
-        boolean hasAlpha;
+    /**
+     * Decode an image into a buffer of pixel data ready for upload. This
+     * touches no GL state so may be called from any thread. When a disk cache
+     * is in use the decode is skipped if the image has been seen before.
+     *
+     * @param in The stream from which we can load the image
+     * @param key The key describing the load
+     * @return The decoded image data
+     * @throws IOException Indicates a failure to load the image
+     */
+    DecodedImageData decode(InputStream in, TextureKey key) throws IOException {
+        long start = System.nanoTime();
+        DecodedImageData decoded = decodeOrFetch(in, key);
+        // packed after the disk cache so it holds full precision pixels
+        if ((key.getPackedFormat() != 0) && !decoded.isCompressed()) {
+            decoded = PixelPacker.pack(decoded, key.getPackedFormat(), key.getDithering());
+        }
+        TextureStats.get().decoded(System.nanoTime() - start);
 
-        width = imageData.getWidth();
-        height = imageData.getHeight();
-        hasAlpha = imageData.getDepth() == 32;
+        return decoded;
+    }
 
-        texture.setTextureWidth(imageData.getTexWidth());
-        texture.setTextureHeight(imageData.getTexHeight());
+    /**
+     * Decode an image, or fetch it from the disk cache if there is one and it
+     * has been seen before
+     *
+     * @param in The stream from which we can load the image
+     * @param key The key describing the load
+     * @return The decoded image data
+     * @throws IOException Indicates a failure to load the image
+     */
+    private DecodedImageData decodeOrFetch(InputStream in, TextureKey key) throws IOException {
+        TextureDiskCache cacheFile = diskCache;
+        if (cacheFile == null) {
+            return decodeImage(in, key);
+        }
 
-        texWidth = texture.getTextureWidth();
-        texHeight = texture.getTextureHeight();
+        byte[] content = TextureDiskCache.readFully(in);
+        String digest = TextureDiskCache.createDigest(content, key);
+        DecodedImageData decoded = null;
+        try {
+            decoded = cacheFile.get(digest);
+        } catch (IOException e) {
+            Log.warn("Failed to read " + key.getResourceName() + " from the texture disk cache", e);
+        }
 
-        IntBuffer temp = BufferUtils.createIntBuffer(16);
-        GL.glGetInteger(SGL.GL_MAX_TEXTURE_SIZE, temp);
-        int max = temp.get(0);
-        if ((texWidth > max) || (texHeight > max)) {
-            throw new IOException("Attempt to allocate a texture to big for the current hardware");
+        if (decoded == null) {
+            decoded = decodeImage(new ByteArrayInputStream(content), key);
+            try {
+                cacheFile.put(digest, decoded);
+            } catch (IOException e) {
+                Log.warn("Failed to write " + key.getResourceName() + " to the texture disk cache", e);
+            }
+        } else if (key.isMipMapped()) {
+            ByteBuffer textureBuffer = decoded.getImageBufferData();
+            decoded = new DecodedImageData(decoded, textureBuffer, MipMapGenerator.generate(textureBuffer,
+                    decoded.getTexWidth(), decoded.getTexHeight(), decoded.getDepth() == 32 ? 4 : 3));
         }
 
-        int srcPixelFormat = hasAlpha ? SGL.GL_RGBA : SGL.GL_RGB;
-        int componentCount = hasAlpha ? 4 : 3;
+        return decoded;
+    }
 
-        texture.setWidth(width);
-        texture.setHeight(height);
-        texture.setAlpha(hasAlpha);
+    /**
+     * Decode an image with the loader appropriate for it's resource name
+     *
+     * @param in The stream from which we can load the image
+     * @param key The key describing the load
+     * @return The decoded image data
+     * @throws IOException Indicates a failure to load the image
+     */
+    private DecodedImageData decodeImage(InputStream in, TextureKey key) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        LoadableImageData imageData = ImageDataFactory.getImageDataFor(buffered, key.getResourceName());
+        imageData.configurePowerOfTwo(key.isPowerOfTwo());
+        ByteBuffer textureBuffer;
+        try {
+            textureBuffer = imageData.loadImage(buffered, key.isFlipped(), key.getTransparent());
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to decode image: " + key.getResourceName(), e);
+        }
 
-        if (holdTextureData) {
-            texture.setTextureData(srcPixelFormat, componentCount, minFilter, magFilter, textureBuffer);
+        if (imageData instanceof CompressedImageData) {
+            if (key.isPremultiplied()) {
+                Log.warn("Compressed images can't be premultiplied, " + key.getResourceName() + " is loaded as is");
+            }
+            CompressedImageData compressed = (CompressedImageData) imageData;
+            return new DecodedImageData(imageData, textureBuffer, compressed.getMipMaps(), compressed.getInternalFormat());
         }
 
-        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
-        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+        if (key.isPremultiplied() && (imageData.getDepth() == 32)) {
+            PixelProcessor.premultiply(textureBuffer);
+        }
 
-        // produce a texture from the byte buffer
-        GL.glTexImage2D(target,
-                0,
-                dstPixelFormat,
-                get2Fold(width),
-                get2Fold(height),
-                0,
-                srcPixelFormat,
-                SGL.GL_UNSIGNED_BYTE,
-                textureBuffer);
+        ByteBuffer[] mipMaps = null;
+        if (key.isMipMapped()) {
+            mipMaps = MipMapGenerator.generate(textureBuffer, imageData.getTexWidth(), imageData.getTexHeight(),
+                    imageData.getDepth() == 32 ? 4 : 3);
+        }
 
-        return texture;
+        return new DecodedImageData(imageData, textureBuffer, mipMaps);
     }
 
     /**
-     * Create an empty texture
+     * Upload the result of decode() into a new 2D OpenGL texture, along with
+     * any mip map levels. This must be called on the thread that owns the GL
+     * context.
      *
-     * @param width The width of the new texture
-     * @param height The height of the new texture
-     * @return The created empty texture
-     * @throws IOException Indicates a failure to create the texture on the
-     * graphics hardware
+     * @param key The key describing the load
+     * @param imageData The decoded image data
+     * @return The texture created
+     * @throws IOException Indicates the texture is too big or in a format not
+     * supported by the hardware
      */
-    public Texture createTexture(final int width, final int height) throws IOException {
-        return createTexture(width, height, SGL.GL_NEAREST);
+    TextureImpl upload(TextureKey key, DecodedImageData imageData) throws IOException {
+        long start = System.nanoTime();
+        String resourceName = key.getResourceName();
+        int filter = key.getFilter();
+        TextureImpl texture;
+        if (imageData.isCompressed()) {
+            texture = uploadCompressed(resourceName, imageData, SGL.GL_TEXTURE_2D, filter, filter);
+        } else if (imageData.getPackedFormat() != 0) {
+            texture = uploadPacked(resourceName, imageData, SGL.GL_TEXTURE_2D, filter, filter);
+            texture.setPremultipliedAlpha(key.isPremultiplied());
+        } else {
+            texture = upload(resourceName, imageData, imageData.getMipMaps(), SGL.GL_TEXTURE_2D, filter, filter);
+            texture.setPremultipliedAlpha(key.isPremultiplied());
+        }
+
+        // the decode buffers are finished with, held data is a compressed copy
+        release(imageData);
+
+        TextureStats.get().uploaded(System.nanoTime() - start);
+        return texture;
     }
 
     /**
-     * Create an empty texture
+     * Upload decoded image data into a new OpenGL texture. This must be called
+     * on the thread that owns the GL context.
      *
-     * @param width The width of the new texture
-     * @param height The height of the new textu
-     * @param filter
-     * @return The created empty texture
-     * @throws IOException Indicates a failure to create the texture on the
-     * graphics hardware
+     * @param resourceName The name to give the texture
+     * @param imageData The image data to generate the texture from
+     * @param target The texture target we're loading this texture into
+     * @param minFilter The scaling down filter
+     * @param magFilter The scaling up filter
+     * @return The texture created
+     * @throws IOException Indicates the texture is too big for the hardware
      */
-    public Texture createTexture(final int width, final int height, final int filter) throws IOException {
-        ImageData ds = new EmptyImageData(width, height);
-
-        return getTexture(ds, filter);
+    TextureImpl upload(String resourceName, ImageData imageData, int target,
+            int minFilter, int magFilter) throws IOException {
+        return upload(resourceName, imageData, null, target, minFilter, magFilter);
     }
 
     /**
-     * Get a texture from a image file
+     * Upload decoded image data and it's mip map chain into a new OpenGL
+     * texture. This must be called on the thread that owns the GL context.
      *
-     * @param dataSource The image data to generate the texture from
-     * @param filter The filter to use when scaling the texture
+     * @param resourceName The name to give the texture
+     * @param imageData The image data to generate the texture from
+     * @param mipMaps The mip map chain with the image's own pixel data at index
+     * 0, or null to upload only the image
+     * @param target The texture target we're loading this texture into
+     * @param minFilter The scaling down filter, converted to it's trilinear
+     * equivalent when a mip map chain is given
+     * @param magFilter The scaling up filter
      * @return The texture created
      * @throws IOException Indicates the texture is too big for the hardware
      */
-    public Texture getTexture(ImageData dataSource, int filter) throws IOException {
-        int target = SGL.GL_TEXTURE_2D;
-
-        ByteBuffer textureBuffer;
-        textureBuffer = dataSource.getImageBufferData();
+    TextureImpl upload(String resourceName, ImageData imageData, ByteBuffer[] mipMaps, int target,
+            int minFilter, int magFilter) throws IOException {
+        // an empty texture's storage is allocated without any client data
+        ByteBuffer textureBuffer = (imageData instanceof EmptyImageData) ? null : imageData.getImageBufferData();
 
         // create the texture ID for this texture 
         int textureID = createTextureID();
-        TextureImpl texture = new TextureImpl("generated:" + dataSource, target, textureID);
-
-        int minFilter = filter;
-        int magFilter = filter;
-        boolean flipped = false;
-
+        TextureImpl texture = new TextureImpl(resourceName, target, textureID);
         // bind this texture 
         GL.glBindTexture(target, textureID);
 
@@ -427,49 +868,507 @@ public class InternalTextureLoader {
 
         boolean hasAlpha;
 
-        width = dataSource.getWidth();
-        height = dataSource.getHeight();
-        hasAlpha = dataSource.getDepth() == 32;
+        width = imageData.getWidth();
+        height = imageData.getHeight();
+        hasAlpha = imageData.getDepth() == 32;
 
-        texture.setTextureWidth(dataSource.getTexWidth());
-        texture.setTextureHeight(dataSource.getTexHeight());
+        texture.setTextureWidth(imageData.getTexWidth());
+        texture.setTextureHeight(imageData.getTexHeight());
 
         texWidth = texture.getTextureWidth();
         texHeight = texture.getTextureHeight();
 
+        checkTextureSize(texWidth, texHeight);
+
         int srcPixelFormat = hasAlpha ? SGL.GL_RGBA : SGL.GL_RGB;
         int componentCount = hasAlpha ? 4 : 3;
 
         texture.setWidth(width);
         texture.setHeight(height);
         texture.setAlpha(hasAlpha);
+        texture.setMemoryUsage(getMemoryUsage(texWidth, texHeight, mipMaps, getBytesPerTexel()));
+
+        if (mipMaps != null) {
+            minFilter = getMipMapFilter(minFilter);
+        }
 
+        if (holdTextureData) {
+            texture.setTextureData(takeHeldData(resourceName, imageData,
+                    mipMaps == null ? new ByteBuffer[]{textureBuffer} : mipMaps),
+                    srcPixelFormat, componentCount, minFilter, magFilter, mipMaps != null);
+        }
+
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+
+        // produce a texture from the byte buffer
+        texture.setUploadFence(texImage2D(target, texWidth, texHeight, dstPixelFormat, srcPixelFormat,
+                SGL.GL_UNSIGNED_BYTE, textureBuffer, mipMaps));
+        texture.setFilter(magFilter);
+        texture.setResident(true);
+
+        return texture;
+    }
+
+    /**
+     * Upload image data converted to a packed 16 bit format, and any mip map
+     * chain, into a new OpenGL texture. This must be called on the thread that
+     * owns the GL context.
+     *
+     * @param resourceName The name to give the texture
+     * @param imageData The packed image data
+     * @param target The texture target we're loading this texture into
+     * @param minFilter The scaling down filter, converted to it's trilinear
+     * equivalent when the image has a mip map chain
+     * @param magFilter The scaling up filter
+     * @return The texture created
+     * @throws IOException Indicates the texture is too big for the hardware
+     */
+    private TextureImpl uploadPacked(String resourceName, DecodedImageData imageData, int target,
+            int minFilter, int magFilter) throws IOException {
+        int packed = imageData.getPackedFormat();
+        int texWidth = imageData.getTexWidth();
+        int texHeight = imageData.getTexHeight();
+        ByteBuffer[] mipMaps = imageData.getMipMaps();
+
+        int textureID = createTextureID();
+        TextureImpl texture = new TextureImpl(resourceName, target, textureID);
+        GL.glBindTexture(target, textureID);
+
+        checkTextureSize(texWidth, texHeight);
+
+        texture.setTextureWidth(texWidth);
+        texture.setTextureHeight(texHeight);
+        texture.setWidth(imageData.getWidth());
+        texture.setHeight(imageData.getHeight());
+        texture.setAlpha(packed != SGL.GL_RGB5);
+        texture.setMemoryUsage(getMemoryUsage(texWidth, texHeight, mipMaps, getBytesPerTexel(packed)));
+
+        if (mipMaps != null) {
+            minFilter = getMipMapFilter(minFilter);
+        }
+
+        if (holdTextureData) {
+            texture.setPackedTextureData(takeHeldData(resourceName, imageData, imageData.getLevels()), packed,
+                    minFilter, magFilter);
+        }
+
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+
+        texture.setUploadFence(texImage2D(target, texWidth, texHeight, packed, PixelPacker.getPixelFormat(packed),
+                PixelPacker.getPixelType(packed), imageData.getImageBufferData(), mipMaps));
+        texture.setFilter(magFilter);
+        texture.setResident(true);
+
+        return texture;
+    }
+
+    /**
+     * Compress the pixel data of decoded image data to be held by the texture
+     * uploaded from it, if textures hold their data. This touches no GL state,
+     * so decode workers call it to keep the compression off the GL thread.
+     *
+     * @param resourceName The name of the texture the data is for
+     * @param imageData The decoded image data
+     */
+    void hold(String resourceName, DecodedImageData imageData) {
+        if (holdTextureData) {
+            imageData.setHeldData(hold(resourceName, imageData.getLevels()));
+        }
+    }
+
+    /**
+     * Compress texture data to be held, if it fits within the held texture
+     * data limit
+     *
+     * @param resourceName The name of the texture the data is for
+     * @param levels The levels of the texture with the top level at index 0
+     * @return The held data or null if holding it would exceed the limit
+     */
+    HeldTextureData hold(String resourceName, ByteBuffer[] levels) {
+        HeldTextureData held = HeldTextureData.hold(levels, heldTextureDataLimit);
+        if (held == null) {
+            Log.info("Held texture data limit reached, " + resourceName + " will be reloaded from source");
+        }
+
+        return held;
+    }
+
+    /**
+     * Take the held data a decode worker compressed from image data, or
+     * compress the levels now if it didn't
+     *
+     * @param resourceName The name of the texture the data is for
+     * @param imageData The image data being uploaded
+     * @param levels The levels of the texture with the top level at index 0
+     * @return The held data or null if holding it would exceed the limit
+     */
+    private HeldTextureData takeHeldData(String resourceName, ImageData imageData, ByteBuffer[] levels) {
+        HeldTextureData held = null;
+        if (imageData instanceof DecodedImageData) {
+            held = ((DecodedImageData) imageData).takeHeldData();
+        }
+
+        return held != null ? held : hold(resourceName, levels);
+    }
+
+    /**
+     * Upload block compressed image data and it's mip map levels into a new
+     * OpenGL texture. This must be called on the thread that owns the GL
+     * context.
+     *
+     * @param resourceName The name to give the texture
+     * @param imageData The compressed image data
+     * @param target The texture target we're loading this texture into
+     * @param minFilter The scaling down filter, converted to it's trilinear
+     * equivalent when the image has mip map levels
+     * @param magFilter The scaling up filter
+     * @return The texture created
+     * @throws IOException Indicates the texture is too big or in a format not
+     * supported by the hardware
+     */
+    private TextureImpl uploadCompressed(String resourceName, DecodedImageData imageData, int target,
+            int minFilter, int magFilter) throws IOException {
+        int internalFormat = imageData.getCompressedFormat();
+        int width = imageData.getWidth();
+        int height = imageData.getHeight();
+        ByteBuffer[] levels = imageData.getMipMaps();
+
+        if (DDSImageData.isS3TC(internalFormat) && !GL.canTextureCompressionS3TC()) {
+            throw new IOException("DXT compressed textures are not supported by the current hardware");
+        }
+        if (((width != get2Fold(width)) || (height != get2Fold(height))) && !GL.canTextureNonPowerOfTwo()) {
+            throw new IOException("Compressed textures must have power of two dimensions on the current hardware");
+        }
+
+        int textureID = createTextureID();
+        TextureImpl texture = new TextureImpl(resourceName, target, textureID);
+        GL.glBindTexture(target, textureID);
+
+        checkTextureSize(width, height);
+
+        texture.setTextureWidth(width);
+        texture.setTextureHeight(height);
+        texture.setWidth(width);
+        texture.setHeight(height);
+        texture.setAlpha(imageData.getDepth() == 32);
+
+        long memoryUsage = 0;
+        for (int level = 0; level < levels.length; level++) {
+            memoryUsage += levels[level].remaining();
+        }
+        texture.setMemoryUsage(memoryUsage);
+
+        if (levels.length > 1) {
+            minFilter = getMipMapFilter(minFilter);
+        }
+
+        if (holdTextureData) {
+            texture.setCompressedTextureData(takeHeldData(resourceName, imageData, levels), internalFormat,
+                    minFilter, magFilter);
+        }
+
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+
+        compressedTexImage2D(target, width, height, internalFormat, levels);
+        texture.setFilter(magFilter);
+        texture.setResident(true);
+
+        return texture;
+    }
+
+    /**
+     * Upload compressed mip map levels into the currently bound texture. The
+     * file may not hold a complete chain so the maximum level is limited to
+     * those present.
+     *
+     * @param target The texture target to upload to
+     * @param width The width of the top level
+     * @param height The height of the top level
+     * @param internalFormat The compressed internal format of the data
+     * @param levels The compressed levels with the top level at index 0
+     */
+    private void compressedTexImage2D(int target, int width, int height, int internalFormat, ByteBuffer[] levels) {
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAX_LEVEL, levels.length - 1);
+
+        for (int level = 0; level < levels.length; level++) {
+            GL.glCompressedTexImage2D(target, level, internalFormat, width, height, 0, levels[level]);
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+        }
+    }
+
+    /**
+     * Check that a texture will fit on the current hardware
+     *
+     * @param texWidth The width of the texture
+     * @param texHeight The height of the texture
+     * @throws IOException Indicates the texture is too big for the hardware
+     */
+    private void checkTextureSize(int texWidth, int texHeight) throws IOException {
         IntBuffer temp = BufferUtils.createIntBuffer(16);
         GL.glGetInteger(SGL.GL_MAX_TEXTURE_SIZE, temp);
         int max = temp.get(0);
         if ((texWidth > max) || (texHeight > max)) {
             throw new IOException("Attempt to allocate a texture to big for the current hardware");
         }
+    }
 
-        if (holdTextureData) {
-            texture.setTextureData(srcPixelFormat, componentCount, minFilter, magFilter, textureBuffer);
+    /**
+     * Get the trilinear equivalent of a minification filter
+     *
+     * @param filter The filter to use within a mip map level
+     * @return The filter blending between mip map levels
+     */
+    private static int getMipMapFilter(int filter) {
+        return filter == SGL.GL_NEAREST ? SGL.GL_NEAREST_MIPMAP_LINEAR : SGL.GL_LINEAR_MIPMAP_LINEAR;
+    }
+
+    /**
+     * Get the number of bytes of texture memory a texture and it's mip map
+     * chain uses
+     *
+     * @param texWidth The width of the texture
+     * @param texHeight The height of the texture
+     * @param mipMaps The mip map chain or null if none
+     * @param bytesPerTexel The number of bytes each texel uses
+     * @return The number of bytes of texture memory used
+     */
+    private long getMemoryUsage(int texWidth, int texHeight, ByteBuffer[] mipMaps, int bytesPerTexel) {
+        long texels = (long) texWidth * texHeight;
+        if (mipMaps != null) {
+            for (int level = 1; level < mipMaps.length; level++) {
+                texWidth = Math.max(1, texWidth / 2);
+                texHeight = Math.max(1, texHeight / 2);
+                texels += (long) texWidth * texHeight;
+            }
         }
 
-        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
-        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+        return texels * bytesPerTexel;
+    }
+
+    /**
+     * Upload pixel data into the currently bound texture. RGB and packed rows
+     * are tightly packed so may not be four byte aligned, the unpack alignment
+     * is relaxed for them. Large uploads are staged through a pixel buffer
+     * object when one is free.
+     *
+     * @param target The texture target to upload to
+     * @param texWidth The width of the texture
+     * @param texHeight The height of the texture
+     * @param internalFormat The internal format of the texture
+     * @param srcPixelFormat The pixel format of the data
+     * @param type The type of the pixel data
+     * @param textureBuffer The pixel data
+     * @param mipMaps The mip map chain with the pixel data at index 0, or null
+     * to upload only the pixel data
+     * @return A fence passed once OpenGL has finished reading the pixel data,
+     * or 0 if the data was copied before returning
+     */
+    private long texImage2D(int target, int texWidth, int texHeight, int internalFormat, int srcPixelFormat,
+            int type, ByteBuffer textureBuffer, ByteBuffer[] mipMaps) {
+        boolean unaligned = (srcPixelFormat == SGL.GL_RGB) || (type != SGL.GL_UNSIGNED_BYTE);
+        if (unaligned) {
+            GL.glPixelStorei(SGL.GL_UNPACK_ALIGNMENT, 1);
+        }
+
+        long fence = 0;
+        PixelBufferRing ring = getPixelBuffers();
+        if ((ring != null) && (textureBuffer != null) && (textureBuffer.limit() >= PIXEL_BUFFER_THRESHOLD)) {
+            fence = ring.texImage2D(target, internalFormat, texWidth, texHeight, srcPixelFormat, type,
+                    textureBuffer, mipMaps);
+        }
+        if (fence != 0) {
+            if (unaligned) {
+                GL.glPixelStorei(SGL.GL_UNPACK_ALIGNMENT, 4);
+            }
+            return fence;
+        }
 
-        // produce a texture from the byte buffer
         GL.glTexImage2D(target,
                 0,
-                dstPixelFormat,
-                get2Fold(width),
-                get2Fold(height),
+                internalFormat,
+                texWidth,
+                texHeight,
                 0,
                 srcPixelFormat,
-                SGL.GL_UNSIGNED_BYTE,
+                type,
                 textureBuffer);
 
-        return texture;
+        if (mipMaps != null) {
+            for (int level = 1; level < mipMaps.length; level++) {
+                texWidth = Math.max(1, texWidth / 2);
+                texHeight = Math.max(1, texHeight / 2);
+                GL.glTexImage2D(target,
+                        level,
+                        internalFormat,
+                        texWidth,
+                        texHeight,
+                        0,
+                        srcPixelFormat,
+                        type,
+                        mipMaps[level]);
+            }
+        }
+
+        if (unaligned) {
+            GL.glPixelStorei(SGL.GL_UNPACK_ALIGNMENT, 4);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get the ring of pixel buffer objects used for uploads, creating it if
+     * required
+     *
+     * @return The ring or null if pixel buffer uploads are off or unsupported
+     */
+    private PixelBufferRing getPixelBuffers() {
+        if (!pixelBufferUploads) {
+            return null;
+        }
+        if (pixelBuffersSupported == null) {
+            pixelBuffersSupported = GL.canPixelBufferObjects();
+            if (!pixelBuffersSupported) {
+                Log.info("Pixel buffer objects not supported, textures will be uploaded directly");
+            }
+        }
+        if (pixelBuffersSupported && (pixelBuffers == null)) {
+            pixelBuffers = new PixelBufferRing(PIXEL_BUFFER_COUNT);
+        }
+
+        return pixelBuffers;
+    }
+
+    /**
+     * Create an empty texture
+     *
+     * @param width The width of the new texture
+     * @param height The height of the new texture
+     * @return The created empty texture
+     * @throws IOException Indicates a failure to create the texture on the
+     * graphics hardware
+     */
+    public Texture createTexture(final int width, final int height) throws IOException {
+        return createTexture(width, height, SGL.GL_NEAREST);
+    }
+
+    /**
+     * Create an empty texture. The texture's storage is allocated without
+     * uploading any pixels, so it's content is undefined until drawn to.
+     *
+     * @param width The width of the new texture
+     * @param height The height of the new textu
+     * @param filter
+     * @return The created empty texture
+     * @throws IOException Indicates a failure to create the texture on the
+     * graphics hardware
+     */
+    public Texture createTexture(final int width, final int height, final int filter) throws IOException {
+        ImageData ds = new EmptyImageData(width, height, !isNonPowerOfTwo());
+
+        return getTexture(ds, filter);
+    }
+
+    /**
+     * Create a texture that can be rendered into through a framebuffer object.
+     * The texture's storage is allocated without uploading any pixels. See
+     * RenderTargetPool for reusing targets between frames.
+     *
+     * @param width The width of the target
+     * @param height The height of the target
+     * @param format The internal format of the texture, for instance
+     * SGL.GL_RGBA8
+     * @param filter The filter to use when scaling the texture
+     * @return The render target created
+     * @throws IOException Indicates render targets aren't supported, or the
+     * target is too big or in a format the hardware can't render to
+     */
+    public RenderTarget createRenderTarget(int width, int height, int format, int filter) throws IOException {
+        if (!GL.canFramebufferObjects()) {
+            throw new IOException("Render targets are not supported by the current hardware");
+        }
+
+        boolean exact = GL.canTextureNonPowerOfTwo();
+        int texWidth = exact ? width : get2Fold(width);
+        int texHeight = exact ? height : get2Fold(height);
+        checkTextureSize(texWidth, texHeight);
+
+        int textureID = createTextureID();
+        GL.glBindTexture(SGL.GL_TEXTURE_2D, textureID);
+        GL.glTexParameteri(SGL.GL_TEXTURE_2D, SGL.GL_TEXTURE_MIN_FILTER, filter);
+        GL.glTexParameteri(SGL.GL_TEXTURE_2D, SGL.GL_TEXTURE_MAG_FILTER, filter);
+        GL.glTexImage2D(SGL.GL_TEXTURE_2D, 0, format, texWidth, texHeight, 0, SGL.GL_RGBA, SGL.GL_UNSIGNED_BYTE,
+                (ByteBuffer) null);
+
+        IntBuffer previous = BufferUtils.createIntBuffer(16);
+        GL.glGetInteger(SGL.GL_FRAMEBUFFER_BINDING, previous);
+        int framebufferID = GL.glGenFramebuffers();
+        GL.glBindFramebuffer(SGL.GL_FRAMEBUFFER, framebufferID);
+        GL.glFramebufferTexture2D(SGL.GL_FRAMEBUFFER, SGL.GL_COLOR_ATTACHMENT0, SGL.GL_TEXTURE_2D, textureID, 0);
+        int status = GL.glCheckFramebufferStatus(SGL.GL_FRAMEBUFFER);
+        GL.glBindFramebuffer(SGL.GL_FRAMEBUFFER, previous.get(0));
+
+        RenderTarget target = new RenderTarget("rendertarget:" + width + "x" + height, textureID, framebufferID,
+                format);
+        target.setTextureWidth(texWidth);
+        target.setTextureHeight(texHeight);
+        target.setWidth(width);
+        target.setHeight(height);
+        target.setAlpha(format != SGL.GL_RGB5);
+        target.setMemoryUsage((long) texWidth * texHeight * getBytesPerTexel(format));
+        target.setFilter(filter);
+
+        if (status != SGL.GL_FRAMEBUFFER_COMPLETE) {
+            target.release();
+            throw new IOException("Render target format can't be rendered to, framebuffer status: 0x"
+                    + Integer.toHexString(status));
+        }
+        target.setResident(true);
+
+        return target;
+    }
+
+    /**
+     * Get a texture from a image file
+     *
+     * @param dataSource The image data to generate the texture from
+     * @param filter The filter to use when scaling the texture
+     * @return The texture created
+     * @throws IOException Indicates the texture is too big for the hardware
+     */
+    public Texture getTexture(ImageData dataSource, int filter) throws IOException {
+        return upload("generated:" + dataSource, dataSource, SGL.GL_TEXTURE_2D, filter, filter);
+    }
+
+    /**
+     * Get the number of bytes of texture memory each texel uses in the
+     * destination pixel format
+     *
+     * @return The number of bytes used by each texel
+     */
+    private int getBytesPerTexel() {
+        return getBytesPerTexel(dstPixelFormat);
+    }
+
+    /**
+     * Get the number of bytes of texture memory each texel uses in a given
+     * internal format
+     *
+     * @param internalFormat The internal format of the texture
+     * @return The number of bytes used by each texel
+     */
+    static int getBytesPerTexel(int internalFormat) {
+        if (internalFormat == SGL.GL_RGBA16) {
+            return 8;
+        }
+        if ((internalFormat == SGL.GL_RGBA4) || (internalFormat == SGL.GL_RGB5) || (internalFormat == SGL.GL_RGB5_A1)) {
+            return 2;
+        }
+        return 4;
     }
 
     /**
@@ -501,17 +1400,200 @@ public class InternalTextureLoader {
     }
 
     /**
-     * Reload all the textures loaded in this loader
+     * Reload all the textures loaded in this loader, for instance after the GL
+     * context has been lost. Textures holding their texture data are uploaded
+     * from it. Every other texture is decoded again from the resource it was
+     * loaded from, in parallel on worker threads, and uploaded on this thread
+     * as each decode completes, so texture data needn't be held to recover.
+     * Must be called on the thread that owns the new GL context.
      */
     public void reload() {
-        Iterator texs = texturesLinear.values().iterator();
-        while (texs.hasNext()) {
-            ((TextureImpl) texs.next()).reload();
+        ExecutorService workers = null;
+        CompletionService decodes = null;
+        int pending = 0;
+
+        // idle render targets, pixel buffers and fences were lost with the old
+        // context, the ring is created again when next used
+        RenderTargetPool.get().lost();
+        pixelBuffers = null;
+        pixelBuffersSupported = null;
+        for (Object object : restorable) {
+            ((TextureImpl) object).lostUploadFence();
+        }
+        for (Object object : cache.getTextures()) {
+            ((TextureImpl) object).lostUploadFence();
+        }
+
+        for (Object object : new ArrayList(restorable)) {
+            ((TextureImpl) object).reload();
+        }
+
+        for (Object object : cache.getTextures()) {
+            TextureImpl texture = (TextureImpl) object;
+            TextureKey key = texture.getCacheKey();
+            if (texture.hasTextureData() || (key == null)) {
+                texture.reload();
+                continue;
+            }
+            if (!sourceExists(key.getResourceName())) {
+                Log.warn("Can't reload texture without held texture data or a source: " + key.getResourceName());
+                continue;
+            }
+
+            if (workers == null) {
+                workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    private int count;
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "SUX Texture Reloader " + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                decodes = new ExecutorCompletionService(workers);
+            }
+            decodes.submit(new SourceReload(texture, key));
+            pending++;
+        }
+
+        try {
+            for (; pending > 0; pending--) {
+                Future future = decodes.take();
+                SourceReload reload = null;
+                try {
+                    reload = (SourceReload) future.get();
+                    reload(reload.texture, reload.key, reload.decoded);
+                } catch (ExecutionException e) {
+                    Log.error("Failed to reload texture", e.getCause());
+                } catch (IOException e) {
+                    Log.error("Failed to reload texture: " + reload.key.getResourceName(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Upload a texture decoded again from it's source into a new GL texture
+     *
+     * @param texture The texture being reloaded
+     * @param key The key describing the original load
+     * @param imageData The decoded image data
+     * @throws IOException Indicates the texture is too big for the hardware
+     */
+    private void reload(TextureImpl texture, TextureKey key, DecodedImageData imageData) throws IOException {
+        ByteBuffer[] mipMaps = imageData.getMipMaps();
+        int minFilter = key.getFilter();
+        int magFilter = key.getFilter();
+        if ((mipMaps != null) && (mipMaps.length > 1)) {
+            minFilter = getMipMapFilter(minFilter);
         }
-        texs = texturesNearest.values().iterator();
-        while (texs.hasNext()) {
-            ((TextureImpl) texs.next()).reload();
+
+        texture.setTextureWidth(imageData.getTexWidth());
+        texture.setTextureHeight(imageData.getTexHeight());
+        texture.setWidth(imageData.getWidth());
+        texture.setHeight(imageData.getHeight());
+        checkTextureSize(imageData.getTexWidth(), imageData.getTexHeight());
+
+        if (imageData.isCompressed()) {
+            texture.setTextureID(reloadCompressed(texture, imageData.getCompressedFormat(), minFilter, magFilter,
+                    mipMaps));
+        } else if (imageData.getPackedFormat() != 0) {
+            texture.setTextureID(reloadPacked(texture, imageData.getPackedFormat(), minFilter, magFilter,
+                    mipMaps == null ? new ByteBuffer[]{imageData.getImageBufferData()} : mipMaps));
+        } else {
+            texture.setTextureID(reload(texture, imageData.getDepth() == 32 ? SGL.GL_RGBA : SGL.GL_RGB,
+                    imageData.getDepth() / 8, minFilter, magFilter, imageData.getImageBufferData(), mipMaps));
+        }
+        texture.setResident(true);
+
+        release(imageData);
+    }
+
+    /**
+     * Reload a single texture by decoding it again from it's source, used
+     * when the texture doesn't hold it's texture data
+     *
+     * @param texture The texture to reload
+     * @return True if the texture was reloaded
+     */
+    boolean reloadFromSource(TextureImpl texture) {
+        TextureKey key = texture.getCacheKey();
+        if ((key == null) || !sourceExists(key.getResourceName())) {
+            return false;
+        }
+
+        try {
+            InputStream in = openSource(key.getResourceName());
+            try {
+                reload(texture, key, decode(in, key));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.error("Failed to reload texture: " + key.getResourceName(), e);
+            return false;
         }
+
+        return true;
+    }
+
+    /**
+     * Return the buffers of decoded image data to the pool
+     *
+     * @param imageData The image data finished with
+     */
+    static void release(DecodedImageData imageData) {
+        // held data that no texture took is no longer counted
+        HeldTextureData held = imageData.takeHeldData();
+        if (held != null) {
+            held.discard();
+        }
+
+        BufferPool.get().release(imageData.getImageBufferData());
+        ByteBuffer[] mipMaps = imageData.getMipMaps();
+        if (mipMaps != null) {
+            for (int level = 1; level < mipMaps.length; level++) {
+                BufferPool.get().release(mipMaps[level]);
+            }
+        }
+    }
+
+    /**
+     * Check if the source of a texture can still be read
+     *
+     * @param resourceName The name of the resource the texture was loaded from
+     * @return True if the source can be read
+     */
+    private static boolean sourceExists(String resourceName) {
+        File file = new File(resourceName);
+        if (file.isAbsolute() && file.isFile()) {
+            return true;
+        }
+
+        return ResourceLoader.resourceExists(resourceName);
+    }
+
+    /**
+     * Open the source of a texture
+     *
+     * @param resourceName The name of the resource the texture was loaded from
+     * @return The stream to read the source from
+     * @throws IOException Indicates a failure to open the source
+     */
+    private static InputStream openSource(String resourceName) throws IOException {
+        File file = new File(resourceName);
+        if (file.isAbsolute() && file.isFile()) {
+            return new FileInputStream(file);
+        }
+
+        return ResourceLoader.getResourceAsStream(resourceName);
     }
 
     /**
@@ -527,6 +1609,24 @@ public class InternalTextureLoader {
      */
     public int reload(TextureImpl texture, int srcPixelFormat, int componentCount,
             int minFilter, int magFilter, ByteBuffer textureBuffer) {
+        return reload(texture, srcPixelFormat, componentCount, minFilter, magFilter, textureBuffer, null);
+    }
+
+    /**
+     * Reload a given texture blob along with it's mip map chain
+     *
+     * @param texture The texture being reloaded
+     * @param srcPixelFormat The source pixel format
+     * @param componentCount The component count
+     * @param minFilter The minification filter
+     * @param magFilter The magnification filter
+     * @param textureBuffer The pixel data
+     * @param mipMaps The mip map chain with the pixel data at index 0, or null
+     * if none
+     * @return The ID of the newly created texture
+     */
+    public int reload(TextureImpl texture, int srcPixelFormat, int componentCount,
+            int minFilter, int magFilter, ByteBuffer textureBuffer, ByteBuffer[] mipMaps) {
         int target = SGL.GL_TEXTURE_2D;
         int textureID = createTextureID();
         GL.glBindTexture(target, textureID);
@@ -535,16 +1635,99 @@ public class InternalTextureLoader {
         GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
 
         // produce a texture from the byte buffer
-        GL.glTexImage2D(target,
-                0,
-                dstPixelFormat,
-                texture.getTextureWidth(),
-                texture.getTextureHeight(),
-                0,
-                srcPixelFormat,
-                SGL.GL_UNSIGNED_BYTE,
-                textureBuffer);
+        texture.setUploadFence(texImage2D(target, texture.getTextureWidth(), texture.getTextureHeight(),
+                dstPixelFormat, srcPixelFormat, SGL.GL_UNSIGNED_BYTE, textureBuffer, mipMaps));
+
+        return textureID;
+    }
+
+    /**
+     * Reload a given texture blob converted to a packed 16 bit format
+     *
+     * @param texture The texture being reloaded
+     * @param packedFormat The packed internal format of the data
+     * @param minFilter The minification filter
+     * @param magFilter The magnification filter
+     * @param levels The packed levels with the top level at index 0
+     * @return The ID of the newly created texture
+     */
+    int reloadPacked(TextureImpl texture, int packedFormat, int minFilter, int magFilter, ByteBuffer[] levels) {
+        int target = SGL.GL_TEXTURE_2D;
+        int textureID = createTextureID();
+        GL.glBindTexture(target, textureID);
+
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+
+        texture.setUploadFence(texImage2D(target, texture.getTextureWidth(), texture.getTextureHeight(),
+                packedFormat, PixelPacker.getPixelFormat(packedFormat), PixelPacker.getPixelType(packedFormat),
+                levels[0], levels.length > 1 ? levels : null));
 
         return textureID;
     }
+
+    /**
+     * Reload a given compressed texture blob
+     *
+     * @param texture The texture being reloaded
+     * @param internalFormat The compressed internal format of the data
+     * @param minFilter The minification filter
+     * @param magFilter The magnification filter
+     * @param levels The compressed levels with the top level at index 0
+     * @return The ID of the newly created texture
+     */
+    int reloadCompressed(TextureImpl texture, int internalFormat, int minFilter, int magFilter, ByteBuffer[] levels) {
+        int target = SGL.GL_TEXTURE_2D;
+        int textureID = createTextureID();
+        GL.glBindTexture(target, textureID);
+
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, minFilter);
+        GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, magFilter);
+
+        compressedTexImage2D(target, texture.getTextureWidth(), texture.getTextureHeight(), internalFormat, levels);
+
+        return textureID;
+    }
+
+    /**
+     * A texture being decoded again from it's source on a worker thread
+     */
+    private class SourceReload implements Callable {
+
+        /**
+         * The texture being reloaded
+         */
+        private final TextureImpl texture;
+        /**
+         * The key describing the original load
+         */
+        private final TextureKey key;
+        /**
+         * The decoded image data, set once the decode completes
+         */
+        private DecodedImageData decoded;
+
+        /**
+         * Create a new reload
+         *
+         * @param texture The texture being reloaded
+         * @param key The key describing the original load
+         */
+        SourceReload(TextureImpl texture, TextureKey key) {
+            this.texture = texture;
+            this.key = key;
+        }
+
+        @Override
+        public Object call() throws IOException {
+            InputStream in = openSource(key.getResourceName());
+            try {
+                decoded = decode(in, key);
+            } finally {
+                in.close();
+            }
+
+            return this;
+        }
+    }
 }
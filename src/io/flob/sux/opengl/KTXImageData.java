@@ -0,0 +1,232 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.SGL;
+import io.flob.sux.util.Log;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * A loader for Khronos texture (KTX 1.1) files holding compressed images. The
+ * compressed data is kept as is and handed to OpenGL with the internal format
+ * recorded in the file, along with any mip map levels it holds. Note: NOT
+ * THREAD SAFE
+ *
+ * @author agent
+ */
+public class KTXImageData implements CompressedImageData {
+
+    /**
+     * The identifier at the start of every KTX file
+     */
+    private static final byte[] IDENTIFIER = {
+        (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    /**
+     * The size of the KTX header including the identifier
+     */
+    private static final int HEADER_SIZE = 64;
+    /**
+     * The endianness marker as read when the file matches the reader
+     */
+    private static final int ENDIANNESS = 0x04030201;
+    /**
+     * The key of the meta data describing the orientation of the image
+     */
+    private static final String ORIENTATION_KEY = "KTXorientation";
+
+    /**
+     * The width of the image
+     */
+    private int width;
+    /**
+     * The height of the image
+     */
+    private int height;
+    /**
+     * The bit depth of the image
+     */
+    private int depth;
+    /**
+     * The compressed internal format of the image
+     */
+    private int internalFormat;
+    /**
+     * The compressed mip map levels read from the file
+     */
+    private ByteBuffer[] mipMaps;
+
+    /**
+     * Create a new KTX loader
+     */
+    public KTXImageData() {
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTexWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTexHeight() {
+        return height;
+    }
+
+    @Override
+    public ByteBuffer getImageBufferData() {
+        return mipMaps == null ? null : mipMaps[0];
+    }
+
+    @Override
+    public int getInternalFormat() {
+        return internalFormat;
+    }
+
+    @Override
+    public ByteBuffer[] getMipMaps() {
+        return mipMaps;
+    }
+
+    @Override
+    public void configureEdging(boolean edging) {
+    }
+
+    @Override
+    public void configurePowerOfTwo(boolean powerOfTwo) {
+    }
+
+    @Override
+    public ByteBuffer loadImage(InputStream fis) throws IOException {
+        return loadImage(fis, false, null);
+    }
+
+    @Override
+    public ByteBuffer loadImage(InputStream fis, boolean flipped, int[] transparent) throws IOException {
+        return loadImage(fis, flipped, false, transparent);
+    }
+
+    @Override
+    public ByteBuffer loadImage(InputStream fis, boolean flipped, boolean forceAlpha, int[] transparent) throws IOException {
+        if (transparent != null) {
+            Log.warn("Transparent colours are not supported for compressed KTX images");
+        }
+
+        DataInputStream dis = new DataInputStream(fis);
+        byte[] headerData = new byte[HEADER_SIZE];
+        dis.readFully(headerData);
+        for (int i = 0; i < IDENTIFIER.length; i++) {
+            if (headerData[i] != IDENTIFIER[i]) {
+                throw new IOException("Not a KTX file");
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(headerData).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(12) != ENDIANNESS) {
+            header.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        int glType = header.getInt(16);
+        internalFormat = header.getInt(28);
+        int baseInternalFormat = header.getInt(32);
+        width = header.getInt(36);
+        height = header.getInt(40);
+        int pixelDepth = header.getInt(44);
+        int arrayElements = header.getInt(48);
+        int faces = header.getInt(52);
+        int levels = Math.max(1, header.getInt(56));
+        int keyValueBytes = header.getInt(60);
+
+        if (glType != 0) {
+            throw new IOException("SUX only supports compressed KTX images");
+        }
+        if ((height == 0) || (pixelDepth != 0) || (arrayElements != 0) || (faces != 1)) {
+            throw new IOException("SUX only supports 2D KTX images");
+        }
+        depth = baseInternalFormat == SGL.GL_RGBA ? 32 : 24;
+
+        byte[] keyValueData = new byte[keyValueBytes];
+        dis.readFully(keyValueData);
+        if (isBottomUp(ByteBuffer.wrap(keyValueData).order(header.order()))) {
+            flipped = !flipped;
+        }
+        if (flipped && !DDSImageData.isS3TC(internalFormat)) {
+            Log.warn("Only DXT compressed KTX images can be flipped, loading unflipped");
+            flipped = false;
+        }
+
+        levels = Math.min(levels, MipMapGenerator.getLevelCount(width, height));
+        mipMaps = new ByteBuffer[levels];
+        int levelWidth = width;
+        int levelHeight = height;
+        byte[] sizeData = new byte[4];
+        for (int level = 0; level < levels; level++) {
+            dis.readFully(sizeData);
+            int imageSize = ByteBuffer.wrap(sizeData).order(header.order()).getInt();
+            byte[] data = new byte[imageSize];
+            dis.readFully(data);
+            dis.skipBytes(3 - ((imageSize + 3) % 4));
+            if (flipped) {
+                DDSImageData.flipBlocks(data, levelWidth, levelHeight, internalFormat);
+            }
+
+            mipMaps[level] = BufferPool.get().allocate(data.length);
+            mipMaps[level].put(data);
+            mipMaps[level].flip();
+
+            levelWidth = Math.max(1, levelWidth / 2);
+            levelHeight = Math.max(1, levelHeight / 2);
+        }
+
+        return mipMaps[0];
+    }
+
+    /**
+     * Check the key/value meta data to see if the image is stored bottom row
+     * first. Images with no orientation are assumed to be top row first, like
+     * the rest of the loaders produce.
+     *
+     * @param keyValueData The key/value meta data from the file
+     * @return True if the orientation records the rows going up
+     */
+    private boolean isBottomUp(ByteBuffer keyValueData) {
+        Charset utf8 = Charset.forName("UTF-8");
+        while (keyValueData.remaining() >= 4) {
+            int size = keyValueData.getInt();
+            if ((size < 0) || (size > keyValueData.remaining())) {
+                break;
+            }
+
+            byte[] entry = new byte[size];
+            keyValueData.get(entry);
+            keyValueData.position(Math.min(keyValueData.limit(), keyValueData.position() + (3 - ((size + 3) % 4))));
+
+            int end = 0;
+            while ((end < size) && (entry[end] != 0)) {
+                end++;
+            }
+            if (ORIENTATION_KEY.equals(new String(entry, 0, end, utf8)) && (end < size)) {
+                return new String(entry, end + 1, size - end - 1, utf8).contains("T=u");
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,213 @@
+package io.flob.sux.opengl;
+
+import java.io.IOException;
+
+/**
+ * A fast LZ77 style compressor in the manner of LZ4, used to keep held texture
+ * data compact. It trades compression ratio for speed, which suits texture
+ * data where padding, flat colour and repeated pixels compress well with a
+ * simple match finder.
+ *
+ * The compressed data is a series of sequences. Each starts with a token
+ * whose high nibble is the number of literal bytes and low nibble the length
+ * of the match less four, either of which is extended by following bytes when
+ * 15. The literals come next, then the match's two byte offset. The last
+ * sequence holds only literals.
+ *
+ * @author agent
+ */
+final class LZCodec {
+
+    /**
+     * The shortest match encoded
+     */
+    private static final int MIN_MATCH = 4;
+    /**
+     * The number of bits in the hash of four bytes used to find matches
+     */
+    private static final int HASH_BITS = 14;
+    /**
+     * The furthest back a match can be
+     */
+    private static final int MAX_OFFSET = 65535;
+    /**
+     * The number of failed match attempts before the search starts skipping
+     * ahead through incompressible data, as a power of two
+     */
+    private static final int SKIP_SHIFT = 6;
+
+    /**
+     * Utility class
+     */
+    private LZCodec() {
+    }
+
+    /**
+     * Get the largest size data can grow to when compressed
+     *
+     * @param length The number of bytes to be compressed
+     * @return The largest number of bytes the compressed data may need
+     */
+    static int getMaxCompressedLength(int length) {
+        return length + (length / 255) + 16;
+    }
+
+    /**
+     * Compress data
+     *
+     * @param src The data to compress
+     * @param length The number of bytes to compress
+     * @param dst The buffer to write the compressed data to, at least
+     * getMaxCompressedLength() long
+     * @return The number of bytes of compressed data
+     */
+    static int compress(byte[] src, int length, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        int anchor = 0;
+        int s = 0;
+        int d = 0;
+        int limit = length - MIN_MATCH;
+
+        while (s <= limit) {
+            int sequence = readInt(src, s);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int candidate = table[hash] - 1;
+            table[hash] = s + 1;
+
+            if ((candidate < 0) || (s - candidate > MAX_OFFSET) || (readInt(src, candidate) != sequence)) {
+                s += 1 + ((s - anchor) >> SKIP_SHIFT);
+                continue;
+            }
+
+            int match = MIN_MATCH;
+            while ((s + match < length) && (src[candidate + match] == src[s + match])) {
+                match++;
+            }
+
+            int literals = s - anchor;
+            int matchCode = match - MIN_MATCH;
+            dst[d++] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+            d = writeLength(dst, d, literals);
+            System.arraycopy(src, anchor, dst, d, literals);
+            d += literals;
+
+            int offset = s - candidate;
+            dst[d++] = (byte) offset;
+            dst[d++] = (byte) (offset >> 8);
+            d = writeLength(dst, d, matchCode);
+
+            s += match;
+            anchor = s;
+        }
+
+        int literals = length - anchor;
+        dst[d++] = (byte) (Math.min(literals, 15) << 4);
+        d = writeLength(dst, d, literals);
+        System.arraycopy(src, anchor, dst, d, literals);
+        d += literals;
+
+        return d;
+    }
+
+    /**
+     * Decompress data
+     *
+     * @param src The compressed data
+     * @param length The number of bytes of compressed data
+     * @param dst The buffer to write the decompressed data to
+     * @param dstLength The number of bytes the data decompresses to
+     * @throws IOException Indicates the compressed data is corrupt
+     */
+    static void decompress(byte[] src, int length, byte[] dst, int dstLength) throws IOException {
+        int s = 0;
+        int d = 0;
+
+        try {
+            while (s < length) {
+                int token = src[s++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, s, dst, d, literals);
+                s += literals;
+                d += literals;
+
+                if (s >= length) {
+                    break;
+                }
+
+                int offset = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8);
+                s += 2;
+                if ((offset == 0) || (offset > d)) {
+                    throw new IOException("Corrupt compressed data, match offset " + offset + " at " + d);
+                }
+                int match = token & 0xF;
+                if (match == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        match += b;
+                    } while (b == 255);
+                }
+                match += MIN_MATCH;
+
+                // a match that overlaps the bytes it produces is a run, copied
+                // in chunks that double as more of it is written
+                int m = d - offset;
+                for (int copied = 0; copied < match;) {
+                    int chunk = Math.min(offset + copied, match - copied);
+                    System.arraycopy(dst, m, dst, d + copied, chunk);
+                    copied += chunk;
+                }
+                d += match;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt compressed data", e);
+        }
+
+        if (d != dstLength) {
+            throw new IOException("Corrupt compressed data, " + d + " bytes decompressed, expected " + dstLength);
+        }
+    }
+
+    /**
+     * Write the extension bytes of a length that didn't fit in it's token
+     *
+     * @param dst The buffer to write to
+     * @param d The position to write at
+     * @param length The length being written
+     * @return The position after the extension bytes
+     */
+    private static int writeLength(byte[] dst, int d, int length) {
+        if (length < 15) {
+            return d;
+        }
+
+        length -= 15;
+        while (length >= 255) {
+            dst[d++] = (byte) 255;
+            length -= 255;
+        }
+        dst[d++] = (byte) length;
+
+        return d;
+    }
+
+    /**
+     * Read four bytes as an int
+     *
+     * @param data The data to read from
+     * @param ofs The offset to read at
+     * @return The bytes as an int
+     */
+    private static int readInt(byte[] data, int ofs) {
+        return (data[ofs] & 0xFF) | ((data[ofs + 1] & 0xFF) << 8) | ((data[ofs + 2] & 0xFF) << 16)
+                | (data[ofs + 3] << 24);
+    }
+}
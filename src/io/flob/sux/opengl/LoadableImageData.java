@@ -19,6 +19,17 @@ public interface LoadableImageData extends ImageData {
      */
     public void configureEdging(boolean edging);
 
+    /**
+     * Configure whether the texture produced should be padded out to power of
+     * two dimensions. Hardware that supports non power of two textures can use
+     * the image at its real size, saving memory and bandwidth. Image data that
+     * doesn't support this always pads to power of two dimensions.
+     *
+     * @param powerOfTwo True if the texture should have power of two dimensions
+     */
+    public default void configurePowerOfTwo(boolean powerOfTwo) {
+    }
+
     /**
      * Load a image from the specified stream
      *
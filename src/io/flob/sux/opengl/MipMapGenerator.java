@@ -0,0 +1,179 @@
+package io.flob.sux.opengl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds the chain of mip map levels for a texture on the CPU. Each level is
+ * produced from the one above with a 2x2 box filter, splitting the rows of the
+ * level across the common fork-join pool so large textures are reduced in
+ * parallel.
+ *
+ * @author agent
+ */
+final class MipMapGenerator {
+
+    /**
+     * The number of rows below which a level is reduced on a single thread
+     */
+    private static final int ROWS_PER_TASK = 32;
+
+    /**
+     * A static utility, no construction
+     */
+    private MipMapGenerator() {
+    }
+
+    /**
+     * Get the number of levels in a complete mip map chain
+     *
+     * @param width The width of the top level
+     * @param height The height of the top level
+     * @return The number of levels down to and including 1x1
+     */
+    static int getLevelCount(int width, int height) {
+        int levels = 1;
+        while ((width > 1) || (height > 1)) {
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            levels++;
+        }
+
+        return levels;
+    }
+
+    /**
+     * Generate the complete mip map chain for a texture
+     *
+     * @param top The pixel data of the top level, it's position is left
+     * unchanged
+     * @param width The width of the top level
+     * @param height The height of the top level
+     * @param perPixel The number of bytes per pixel (3 or 4)
+     * @return The levels of the chain, with the top level at index 0
+     */
+    static ByteBuffer[] generate(ByteBuffer top, int width, int height, int perPixel) {
+        ByteBuffer[] levels = new ByteBuffer[getLevelCount(width, height)];
+        levels[0] = top;
+
+        byte[] src = new byte[width * height * perPixel];
+        top.duplicate().get(src);
+
+        for (int level = 1; level < levels.length; level++) {
+            int dstWidth = Math.max(1, width / 2);
+            int dstHeight = Math.max(1, height / 2);
+            byte[] dst = new byte[dstWidth * dstHeight * perPixel];
+
+            ForkJoinPool.commonPool().invoke(new Reduce(src, width, height, dst, dstWidth, perPixel, 0, dstHeight));
+
+            levels[level] = BufferPool.get().allocate(dst.length);
+            levels[level].put(dst);
+            levels[level].flip();
+
+            src = dst;
+            width = dstWidth;
+            height = dstHeight;
+        }
+
+        return levels;
+    }
+
+    /**
+     * The task reducing a range of rows of one level into the next
+     */
+    private static class Reduce extends RecursiveAction {
+
+        /**
+         * The version ID for this class
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The pixels of the source level
+         */
+        private final byte[] src;
+        /**
+         * The width of the source level
+         */
+        private final int srcWidth;
+        /**
+         * The height of the source level
+         */
+        private final int srcHeight;
+        /**
+         * The pixels of the destination level
+         */
+        private final byte[] dst;
+        /**
+         * The width of the destination level
+         */
+        private final int dstWidth;
+        /**
+         * The number of bytes per pixel
+         */
+        private final int perPixel;
+        /**
+         * The first destination row to produce
+         */
+        private final int from;
+        /**
+         * The destination row to stop before
+         */
+        private final int to;
+
+        /**
+         * Create a new reduction task
+         *
+         * @param src The pixels of the source level
+         * @param srcWidth The width of the source level
+         * @param srcHeight The height of the source level
+         * @param dst The pixels of the destination level
+         * @param dstWidth The width of the destination level
+         * @param perPixel The number of bytes per pixel
+         * @param from The first destination row to produce
+         * @param to The destination row to stop before
+         */
+        Reduce(byte[] src, int srcWidth, int srcHeight, byte[] dst, int dstWidth, int perPixel, int from, int to) {
+            this.src = src;
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            this.dst = dst;
+            this.dstWidth = dstWidth;
+            this.perPixel = perPixel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ROWS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Reduce(src, srcWidth, srcHeight, dst, dstWidth, perPixel, from, middle),
+                        new Reduce(src, srcWidth, srcHeight, dst, dstWidth, perPixel, middle, to));
+                return;
+            }
+
+            int srcStride = srcWidth * perPixel;
+            for (int y = from; y < to; y++) {
+                // odd sized levels clamp to the last row and column
+                int row0 = Math.min(y * 2, srcHeight - 1) * srcStride;
+                int row1 = Math.min((y * 2) + 1, srcHeight - 1) * srcStride;
+                int out = y * dstWidth * perPixel;
+
+                for (int x = 0; x < dstWidth; x++) {
+                    int col0 = Math.min(x * 2, srcWidth - 1) * perPixel;
+                    int col1 = Math.min((x * 2) + 1, srcWidth - 1) * perPixel;
+
+                    for (int c = 0; c < perPixel; c++) {
+                        int sum = (src[row0 + col0 + c] & 0xFF)
+                                + (src[row0 + col1 + c] & 0xFF)
+                                + (src[row1 + col0 + c] & 0xFF)
+                                + (src[row1 + col1 + c] & 0xFF);
+                        dst[out++] = (byte) ((sum + 2) >> 2);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -97,6 +97,8 @@ public class PNGDecoder {
     private int bitdepth;
     private int colorType;
     private int bytesPerPixel;
+    private int bitsPerPixel;
+    private boolean interlaced;
     private byte[] palette;
     private byte[] paletteA;
     private byte[] transPixel;
@@ -146,6 +148,7 @@ public class PNGDecoder {
 
     public boolean hasAlpha() {
         return colorType == COLOR_TRUEALPHA
+                || colorType == COLOR_GREYALPHA
                 || paletteA != null || transPixel != null;
     }
 
@@ -177,12 +180,22 @@ public class PNGDecoder {
 
                 return RGBA;
             case COLOR_GREYSCALE:
+                if ((fmt == ABGR) || (fmt == RGBA) || (fmt == BGRA) || (fmt == RGB)) {
+                    return fmt;
+                }
+                if (transPixel != null) {
+                    return LUMINANCE_ALPHA;
+                }
                 if ((fmt == LUMINANCE) || (fmt == ALPHA)) {
                     return fmt;
                 }
 
                 return LUMINANCE;
             case COLOR_GREYALPHA:
+                if ((fmt == ABGR) || (fmt == RGBA) || (fmt == BGRA) || (fmt == RGB)) {
+                    return fmt;
+                }
+
                 return LUMINANCE_ALPHA;
             case COLOR_INDEXED:
                 if ((fmt == ABGR) || (fmt == RGBA) || (fmt == BGRA)) {
@@ -197,100 +210,228 @@ public class PNGDecoder {
 
     public void decode(ByteBuffer buffer, int stride, Format fmt) throws IOException {
         final int offset = buffer.position();
-        final int lineSize = ((width * bitdepth + 7) / 8) * bytesPerPixel;
-        byte[] curLine = new byte[lineSize + 1];
-        byte[] prevLine = new byte[lineSize + 1];
-        byte[] palLine = (bitdepth < 8) ? new byte[width + 1] : null;
 
         final Inflater inflater = new Inflater();
         try {
-            for (int y = 0; y < height; y++) {
-                readChunkUnzip(inflater, curLine, 0, curLine.length);
-                unfilter(curLine, prevLine);
-
-                buffer.position(offset + y * stride);
-
-                switch (colorType) {
-                    case COLOR_TRUECOLOR:
-                        if (fmt == ABGR) {
-                            copyRGBtoABGR(buffer, curLine);
-                        } else if (fmt == RGBA) {
-                            copyRGBtoRGBA(buffer, curLine);
-                        } else if (fmt == BGRA) {
-                            copyRGBtoBGRA(buffer, curLine);
-                        } else if (fmt == RGB) {
-                            copy(buffer, curLine);
-                        } else {
-                            throw new UnsupportedOperationException("Unsupported format for this image");
-                        }
-                        break;
-                    case COLOR_TRUEALPHA:
-                        if (fmt == ABGR) {
-                            copyRGBAtoABGR(buffer, curLine);
-                        } else if (fmt == RGBA) {
-                            copy(buffer, curLine);
-                        } else if (fmt == BGRA) {
-                            copyRGBAtoBGRA(buffer, curLine);
-                            break;
-                        } else if (fmt == RGB) {
-                            copyRGBAtoRGB(buffer, curLine);
-                            break;
-                        } else {
-                            throw new UnsupportedOperationException("Unsupported format for this image");
-                        }
+            if (interlaced) {
+                // the seven passes of Adam7
+                decodePass(inflater, buffer, offset, stride, fmt, 0, 0, 8, 8);
+                decodePass(inflater, buffer, offset, stride, fmt, 4, 0, 8, 8);
+                decodePass(inflater, buffer, offset, stride, fmt, 0, 4, 4, 8);
+                decodePass(inflater, buffer, offset, stride, fmt, 2, 0, 4, 4);
+                decodePass(inflater, buffer, offset, stride, fmt, 0, 2, 2, 4);
+                decodePass(inflater, buffer, offset, stride, fmt, 1, 0, 2, 2);
+                decodePass(inflater, buffer, offset, stride, fmt, 0, 1, 1, 2);
+            } else {
+                decodePass(inflater, buffer, offset, stride, fmt, 0, 0, 1, 1);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private void decodePass(Inflater inflater, ByteBuffer buffer, int offset, int stride, Format fmt,
+            int xStart, int yStart, int xStep, int yStep) throws IOException {
+        final int passWidth = (width - xStart + xStep - 1) / xStep;
+        final int passHeight = (height - yStart + yStep - 1) / yStep;
+        if ((passWidth == 0) || (passHeight == 0)) {
+            return;
+        }
+
+        final int lineSize = (passWidth * bitsPerPixel + 7) / 8;
+        byte[] curLine = new byte[lineSize + 1];
+        byte[] prevLine = new byte[lineSize + 1];
+        byte[] palLine = (bitdepth < 8) && (colorType == COLOR_INDEXED) ? new byte[passWidth + 1] : null;
+        byte[] normLine = needsNormalizing() ? new byte[passWidth * getNormalizedComponents() + 1] : null;
+
+        // pixels of an interlaced pass are spread across the row
+        final int pixelSize = fmt.numComponents;
+        byte[] pixels = (xStep > 1) ? new byte[passWidth * pixelSize] : null;
+        ByteBuffer pixelBuffer = (pixels != null) ? ByteBuffer.wrap(pixels) : null;
+
+        for (int y = 0; y < passHeight; y++) {
+            readChunkUnzip(inflater, curLine, 0, curLine.length);
+            unfilter(curLine, prevLine);
+
+            int rowOffset = offset + (yStart + y * yStep) * stride;
+            if (pixels == null) {
+                buffer.position(rowOffset);
+                copyLine(buffer, curLine, palLine, normLine, passWidth, fmt);
+            } else {
+                pixelBuffer.clear();
+                copyLine(pixelBuffer, curLine, palLine, normLine, passWidth, fmt);
+                for (int x = 0; x < passWidth; x++) {
+                    buffer.position(rowOffset + (xStart + x * xStep) * pixelSize);
+                    buffer.put(pixels, x * pixelSize, pixelSize);
+                }
+            }
+
+            byte[] tmp = curLine;
+            curLine = prevLine;
+            prevLine = tmp;
+        }
+    }
+
+    private void copyLine(ByteBuffer buffer, byte[] curLine, byte[] palLine, byte[] normLine,
+            int lineWidth, Format fmt) {
+        int lineType = colorType;
+        if (normLine != null) {
+            lineType = normalize(curLine, normLine, lineWidth);
+            curLine = normLine;
+        }
+
+        switch (lineType) {
+            case COLOR_TRUECOLOR:
+                if (fmt == ABGR) {
+                    copyRGBtoABGR(buffer, curLine);
+                } else if (fmt == RGBA) {
+                    copyRGBtoRGBA(buffer, curLine);
+                } else if (fmt == BGRA) {
+                    copyRGBtoBGRA(buffer, curLine);
+                } else if (fmt == RGB) {
+                    copy(buffer, curLine);
+                } else {
+                    throw new UnsupportedOperationException("Unsupported format for this image");
+                }
+                break;
+            case COLOR_TRUEALPHA:
+                if (fmt == ABGR) {
+                    copyRGBAtoABGR(buffer, curLine);
+                } else if (fmt == RGBA) {
+                    copy(buffer, curLine);
+                } else if (fmt == BGRA) {
+                    copyRGBAtoBGRA(buffer, curLine);
+                } else if (fmt == RGB) {
+                    copyRGBAtoRGB(buffer, curLine);
+                } else {
+                    throw new UnsupportedOperationException("Unsupported format for this image");
+                }
+                break;
+            case COLOR_GREYSCALE:
+                if ((fmt == LUMINANCE) || (fmt == ALPHA)) {
+                    copy(buffer, curLine);
+                } else if (fmt == ABGR) {
+                    copyGREYtoABGR(buffer, curLine);
+                } else if ((fmt == RGBA) || (fmt == BGRA)) {
+                    copyGREYtoRGBA(buffer, curLine);
+                } else if (fmt == RGB) {
+                    copyGREYtoRGB(buffer, curLine);
+                } else {
+                    throw new UnsupportedOperationException("Unsupported format for this image");
+                }
+                break;
+            case COLOR_GREYALPHA:
+                if (fmt == LUMINANCE_ALPHA) {
+                    copy(buffer, curLine);
+                } else if (fmt == ABGR) {
+                    copyGREYALPHAtoABGR(buffer, curLine);
+                } else if ((fmt == RGBA) || (fmt == BGRA)) {
+                    copyGREYALPHAtoRGBA(buffer, curLine);
+                } else if (fmt == RGB) {
+                    copyGREYALPHAtoRGB(buffer, curLine);
+                } else {
+                    throw new UnsupportedOperationException("Unsupported format for this image");
+                }
+                break;
+            case COLOR_INDEXED:
+                switch (bitdepth) {
+                    case 8:
+                        palLine = curLine;
                         break;
-                    case COLOR_GREYSCALE:
-                        if ((fmt == LUMINANCE) || (fmt == ALPHA)) {
-                            copy(buffer, curLine);
-                        } else {
-                            throw new UnsupportedOperationException("Unsupported format for this image");
-                        }
+                    case 4:
+                        expand4(curLine, palLine);
                         break;
-                    case COLOR_GREYALPHA:
-                        if (fmt == LUMINANCE_ALPHA) {
-                            copy(buffer, curLine);
-                        } else {
-                            throw new UnsupportedOperationException("Unsupported format for this image");
-                        }
+                    case 2:
+                        expand2(curLine, palLine);
                         break;
-                    case COLOR_INDEXED:
-                        switch (bitdepth) {
-                            case 8:
-                                palLine = curLine;
-                                break;
-                            case 4:
-                                expand4(curLine, palLine);
-                                break;
-                            case 2:
-                                expand2(curLine, palLine);
-                                break;
-                            case 1:
-                                expand1(curLine, palLine);
-                                break;
-                            default:
-                                throw new UnsupportedOperationException("Unsupported bitdepth for this image");
-                        }
-                        if (fmt == ABGR) {
-                            copyPALtoABGR(buffer, palLine);
-                        } else if (fmt == RGBA) {
-                            copyPALtoRGBA(buffer, palLine);
-                        } else if (fmt == BGRA) {
-                            copyPALtoBGRA(buffer, palLine);
-                        } else {
-                            throw new UnsupportedOperationException("Unsupported format for this image");
-                        }
+                    case 1:
+                        expand1(curLine, palLine);
                         break;
                     default:
-                        throw new UnsupportedOperationException("Not yet implemented");
+                        throw new UnsupportedOperationException("Unsupported bitdepth for this image");
                 }
+                if (fmt == ABGR) {
+                    copyPALtoABGR(buffer, palLine);
+                } else if (fmt == RGBA) {
+                    copyPALtoRGBA(buffer, palLine);
+                } else if (fmt == BGRA) {
+                    copyPALtoBGRA(buffer, palLine);
+                } else if (fmt == RGB) {
+                    copyPALtoRGB(buffer, palLine);
+                } else {
+                    throw new UnsupportedOperationException("Unsupported format for this image");
+                }
+                break;
+            default:
+                throw new UnsupportedOperationException("Not yet implemented");
+        }
+    }
+
+    /**
+     * Lines need converting to 8 bits per channel before they can be copied
+     * when they are 16 bit or sub-byte greyscale. Greyscale images with a tRNS
+     * colour key and keyed 16 bit truecolor images gain an alpha channel at the
+     * same time.
+     */
+    private boolean needsNormalizing() {
+        return (bitdepth == 16)
+                || ((colorType == COLOR_GREYSCALE) && ((bitdepth < 8) || (transPixel != null)));
+    }
+
+    private int getChannels() {
+        switch (colorType) {
+            case COLOR_GREYALPHA:
+                return 2;
+            case COLOR_TRUECOLOR:
+                return 3;
+            case COLOR_TRUEALPHA:
+                return 4;
+            default:
+                return 1;
+        }
+    }
+
+    private int getNormalizedComponents() {
+        return getChannels() + ((transPixel != null) ? 1 : 0);
+    }
+
+    private int normalize(byte[] src, byte[] dst, int lineWidth) {
+        final int channels = getChannels();
+        final boolean keyed = transPixel != null;
+        int d = 1;
 
-                byte[] tmp = curLine;
-                curLine = prevLine;
-                prevLine = tmp;
+        if (bitdepth == 16) {
+            // keep the most significant byte, the key is matched on all 16 bits
+            for (int x = 0, s = 1; x < lineWidth; x++) {
+                boolean transparent = keyed;
+                for (int c = 0; c < channels; c++, s += 2) {
+                    dst[d++] = src[s];
+                    if (keyed && ((src[s] != transPixel[c * 2]) || (src[s + 1] != transPixel[c * 2 + 1]))) {
+                        transparent = false;
+                    }
+                }
+                if (keyed) {
+                    dst[d++] = transparent ? 0 : (byte) 0xFF;
+                }
             }
-        } finally {
-            inflater.end();
+        } else {
+            // greyscale, scaling sub-byte values up to the full range
+            final int max = (1 << bitdepth) - 1;
+            final int key = keyed ? (((transPixel[0] & 255) << 8) | (transPixel[1] & 255)) : -1;
+            for (int x = 0; x < lineWidth; x++) {
+                int bit = x * bitdepth;
+                int value = ((src[1 + (bit >> 3)] & 255) >> (8 - bitdepth - (bit & 7))) & max;
+                dst[d++] = (byte) ((value * 255) / max);
+                if (keyed) {
+                    dst[d++] = (value == key) ? 0 : (byte) 0xFF;
+                }
+            }
+        }
+
+        if (keyed) {
+            return (colorType == COLOR_GREYSCALE) ? COLOR_GREYALPHA : COLOR_TRUEALPHA;
         }
+        return colorType;
     }
 
     private void copy(ByteBuffer buffer, byte[] curLine) {
@@ -447,6 +588,55 @@ public class PNGDecoder {
         }
     }
 
+    private void copyPALtoRGB(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 1) {
+            int idx = curLine[i] & 255;
+            buffer.put(palette, idx * 3, 3);
+        }
+    }
+
+    private void copyGREYtoRGB(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 1) {
+            byte g = curLine[i];
+            buffer.put(g).put(g).put(g);
+        }
+    }
+
+    private void copyGREYtoRGBA(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 1) {
+            byte g = curLine[i];
+            buffer.put(g).put(g).put(g).put((byte) 0xFF);
+        }
+    }
+
+    private void copyGREYtoABGR(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 1) {
+            byte g = curLine[i];
+            buffer.put((byte) 0xFF).put(g).put(g).put(g);
+        }
+    }
+
+    private void copyGREYALPHAtoRGB(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 2) {
+            byte g = curLine[i];
+            buffer.put(g).put(g).put(g);
+        }
+    }
+
+    private void copyGREYALPHAtoRGBA(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 2) {
+            byte g = curLine[i];
+            buffer.put(g).put(g).put(g).put(curLine[i + 1]);
+        }
+    }
+
+    private void copyGREYALPHAtoABGR(ByteBuffer buffer, byte[] curLine) {
+        for (int i = 1, n = curLine.length; i < n; i += 2) {
+            byte g = curLine[i];
+            buffer.put(curLine[i + 1]).put(g).put(g).put(g);
+        }
+    }
+
     private void expand4(byte[] src, byte[] dst) {
         for (int i = 1, n = dst.length; i < n; i += 2) {
             int val = src[1 + (i >> 1)] & 255;
@@ -587,46 +777,11 @@ public class PNGDecoder {
         bitdepth = buffer[8] & 255;
         colorType = buffer[9] & 255;
 
-        switch (colorType) {
-            case COLOR_GREYSCALE:
-                if (bitdepth != 8) {
-                    throw new IOException("Unsupported bit depth: " + bitdepth);
-                }
-                bytesPerPixel = 1;
-                break;
-            case COLOR_GREYALPHA:
-                if (bitdepth != 8) {
-                    throw new IOException("Unsupported bit depth: " + bitdepth);
-                }
-                bytesPerPixel = 2;
-                break;
-            case COLOR_TRUECOLOR:
-                if (bitdepth != 8) {
-                    throw new IOException("Unsupported bit depth: " + bitdepth);
-                }
-                bytesPerPixel = 3;
-                break;
-            case COLOR_TRUEALPHA:
-                if (bitdepth != 8) {
-                    throw new IOException("Unsupported bit depth: " + bitdepth);
-                }
-                bytesPerPixel = 4;
-                break;
-            case COLOR_INDEXED:
-                switch (bitdepth) {
-                    case 8:
-                    case 4:
-                    case 2:
-                    case 1:
-                        bytesPerPixel = 1;
-                        break;
-                    default:
-                        throw new IOException("Unsupported bit depth: " + bitdepth);
-                }
-                break;
-            default:
-                throw new IOException("Unsupported colour format: " + colorType);
+        if (!isSupportedBitDepth(colorType, bitdepth)) {
+            throw new IOException("Unsupported colour format " + colorType + " with bit depth " + bitdepth);
         }
+        bitsPerPixel = getChannels() * bitdepth;
+        bytesPerPixel = (bitsPerPixel + 7) / 8;
 
         if (buffer[10] != 0) {
             throw new IOException("Unsupported compression method");
@@ -634,9 +789,10 @@ public class PNGDecoder {
         if (buffer[11] != 0) {
             throw new IOException("Unsupported filtering method");
         }
-        if (buffer[12] != 0) {
+        if ((buffer[12] != 0) && (buffer[12] != 1)) {
             throw new IOException("Unsupported interlace method");
         }
+        interlaced = buffer[12] == 1;
     }
 
     private void readPLTE() throws IOException {
@@ -782,6 +938,44 @@ public class PNGDecoder {
         }
     }
 
+    /**
+     * Check if an image can be decoded from the first bytes of it's file,
+     * which must include the IHDR chunk. Every image whose header is valid can
+     * be decoded.
+     *
+     * @param header The first bytes of the file
+     * @param length The number of bytes read
+     * @return True if the image can be decoded
+     */
+    static boolean isSupported(byte[] header, int length) {
+        if ((length < 29) || !checkSignature(header)) {
+            return false;
+        }
+        int chunkType = ((header[12] & 255) << 24) | ((header[13] & 255) << 16)
+                | ((header[14] & 255) << 8) | (header[15] & 255);
+        if (chunkType != IHDR) {
+            return false;
+        }
+
+        return isSupportedBitDepth(header[25] & 255, header[24] & 255)
+                && (header[26] == 0) && (header[27] == 0) && ((header[28] == 0) || (header[28] == 1));
+    }
+
+    private static boolean isSupportedBitDepth(int colorType, int bitdepth) {
+        switch (colorType) {
+            case COLOR_GREYSCALE:
+                return (bitdepth == 16) || (bitdepth == 8) || (bitdepth == 4) || (bitdepth == 2) || (bitdepth == 1);
+            case COLOR_GREYALPHA:
+            case COLOR_TRUECOLOR:
+            case COLOR_TRUEALPHA:
+                return (bitdepth == 8) || (bitdepth == 16);
+            case COLOR_INDEXED:
+                return (bitdepth == 8) || (bitdepth == 4) || (bitdepth == 2) || (bitdepth == 1);
+            default:
+                return false;
+        }
+    }
+
     private static boolean checkSignature(byte[] buffer) {
         for (int i = 0; i < SIGNATURE.length; i++) {
             if (buffer[i] != SIGNATURE[i]) {
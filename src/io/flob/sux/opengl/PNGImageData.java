@@ -3,7 +3,6 @@ package io.flob.sux.opengl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import org.lwjgl.BufferUtils;
 
 /**
  * The PNG image data source that is pure java reading PNGs
@@ -36,6 +35,10 @@ public class PNGImageData implements LoadableImageData {
      * The scratch buffer storing the image data
      */
     private ByteBuffer scratch;
+    /**
+     * True if the texture should have power of two dimensions
+     */
+    private boolean powerOfTwo = true;
 
     @Override
     public int getDepth() {
@@ -71,102 +74,32 @@ public class PNGImageData implements LoadableImageData {
     public ByteBuffer loadImage(InputStream fis, boolean flipped, boolean forceAlpha, int[] transparent) throws IOException {
         if (transparent != null) {
             forceAlpha = true;
-            throw new IOException("Transparent colour not support in custom PNG Decoder");
         }
 
         PNGDecoder decoder = new PNGDecoder(fis);
 
-        if (!decoder.isRGB()) {
-            throw new IOException("Only RGB formatted images are supported by the PNGLoader");
-        }
-
         width = decoder.getWidth();
         height = decoder.getHeight();
-        texWidth = get2Fold(width);
-        texHeight = get2Fold(height);
+        texWidth = powerOfTwo ? get2Fold(width) : width;
+        texHeight = powerOfTwo ? get2Fold(height) : height;
 
-        int perPixel = decoder.hasAlpha() ? 4 : 3;
-        bitDepth = decoder.hasAlpha() ? 32 : 24;
+        // images without alpha are expanded as they're decoded when forced
+        boolean alpha = decoder.hasAlpha() || forceAlpha;
+        int perPixel = alpha ? 4 : 3;
+        bitDepth = alpha ? 32 : 24;
 
         // Get a pointer to the image memory
-        scratch = BufferUtils.createByteBuffer(texWidth * texHeight * perPixel);
+        scratch = BufferPool.get().allocate(texWidth * texHeight * perPixel);
         decoder.decode(scratch, texWidth * perPixel, perPixel == 4 ? PNGDecoder.RGBA : PNGDecoder.RGB);
 
-        if (height < texHeight - 1) {
-            int topOffset = (texHeight - 1) * (texWidth * perPixel);
-            int bottomOffset = (height - 1) * (texWidth * perPixel);
-            for (int x = 0; x < texWidth; x++) {
-                for (int i = 0; i < perPixel; i++) {
-                    scratch.put(topOffset + x + i, scratch.get(x + i));
-                    scratch.put(bottomOffset + (texWidth * perPixel) + x + i, scratch.get(bottomOffset + x + i));
-                }
-            }
-        }
-        if (width < texWidth - 1) {
-            for (int y = 0; y < texHeight; y++) {
-                for (int i = 0; i < perPixel; i++) {
-                    scratch.put(((y + 1) * (texWidth * perPixel)) - perPixel + i, scratch.get(y * (texWidth * perPixel) + i));
-                    scratch.put((y * (texWidth * perPixel)) + (width * perPixel) + i, scratch.get((y * (texWidth * perPixel)) + ((width - 1) * perPixel) + i));
-                }
-            }
-        }
-
-        if (!decoder.hasAlpha() && forceAlpha) {
-            ByteBuffer temp = BufferUtils.createByteBuffer(texWidth * texHeight * 4);
-            for (int x = 0; x < texWidth; x++) {
-                for (int y = 0; y < texHeight; y++) {
-                    int srcOffset = (y * 3) + (x * texHeight * 3);
-                    int dstOffset = (y * 4) + (x * texHeight * 4);
-
-                    temp.put(dstOffset, scratch.get(srcOffset));
-                    temp.put(dstOffset + 1, scratch.get(srcOffset + 1));
-                    temp.put(dstOffset + 2, scratch.get(srcOffset + 2));
-                    if ((x < getHeight()) && (y < getWidth())) {
-                        temp.put(dstOffset + 3, (byte) 255);
-                    } else {
-                        temp.put(dstOffset + 3, (byte) 0);
-                    }
-                }
-            }
-
-            bitDepth = 32;
-            scratch = temp;
-        }
-
-        if (transparent != null) {
-            for (int i = 0; i < texWidth * texHeight * 4; i += 4) {
-                boolean match = true;
-                for (int c = 0; c < 3; c++) {
-                    if (toInt(scratch.get(i + c)) != transparent[c]) {
-                        match = false;
-                    }
-                }
-
-                if (match) {
-                    scratch.put(i + 3, (byte) 0);
-                }
-            }
-        }
+        new PixelProcessor(scratch, width, height, texWidth, texHeight, perPixel, flipped, transparent, true)
+                .processInPlace();
 
         scratch.position(0);
 
         return scratch;
     }
 
-    /**
-     * Safe convert byte to int
-     *
-     * @param b The byte to convert
-     * @return The converted byte
-     */
-    private int toInt(byte b) {
-        if (b < 0) {
-            return 256 + b;
-        }
-
-        return b;
-    }
-
     /**
      * Get the closest greater power of 2 to the fold number
      *
@@ -185,6 +118,11 @@ public class PNGImageData implements LoadableImageData {
     public void configureEdging(boolean edging) {
     }
 
+    @Override
+    public void configurePowerOfTwo(boolean powerOfTwo) {
+        this.powerOfTwo = powerOfTwo;
+    }
+
     @Override
     public int getWidth() {
         return width;
@@ -0,0 +1,183 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.Renderer;
+import io.flob.sux.opengl.renderer.SGL;
+import java.nio.ByteBuffer;
+
+/**
+ * A ring of pixel buffer objects used to upload textures. Pixel data is copied
+ * into a mapped buffer object and the texture is specified from the buffer, so
+ * OpenGL can transfer it to the card while the render thread carries on rather
+ * than copying it before glTexImage2D returns. A fence is placed after each
+ * upload and a buffer is only reused once it's fence has been passed, so the
+ * render thread never waits for a transfer to finish.
+ *
+ * @author agent
+ */
+final class PixelBufferRing {
+
+    /**
+     * The renderer to use for all GL operations
+     */
+    private static final SGL GL = Renderer.get();
+
+    /**
+     * The buffer objects in the ring, 0 until first used
+     */
+    private final int[] buffers;
+    /**
+     * The fences placed after the last upload from each buffer, 0 if none
+     */
+    private final long[] fences;
+    /**
+     * The index of the next buffer to try
+     */
+    private int next;
+    /**
+     * The last mapping of a buffer, reused by the next mapping if possible
+     */
+    private ByteBuffer mapping;
+
+    /**
+     * Create a new ring
+     *
+     * @param size The number of buffer objects in the ring
+     */
+    PixelBufferRing(int size) {
+        buffers = new int[size];
+        fences = new long[size];
+    }
+
+    /**
+     * Specify a texture and it's mip map chain from a buffer in the ring. The
+     * texture must be bound.
+     *
+     * @param target The texture target
+     * @param internalFormat The internal format of the texture
+     * @param width The width of the texture
+     * @param height The height of the texture
+     * @param format The format of the pixel data
+     * @param type The type of the pixel data
+     * @param data The pixel data of the texture
+     * @param mipMaps The mip map chain with the texture's own pixel data at
+     * index 0, or null for none
+     * @return A fence passed once the upload has completed, or 0 if every
+     * buffer in the ring is still being read and the caller should upload the
+     * texture directly
+     */
+    long texImage2D(int target, int internalFormat, int width, int height, int format, int type,
+            ByteBuffer data, ByteBuffer[] mipMaps) {
+        int slot = acquire();
+        if (slot < 0) {
+            return 0;
+        }
+
+        int levels = mipMaps == null ? 1 : mipMaps.length;
+        long size = 0;
+        for (int level = 0; level < levels; level++) {
+            size += getLevel(data, mipMaps, level).limit();
+        }
+
+        GL.glBindBuffer(SGL.GL_PIXEL_UNPACK_BUFFER, buffers[slot]);
+        // orphan the previous storage so the driver need not wait for it
+        GL.glBufferData(SGL.GL_PIXEL_UNPACK_BUFFER, size, SGL.GL_STREAM_DRAW);
+        ByteBuffer mapped = GL.glMapBuffer(SGL.GL_PIXEL_UNPACK_BUFFER, SGL.GL_WRITE_ONLY, size, mapping);
+        if (mapped == null) {
+            GL.glBindBuffer(SGL.GL_PIXEL_UNPACK_BUFFER, 0);
+            return 0;
+        }
+        mapping = mapped;
+
+        long[] offsets = new long[levels];
+        mapped.clear();
+        for (int level = 0; level < levels; level++) {
+            ByteBuffer pixels = getLevel(data, mipMaps, level).duplicate();
+            pixels.position(0);
+            offsets[level] = mapped.position();
+            mapped.put(pixels);
+        }
+
+        if (!GL.glUnmapBuffer(SGL.GL_PIXEL_UNPACK_BUFFER)) {
+            // the buffer's content was lost while mapped
+            GL.glBindBuffer(SGL.GL_PIXEL_UNPACK_BUFFER, 0);
+            return 0;
+        }
+
+        for (int level = 0; level < levels; level++) {
+            GL.glTexImage2D(target, level, internalFormat, width, height, 0, format, type, offsets[level]);
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+        }
+        GL.glBindBuffer(SGL.GL_PIXEL_UNPACK_BUFFER, 0);
+
+        fences[slot] = GL.glFenceSync(SGL.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        return GL.glFenceSync(SGL.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    /**
+     * Delete the buffer objects and fences in the ring. Must be called while
+     * the context they were created in is current.
+     */
+    void release() {
+        for (int i = 0; i < buffers.length; i++) {
+            if (fences[i] != 0) {
+                GL.glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+            if (buffers[i] != 0) {
+                GL.glDeleteBuffers(buffers[i]);
+                buffers[i] = 0;
+            }
+        }
+        mapping = null;
+    }
+
+    /**
+     * Check if a fence has been passed, without waiting for it
+     *
+     * @param fence The fence to check
+     * @return True if every command before the fence has completed
+     */
+    static boolean isSignalled(long fence) {
+        int result = GL.glClientWaitSync(fence, 0, 0);
+        return (result == SGL.GL_ALREADY_SIGNALED) || (result == SGL.GL_CONDITION_SATISFIED);
+    }
+
+    /**
+     * Find a buffer that OpenGL has finished reading from
+     *
+     * @return The index of the buffer or -1 if they're all in use
+     */
+    private int acquire() {
+        for (int i = 0; i < buffers.length; i++) {
+            int slot = (next + i) % buffers.length;
+            if (fences[slot] != 0) {
+                if (!isSignalled(fences[slot])) {
+                    continue;
+                }
+                GL.glDeleteSync(fences[slot]);
+                fences[slot] = 0;
+            }
+
+            if (buffers[slot] == 0) {
+                buffers[slot] = GL.glGenBuffers();
+            }
+            next = (slot + 1) % buffers.length;
+            return slot;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the pixel data of a level of the mip map chain
+     *
+     * @param data The pixel data of the texture
+     * @param mipMaps The mip map chain or null for none
+     * @param level The level to retrieve
+     * @return The pixel data of the level
+     */
+    private static ByteBuffer getLevel(ByteBuffer data, ByteBuffer[] mipMaps, int level) {
+        return level == 0 ? data : mipMaps[level];
+    }
+}
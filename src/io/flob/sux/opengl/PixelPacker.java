@@ -0,0 +1,217 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.SGL;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts decoded RGB(A) pixels to the packed 16 bit formats, RGBA4444,
+ * RGB565 and RGBA5551, halving the texture memory and bandwidth they use. The
+ * banding caused by the reduced precision can be hidden by dithering the
+ * colour channels, with either an ordered 4x4 Bayer pattern or Floyd-Steinberg
+ * error diffusion. Alpha is never dithered, it's rounded to four bits or
+ * thresholded to one so edges stay clean.
+ *
+ * @author agent
+ */
+final class PixelPacker {
+
+    /**
+     * The 4x4 Bayer matrix used for ordered dithering
+     */
+    private static final int[] BAYER = {
+        0, 8, 2, 10,
+        12, 4, 14, 6,
+        3, 11, 1, 9,
+        15, 7, 13, 5
+    };
+
+    /**
+     * The bits of red, green, blue and alpha in the packed format
+     */
+    private final int[] bits;
+    /**
+     * The shift of red, green, blue and alpha in the packed format
+     */
+    private final int[] shifts;
+    /**
+     * The dithering to apply to the colour channels
+     */
+    private final int dithering;
+
+    /**
+     * Create a packer
+     *
+     * @param packedFormat The packed internal format to produce
+     * @param dithering The dithering to apply, one of the
+     * InternalTextureLoader.DITHER_ constants
+     */
+    private PixelPacker(int packedFormat, int dithering) {
+        this.dithering = dithering;
+        if (packedFormat == SGL.GL_RGBA4) {
+            bits = new int[]{4, 4, 4, 4};
+            shifts = new int[]{12, 8, 4, 0};
+        } else if (packedFormat == SGL.GL_RGB5_A1) {
+            bits = new int[]{5, 5, 5, 1};
+            shifts = new int[]{11, 6, 1, 0};
+        } else if (packedFormat == SGL.GL_RGB5) {
+            bits = new int[]{5, 6, 5, 0};
+            shifts = new int[]{11, 5, 0, 0};
+        } else {
+            throw new RuntimeException("Unsupported packed format: " + packedFormat);
+        }
+    }
+
+    /**
+     * Get the packed format an image is actually stored in. Images without
+     * alpha gain nothing from an alpha channel so always use RGB565.
+     *
+     * @param packedFormat The packed format requested
+     * @param alpha True if the image has an alpha channel
+     * @return The packed format to use
+     */
+    static int resolve(int packedFormat, boolean alpha) {
+        return alpha ? packedFormat : SGL.GL_RGB5;
+    }
+
+    /**
+     * Get the pixel format to upload packed data with
+     *
+     * @param packedFormat The packed internal format
+     * @return The GL pixel format
+     */
+    static int getPixelFormat(int packedFormat) {
+        return packedFormat == SGL.GL_RGB5 ? SGL.GL_RGB : SGL.GL_RGBA;
+    }
+
+    /**
+     * Get the pixel type to upload packed data with
+     *
+     * @param packedFormat The packed internal format
+     * @return The GL pixel type
+     */
+    static int getPixelType(int packedFormat) {
+        if (packedFormat == SGL.GL_RGBA4) {
+            return SGL.GL_UNSIGNED_SHORT_4_4_4_4;
+        }
+        if (packedFormat == SGL.GL_RGB5_A1) {
+            return SGL.GL_UNSIGNED_SHORT_5_5_5_1;
+        }
+        return SGL.GL_UNSIGNED_SHORT_5_6_5;
+    }
+
+    /**
+     * Pack decoded image data, and any mip map chain, to a 16 bit format. The
+     * buffers of the decoded data are released to the pool.
+     *
+     * @param data The decoded image data
+     * @param packedFormat The packed internal format, one of SGL.GL_RGBA4,
+     * SGL.GL_RGB5 or SGL.GL_RGB5_A1
+     * @param dithering The dithering to apply, one of the
+     * InternalTextureLoader.DITHER_ constants
+     * @return The packed image data
+     */
+    static DecodedImageData pack(DecodedImageData data, int packedFormat, int dithering) {
+        boolean alpha = data.getDepth() == 32;
+        packedFormat = resolve(packedFormat, alpha);
+        PixelPacker packer = new PixelPacker(packedFormat, dithering);
+        int perPixel = alpha ? 4 : 3;
+
+        ByteBuffer[] mipMaps = data.getMipMaps();
+        ByteBuffer[] levels = mipMaps == null ? new ByteBuffer[]{data.getImageBufferData()} : mipMaps;
+        ByteBuffer[] packed = new ByteBuffer[levels.length];
+        int width = data.getTexWidth();
+        int height = data.getTexHeight();
+        for (int level = 0; level < levels.length; level++) {
+            packed[level] = packer.pack(levels[level], width, height, perPixel);
+            BufferPool.get().release(levels[level]);
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+        }
+
+        return new DecodedImageData(data.getDepth(), data.getWidth(), data.getHeight(), data.getTexWidth(),
+                data.getTexHeight(), packed[0], mipMaps == null ? null : packed, 0, packedFormat);
+    }
+
+    /**
+     * Pack a single level of pixel data
+     *
+     * @param src The RGB(A) pixel data
+     * @param width The width of the level
+     * @param height The height of the level
+     * @param perPixel The number of bytes per pixel in the source
+     * @return A buffer from the pool holding the packed pixels
+     */
+    private ByteBuffer pack(ByteBuffer src, int width, int height, int perPixel) {
+        ByteBuffer dst = BufferPool.get().allocate(width * height * 2);
+        ShortBuffer out = dst.asShortBuffer();
+        byte[] row = new byte[width * perPixel];
+        int[] channel = new int[4];
+        int[] max = new int[4];
+        for (int c = 0; c < 4; c++) {
+            max[c] = (1 << bits[c]) - 1;
+        }
+
+        // error diffusion keeps the error for this row and the next, with a
+        // pixel of slack either side so the edges need no special case
+        int[] errors = null;
+        int[] nextErrors = null;
+        if (dithering == InternalTextureLoader.DITHER_FLOYD_STEINBERG) {
+            errors = new int[3 * (width + 2)];
+            nextErrors = new int[3 * (width + 2)];
+        }
+
+        ByteBuffer in = src.duplicate();
+        in.position(0);
+        for (int y = 0; y < height; y++) {
+            in.get(row);
+
+            for (int x = 0; x < width; x++) {
+                int ofs = x * perPixel;
+                channel[0] = row[ofs] & 0xFF;
+                channel[1] = row[ofs + 1] & 0xFF;
+                channel[2] = row[ofs + 2] & 0xFF;
+                channel[3] = perPixel == 4 ? row[ofs + 3] & 0xFF : 0xFF;
+
+                int pixel = 0;
+                for (int c = 0; c < 3; c++) {
+                    int m = max[c];
+                    int q;
+                    if (errors != null) {
+                        int e = (x + 1) * 3 + c;
+                        int v = Math.max(0, Math.min(255, channel[c] + ((errors[e] + 8) >> 4)));
+                        q = ((v * m) + 127) / 255;
+                        int error = v - (((q * 255) + (m / 2)) / m);
+                        errors[e + 3] += error * 7;
+                        nextErrors[e - 3] += error * 3;
+                        nextErrors[e] += error * 5;
+                        nextErrors[e + 3] += error;
+                    } else if (dithering == InternalTextureLoader.DITHER_ORDERED) {
+                        int threshold = (((BAYER[((y & 3) << 2) | (x & 3)] * 2) + 1) * 255) / 32;
+                        q = ((channel[c] * m) + threshold) / 255;
+                    } else {
+                        q = ((channel[c] * m) + 127) / 255;
+                    }
+                    pixel |= q << shifts[c];
+                }
+                if (bits[3] == 1) {
+                    pixel |= channel[3] >= 128 ? 1 : 0;
+                } else if (bits[3] > 0) {
+                    pixel |= ((channel[3] * max[3]) + 127) / 255;
+                }
+
+                out.put((short) pixel);
+            }
+
+            if (errors != null) {
+                int[] temp = errors;
+                errors = nextErrors;
+                nextErrors = temp;
+                Arrays.fill(nextErrors, 0);
+            }
+        }
+
+        return dst;
+    }
+}
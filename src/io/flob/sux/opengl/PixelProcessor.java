@@ -0,0 +1,317 @@
+package io.flob.sux.opengl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The post processing shared by the loaders once pixels have been decoded to
+ * RGB(A). Rows are written to the texture buffer the right way up, expanded to
+ * RGBA if alpha is required, have the transparent colour keyed out and have
+ * their edge pixels duplicated into the power of two padding.
+ *
+ * RGBA rows are worked on a whole pixel at a time as ints, so the colour key is
+ * a single compare and padding is a single copy per pixel. Rows are moved in
+ * and out of the texture buffer with bulk copies.
+ *
+ * @author agent
+ */
+final class PixelProcessor {
+
+    /**
+     * The mask of the colour channels of an RGBA pixel read as a little endian
+     * int
+     */
+    private static final int RGB_MASK = 0x00FFFFFF;
+    /**
+     * The alpha channel of an RGBA pixel read as a little endian int
+     */
+    private static final int ALPHA_MASK = 0xFF000000;
+
+    /**
+     * The texture buffer being filled
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The texture buffer viewed as RGBA pixels, null for RGB textures
+     */
+    private final IntBuffer pixels;
+    /**
+     * The width of the image
+     */
+    private final int width;
+    /**
+     * The height of the image
+     */
+    private final int height;
+    /**
+     * The width of the texture
+     */
+    private final int texWidth;
+    /**
+     * The height of the texture
+     */
+    private final int texHeight;
+    /**
+     * The number of bytes per pixel in the texture
+     */
+    private final int perPixel;
+    /**
+     * The number of bytes per row in the texture
+     */
+    private final int stride;
+    /**
+     * True if the rows should be flipped
+     */
+    private final boolean flipped;
+    /**
+     * True if the edge pixels should be duplicated into the padding
+     */
+    private final boolean edging;
+    /**
+     * True if a transparent colour should be keyed out
+     */
+    private final boolean keyed;
+    /**
+     * The transparent colour as a little endian RGB int
+     */
+    private final int key;
+    /**
+     * A row of RGBA pixels being processed
+     */
+    private int[] row;
+    /**
+     * A second row of RGBA pixels used while flipping
+     */
+    private int[] other;
+    /**
+     * A row of RGB bytes being processed
+     */
+    private byte[] bytes;
+    /**
+     * A second row of RGB bytes used while flipping
+     */
+    private byte[] otherBytes;
+
+    /**
+     * Create a processor for a texture buffer
+     *
+     * @param buffer The texture buffer of texWidth x texHeight pixels
+     * @param width The width of the image
+     * @param height The height of the image
+     * @param texWidth The width of the texture
+     * @param texHeight The height of the texture
+     * @param perPixel The number of bytes per pixel in the texture, 3 or 4
+     * @param flipped True if the rows should be flipped
+     * @param transparent The colour to key out or null, ignored for RGB
+     * textures
+     * @param edging True if the edge pixels should be duplicated into the
+     * padding
+     */
+    PixelProcessor(ByteBuffer buffer, int width, int height, int texWidth, int texHeight, int perPixel,
+            boolean flipped, int[] transparent, boolean edging) {
+        this.buffer = buffer;
+        this.width = width;
+        this.height = height;
+        this.texWidth = texWidth;
+        this.texHeight = texHeight;
+        this.perPixel = perPixel;
+        this.stride = texWidth * perPixel;
+        this.flipped = flipped;
+        this.edging = edging;
+
+        if (perPixel == 4) {
+            ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            view.position(0);
+            view.limit(stride * texHeight);
+            pixels = view.asIntBuffer();
+            row = new int[texWidth];
+        } else {
+            pixels = null;
+            bytes = new byte[stride];
+        }
+
+        keyed = (transparent != null) && (perPixel == 4);
+        key = keyed ? (transparent[0] & 0xFF) | ((transparent[1] & 0xFF) << 8) | ((transparent[2] & 0xFF) << 16) : 0;
+    }
+
+    /**
+     * Write a decoded row of the image to the texture
+     *
+     * @param y The row of the image counting from the top as decoded
+     * @param src The RGB(A) pixels of the row
+     * @param srcPerPixel The number of bytes per pixel in the source row
+     */
+    void putRow(int y, byte[] src, int srcPerPixel) {
+        int target = flipped ? height - 1 - y : y;
+
+        if (perPixel == 4) {
+            if (srcPerPixel == 4) {
+                ByteBuffer.wrap(src, 0, width * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(row, 0, width);
+            } else {
+                for (int x = 0, s = 0; x < width; x++, s += 3) {
+                    row[x] = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8) | ((src[s + 2] & 0xFF) << 16)
+                            | ALPHA_MASK;
+                }
+            }
+            processRow(row);
+            pixels.position(target * texWidth);
+            pixels.put(row);
+        } else {
+            System.arraycopy(src, 0, bytes, 0, width * 3);
+            processRow(bytes);
+            ByteBuffer dst = buffer.duplicate();
+            dst.position(target * stride);
+            dst.put(bytes);
+        }
+    }
+
+    /**
+     * Process a texture buffer that already holds the decoded image in it's
+     * top left corner, top row first
+     */
+    void processInPlace() {
+        ByteBuffer src = buffer.duplicate();
+
+        if (perPixel == 4) {
+            if (other == null) {
+                other = new int[texWidth];
+            }
+        } else if (otherBytes == null) {
+            otherBytes = new byte[stride];
+        }
+
+        int rows = flipped ? (height + 1) / 2 : height;
+        for (int y = 0; y < rows; y++) {
+            int y2 = flipped ? height - 1 - y : y;
+
+            if (perPixel == 4) {
+                pixels.position(y * texWidth);
+                pixels.get(row);
+                processRow(row);
+
+                if (y2 != y) {
+                    pixels.position(y2 * texWidth);
+                    pixels.get(other);
+                    processRow(other);
+                    pixels.position(y * texWidth);
+                    pixels.put(other);
+                }
+                pixels.position(y2 * texWidth);
+                pixels.put(row);
+            } else {
+                src.position(y * stride);
+                src.get(bytes);
+                processRow(bytes);
+
+                if (y2 != y) {
+                    src.position(y2 * stride);
+                    src.get(otherBytes);
+                    processRow(otherBytes);
+                    src.position(y * stride);
+                    src.put(otherBytes);
+                }
+                src.position(y2 * stride);
+                src.put(bytes);
+            }
+        }
+
+        finish();
+    }
+
+    /**
+     * Duplicate the top and bottom rows into the padding once every row has
+     * been written
+     */
+    void finish() {
+        if (!edging || (height >= texHeight - 1)) {
+            return;
+        }
+
+        byte[] edge = new byte[stride];
+        ByteBuffer dst = buffer.duplicate();
+        dst.position(0);
+        dst.get(edge);
+        dst.position((texHeight - 1) * stride);
+        dst.put(edge);
+
+        dst.position((height - 1) * stride);
+        dst.get(edge);
+        dst.put(edge);
+    }
+
+    /**
+     * Multiply the colour channels of a buffer of RGBA pixels by their alpha.
+     * The red and blue channels are multiplied together in one int, with each
+     * product rounded to the nearest value.
+     *
+     * @param buffer The pixels to premultiply from it's position to it's limit
+     */
+    static void premultiply(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer pixels = view.asIntBuffer();
+        int[] chunk = new int[Math.min(pixels.remaining(), 4096)];
+
+        while (pixels.hasRemaining()) {
+            int position = pixels.position();
+            int count = Math.min(chunk.length, pixels.remaining());
+            pixels.get(chunk, 0, count);
+
+            boolean changed = false;
+            for (int i = 0; i < count; i++) {
+                int pixel = chunk[i];
+                int alpha = pixel >>> 24;
+                if (alpha == 255) {
+                    continue;
+                }
+
+                int rb = ((pixel & 0x00FF00FF) * alpha) + 0x00800080;
+                rb = ((rb + ((rb >>> 8) & 0x00FF00FF)) >>> 8) & 0x00FF00FF;
+                int g = (((pixel >>> 8) & 0xFF) * alpha) + 0x80;
+                g = ((g + (g >>> 8)) >>> 8) & 0xFF;
+
+                chunk[i] = (pixel & ALPHA_MASK) | rb | (g << 8);
+                changed = true;
+            }
+
+            if (changed) {
+                pixels.position(position);
+                pixels.put(chunk, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Key out the transparent colour and pad the edges of a row of RGBA
+     * pixels
+     *
+     * @param row The row to process
+     */
+    private void processRow(int[] row) {
+        if (keyed) {
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                if ((pixel & RGB_MASK) == key) {
+                    row[x] = pixel & RGB_MASK;
+                }
+            }
+        }
+
+        if (edging && (width < texWidth - 1)) {
+            row[width] = row[width - 1];
+            row[texWidth - 1] = row[0];
+        }
+    }
+
+    /**
+     * Pad the edges of a row of RGB pixels
+     *
+     * @param row The row to process
+     */
+    private void processRow(byte[] row) {
+        if (edging && (width < texWidth - 1)) {
+            System.arraycopy(row, (width - 1) * 3, row, width * 3, 3);
+            System.arraycopy(row, 0, row, stride - 3, 3);
+        }
+    }
+}
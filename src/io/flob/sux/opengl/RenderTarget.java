@@ -0,0 +1,130 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.SGL;
+import java.nio.IntBuffer;
+import org.lwjgl.BufferUtils;
+
+/**
+ * A texture that can be rendered into, backed by a framebuffer object. Between
+ * bindTarget() and unbindTarget() everything drawn goes to the texture rather
+ * than the screen, after which it can be bound and drawn like any other
+ * texture.
+ *
+ * Rows rendered into a target are stored bottom row first, the opposite of
+ * loaded images, so to produce an upright texture render with the projection
+ * flipped vertically, for instance glOrtho(0, width, 0, height, ...).
+ *
+ * Targets are created with InternalTextureLoader.createRenderTarget() or, for
+ * passes repeated every frame, borrowed from the RenderTargetPool.
+ *
+ * @author agent
+ */
+public class RenderTarget extends TextureImpl {
+
+    /**
+     * The framebuffer object rendering into the texture
+     */
+    private int framebufferID;
+    /**
+     * The internal format of the texture
+     */
+    private final int format;
+    /**
+     * The viewport in use before the target was bound
+     */
+    private final IntBuffer viewport = BufferUtils.createIntBuffer(16);
+    /**
+     * The framebuffer bound before the target was bound
+     */
+    private final IntBuffer framebuffer = BufferUtils.createIntBuffer(16);
+    /**
+     * True while the target is bound for rendering
+     */
+    private boolean bound;
+
+    /**
+     * Create a new render target
+     *
+     * @param ref The reference to give the target
+     * @param textureID The GL texture ID
+     * @param framebufferID The framebuffer object rendering into the texture
+     * @param format The internal format of the texture
+     */
+    RenderTarget(String ref, int textureID, int framebufferID, int format) {
+        super(ref, SGL.GL_TEXTURE_2D, textureID);
+        this.framebufferID = framebufferID;
+        this.format = format;
+    }
+
+    /**
+     * Get the framebuffer object rendering into the texture
+     *
+     * @return The GL framebuffer ID
+     */
+    public int getFramebufferID() {
+        return framebufferID;
+    }
+
+    /**
+     * Get the internal format of the texture
+     *
+     * @return The internal format the target was created with
+     */
+    public int getFormat() {
+        return format;
+    }
+
+    /**
+     * Direct rendering into this target. The viewport is set to cover the
+     * image, and the previous framebuffer and viewport are remembered to be
+     * restored by unbindTarget().
+     */
+    public void bindTarget() {
+        if (bound) {
+            return;
+        }
+
+        framebuffer.clear();
+        GL.glGetInteger(SGL.GL_FRAMEBUFFER_BINDING, framebuffer);
+        viewport.clear();
+        GL.glGetInteger(SGL.GL_VIEWPORT, viewport);
+
+        GL.glBindFramebuffer(SGL.GL_FRAMEBUFFER, framebufferID);
+        GL.glViewport(0, 0, getImageWidth(), getImageHeight());
+        bound = true;
+    }
+
+    /**
+     * Stop rendering into this target, restoring the framebuffer and viewport
+     * in use when it was bound
+     */
+    public void unbindTarget() {
+        if (!bound) {
+            return;
+        }
+
+        GL.glBindFramebuffer(SGL.GL_FRAMEBUFFER, framebuffer.get(0));
+        GL.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+        bound = false;
+    }
+
+    /**
+     * Check if this target is bound for rendering
+     *
+     * @return True if rendering goes to this target
+     */
+    public boolean isTargetBound() {
+        return bound;
+    }
+
+    @Override
+    public void release() {
+        unbindTarget();
+        if (framebufferID != 0) {
+            GL.glDeleteFramebuffers(framebufferID);
+            framebufferID = 0;
+        }
+
+        super.release();
+    }
+}
@@ -0,0 +1,199 @@
+package io.flob.sux.opengl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A pool of render targets, recycled by size and format so offscreen passes
+ * repeated every frame, such as blurs or cached UI, don't create and delete GL
+ * objects each time. Targets are borrowed with acquire() and handed back with
+ * recycle() once their content has been used. A limited number of idle
+ * targets is kept, the longest idle being released first.
+ *
+ * @author agent
+ */
+public class RenderTargetPool {
+
+    /**
+     * The single instance of the pool
+     */
+    private static final RenderTargetPool pool = new RenderTargetPool();
+
+    /**
+     * Get the single instance of the pool
+     *
+     * @return The single instance of the pool
+     */
+    public static RenderTargetPool get() {
+        return pool;
+    }
+
+    /**
+     * The idle targets by their size and format (Long <-> ArrayList of
+     * RenderTarget)
+     */
+    private final HashMap free = new HashMap();
+    /**
+     * Every idle target, longest idle first
+     */
+    private final ArrayList idle = new ArrayList();
+    /**
+     * The most idle targets to keep
+     */
+    private int maxIdle = 16;
+    /**
+     * The number of targets created by the pool
+     */
+    private long created;
+    /**
+     * The number of targets reused from the pool
+     */
+    private long reused;
+
+    /**
+     * Create the pool
+     */
+    private RenderTargetPool() {
+    }
+
+    /**
+     * Borrow a render target, reusing an idle one of the same size and format
+     * if possible. The content of a reused target is whatever was last
+     * rendered into it.
+     *
+     * @param width The width of the target
+     * @param height The height of the target
+     * @param format The internal format of the texture, for instance
+     * SGL.GL_RGBA8
+     * @param filter The filter to use when scaling the texture
+     * @return The render target
+     * @throws IOException Indicates render targets aren't supported or the
+     * target is too big for the hardware
+     */
+    public RenderTarget acquire(int width, int height, int format, int filter) throws IOException {
+        ArrayList list = (ArrayList) free.get(getKey(width, height, format));
+        if ((list != null) && !list.isEmpty()) {
+            RenderTarget target = (RenderTarget) list.remove(list.size() - 1);
+            idle.remove(target);
+            if (target.getFilter() != filter) {
+                target.setTextureFilter(filter);
+            }
+            reused++;
+            return target;
+        }
+
+        created++;
+        return InternalTextureLoader.get().createRenderTarget(width, height, format, filter);
+    }
+
+    /**
+     * Hand a render target back to the pool to be reused. The target must not
+     * be used by the caller again.
+     *
+     * @param target The target to recycle
+     */
+    public void recycle(RenderTarget target) {
+        target.unbindTarget();
+
+        Long key = getKey(target.getImageWidth(), target.getImageHeight(), target.getFormat());
+        ArrayList list = (ArrayList) free.get(key);
+        if (list == null) {
+            list = new ArrayList();
+            free.put(key, list);
+        }
+        list.add(target);
+        idle.add(target);
+
+        trim(maxIdle);
+    }
+
+    /**
+     * Set the most idle targets the pool keeps for reuse
+     *
+     * @param maxIdle The most idle targets to keep
+     */
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+        trim(maxIdle);
+    }
+
+    /**
+     * Get the most idle targets the pool keeps for reuse
+     *
+     * @return The most idle targets to keep
+     */
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * Get the number of idle targets held by the pool
+     *
+     * @return The number of idle targets
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Get the number of targets the pool has created
+     *
+     * @return The number of targets created
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Get the number of times a target has been reused
+     *
+     * @return The number of targets reused
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * Release every idle target
+     */
+    public void clear() {
+        trim(0);
+    }
+
+    /**
+     * Forget the idle targets without releasing them, used when the GL context
+     * they were created in has been lost
+     */
+    void lost() {
+        free.clear();
+        idle.clear();
+    }
+
+    /**
+     * Release the longest idle targets until only a given number remain
+     *
+     * @param count The number of idle targets to keep
+     */
+    private void trim(int count) {
+        while (idle.size() > Math.max(0, count)) {
+            RenderTarget target = (RenderTarget) idle.remove(0);
+            ArrayList list = (ArrayList) free.get(getKey(target.getImageWidth(), target.getImageHeight(),
+                    target.getFormat()));
+            list.remove(target);
+            target.release();
+        }
+    }
+
+    /**
+     * Get the key idle targets of a given size and format are stored against
+     *
+     * @param width The width of the target
+     * @param height The height of the target
+     * @param format The internal format of the texture
+     * @return The key for the targets
+     */
+    private static Long getKey(int width, int height, int format) {
+        return Long.valueOf(((long) format << 32) | ((long) width << 16) | height);
+    }
+}
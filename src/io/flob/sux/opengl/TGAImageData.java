@@ -5,8 +5,6 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import org.lwjgl.BufferUtils;
 
 /**
  * A utility to load TGAs. Note: NOT THREAD SAFE
@@ -19,6 +17,19 @@ import org.lwjgl.BufferUtils;
  */
 public class TGAImageData implements LoadableImageData {
 
+    /**
+     * The size of the TGA header
+     */
+    private static final int HEADER_SIZE = 18;
+    /**
+     * The image type of uncompressed true colour images
+     */
+    private static final int TYPE_RGB = 2;
+    /**
+     * The image type of RLE compressed true colour images
+     */
+    private static final int TYPE_RLE_RGB = 10;
+
     /**
      * The width of the texture that needs to be generated
      */
@@ -39,22 +50,27 @@ public class TGAImageData implements LoadableImageData {
      * The bit depth of the image
      */
     private short pixelDepth;
-
     /**
-     * Create a new TGA Loader
+     * True if the texture should have power of two dimensions
      */
-    public TGAImageData() {
-    }
+    private boolean powerOfTwo = true;
+    /**
+     * The number of pixels left in the current RLE packet
+     */
+    private int runLength;
+    /**
+     * True if the current RLE packet repeats a single pixel
+     */
+    private boolean runRepeats;
+    /**
+     * The pixel repeated by the current RLE packet
+     */
+    private final byte[] runPixel = new byte[4];
 
     /**
-     * Flip the endian-ness of the short
-     *
-     * @param signedShort The short to flip
-     * @return The flipped short
+     * Create a new TGA Loader
      */
-    private short flipEndian(short signedShort) {
-        int input = signedShort & 0xFFFF;
-        return (short) (input << 8 | (input & 0xFF00) >>> 8);
+    public TGAImageData() {
     }
 
     @Override
@@ -97,184 +113,172 @@ public class TGAImageData implements LoadableImageData {
         if (transparent != null) {
             forceAlpha = true;
         }
-        byte red = 0;
-        byte green = 0;
-        byte blue = 0;
-        byte alpha = 0;
 
-        BufferedInputStream bis = new BufferedInputStream(fis, 100000);
-        DataInputStream dis = new DataInputStream(bis);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(fis, 100000));
 
         // Read in the Header
-        short idLength = (short) dis.read();
-        short imageType = (short) dis.read();
+        byte[] header = new byte[HEADER_SIZE];
+        dis.readFully(header);
+
+        int idLength = header[0] & 0xFF;
+        int colourMapType = header[1] & 0xFF;
+        int imageType = header[2] & 0xFF;
 
-        if (imageType != 2) {
-            throw new IOException("SUX only supports uncompressed RGB(A) TGA images");
+        if ((imageType != TYPE_RGB) && (imageType != TYPE_RLE_RGB)) {
+            throw new IOException("SUX only supports uncompressed and RLE compressed RGB(A) TGA images");
         }
 
-        width = flipEndian(dis.readShort());
-        height = flipEndian(dis.readShort());
-        pixelDepth = (short) dis.read();
+        int colourMapLength = readShort(header, 5);
+        int colourMapDepth = header[7] & 0xFF;
+        width = readShort(header, 12);
+        height = readShort(header, 14);
+        pixelDepth = (short) (header[16] & 0xFF);
+        if ((pixelDepth != 24) && (pixelDepth != 32)) {
+            throw new RuntimeException("Only 24 and 32 bit TGAs are supported");
+        }
         if (pixelDepth == 32) {
             forceAlpha = false;
         }
 
-        texWidth = get2Fold(width);
-        texHeight = get2Fold(height);
+        texWidth = powerOfTwo ? get2Fold(width) : width;
+        texHeight = powerOfTwo ? get2Fold(height) : height;
 
-        short imageDescriptor = (short) dis.read();
+        int imageDescriptor = header[17] & 0xFF;
         if ((imageDescriptor & 0x0020) == 0) {
             flipped = !flipped;
         }
 
-        // Skip image ID
-        if (idLength > 0) {
-            bis.skip(idLength);
+        // Skip image ID and any colour map
+        skipFully(dis, idLength);
+        if (colourMapType != 0) {
+            skipFully(dis, colourMapLength * ((colourMapDepth + 7) / 8));
         }
 
-        byte[] rawData = null;
-        if ((pixelDepth == 32) || (forceAlpha)) {
-            pixelDepth = 32;
-            rawData = new byte[texWidth * texHeight * 4];
-        } else if (pixelDepth == 24) {
-            rawData = new byte[texWidth * texHeight * 3];
-        } else {
-            throw new RuntimeException("Only 24 and 32 bit TGAs are supported");
-        }
+        int srcPerPixel = pixelDepth / 8;
+        int perPixel = forceAlpha ? 4 : srcPerPixel;
+        boolean clearTransparent = pixelDepth == 32;
+        pixelDepth = (short) (perPixel * 8);
 
-        if (pixelDepth == 24) {
-            if (flipped) {
-                for (int i = height - 1; i >= 0; i--) {
-                    for (int j = 0; j < width; j++) {
-                        blue = dis.readByte();
-                        green = dis.readByte();
-                        red = dis.readByte();
-
-                        int ofs = ((j + (i * texWidth)) * 3);
-                        rawData[ofs] = red;
-                        rawData[ofs + 1] = green;
-                        rawData[ofs + 2] = blue;
-                    }
-                }
-            } else {
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        blue = dis.readByte();
-                        green = dis.readByte();
-                        red = dis.readByte();
-
-                        int ofs = ((j + (i * texWidth)) * 3);
-                        rawData[ofs] = red;
-                        rawData[ofs + 1] = green;
-                        rawData[ofs + 2] = blue;
-                    }
-                }
-            }
-        } else if (pixelDepth == 32) {
-            if (flipped) {
-                for (int i = height - 1; i >= 0; i--) {
-                    for (int j = 0; j < width; j++) {
-                        blue = dis.readByte();
-                        green = dis.readByte();
-                        red = dis.readByte();
-                        if (forceAlpha) {
-                            alpha = (byte) 255;
-                        } else {
-                            alpha = dis.readByte();
-                        }
-
-                        int ofs = ((j + (i * texWidth)) * 4);
-
-                        rawData[ofs] = red;
-                        rawData[ofs + 1] = green;
-                        rawData[ofs + 2] = blue;
-                        rawData[ofs + 3] = alpha;
-
-                        if (alpha == 0) {
-                            rawData[ofs + 2] = (byte) 0;
-                            rawData[ofs + 1] = (byte) 0;
-                            rawData[ofs] = (byte) 0;
-                        }
-                    }
-                }
+        byte[] src = new byte[width * srcPerPixel];
+        ByteBuffer scratch = BufferPool.get().allocate(texWidth * texHeight * perPixel);
+        PixelProcessor processor = new PixelProcessor(scratch, width, height, texWidth, texHeight, perPixel,
+                flipped, transparent, true);
+
+        runLength = 0;
+        for (int row = 0; row < height; row++) {
+            if (imageType == TYPE_RLE_RGB) {
+                readRLEScanline(dis, src, srcPerPixel);
             } else {
-                for (int i = 0; i < height; i++) {
-                    for (int j = 0; j < width; j++) {
-                        blue = dis.readByte();
-                        green = dis.readByte();
-                        red = dis.readByte();
-                        if (forceAlpha) {
-                            alpha = (byte) 255;
-                        } else {
-                            alpha = dis.readByte();
-                        }
-
-                        int ofs = ((j + (i * texWidth)) * 4);
-
-                        if (ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN) {
-                            rawData[ofs] = red;
-                            rawData[ofs + 1] = green;
-                            rawData[ofs + 2] = blue;
-                            rawData[ofs + 3] = alpha;
-                        } else {
-                            rawData[ofs] = red;
-                            rawData[ofs + 1] = green;
-                            rawData[ofs + 2] = blue;
-                            rawData[ofs + 3] = alpha;
-                        }
-
-                        if (alpha == 0) {
-                            rawData[ofs + 2] = 0;
-                            rawData[ofs + 1] = 0;
-                            rawData[ofs] = 0;
-                        }
-                    }
-                }
+                dis.readFully(src);
             }
+
+            swizzle(src, width, srcPerPixel, clearTransparent);
+            processor.putRow(row, src, srcPerPixel);
         }
         fis.close();
+        processor.finish();
 
-        if (transparent != null) {
-            for (int i = 0; i < rawData.length; i += 4) {
-                boolean match = true;
-                for (int c = 0; c < 3; c++) {
-                    if (rawData[i + c] != transparent[c]) {
-                        match = false;
-                    }
-                }
+        scratch.position(0);
 
-                if (match) {
-                    rawData[i + 3] = 0;
+        return scratch;
+    }
+
+    /**
+     * Convert a scanline of BGR(A) pixels into RGB(A) in place
+     *
+     * @param src The BGR(A) pixels read from the file
+     * @param width The number of pixels in the scanline
+     * @param perPixel The number of bytes per pixel in the file
+     * @param clearTransparent True if the colour of fully transparent pixels
+     * should be cleared to black
+     */
+    private static void swizzle(byte[] src, int width, int perPixel, boolean clearTransparent) {
+        int end = width * perPixel;
+        if (clearTransparent) {
+            for (int s = 0; s < end; s += 4) {
+                if (src[s + 3] == 0) {
+                    src[s] = 0;
+                    src[s + 1] = 0;
+                    src[s + 2] = 0;
+                } else {
+                    byte blue = src[s];
+                    src[s] = src[s + 2];
+                    src[s + 2] = blue;
                 }
             }
+        } else {
+            for (int s = 0; s < end; s += perPixel) {
+                byte blue = src[s];
+                src[s] = src[s + 2];
+                src[s + 2] = blue;
+            }
         }
+    }
 
-        // Get a pointer to the image memory
-        ByteBuffer scratch = BufferUtils.createByteBuffer(rawData.length);
-        scratch.put(rawData);
-
-        int perPixel = pixelDepth / 8;
-        if (height < texHeight - 1) {
-            int topOffset = (texHeight - 1) * (texWidth * perPixel);
-            int bottomOffset = (height - 1) * (texWidth * perPixel);
-            for (int x = 0; x < texWidth * perPixel; x++) {
-                scratch.put(topOffset + x, scratch.get(x));
-                scratch.put(bottomOffset + (texWidth * perPixel) + x, scratch.get((texWidth * perPixel) + x));
+    /**
+     * Read a scanline of RLE compressed pixels. Packets may run from one
+     * scanline into the next so the state of the current packet is kept
+     * between calls.
+     *
+     * @param dis The stream to read the packets from
+     * @param row The buffer to fill with the scanline's pixels
+     * @param perPixel The number of bytes per pixel
+     * @throws IOException Indicates a failure to read the stream
+     */
+    private void readRLEScanline(DataInputStream dis, byte[] row, int perPixel) throws IOException {
+        int ofs = 0;
+        while (ofs < row.length) {
+            if (runLength == 0) {
+                int packet = dis.readUnsignedByte();
+                runLength = (packet & 0x7F) + 1;
+                runRepeats = (packet & 0x80) != 0;
+                if (runRepeats) {
+                    dis.readFully(runPixel, 0, perPixel);
+                }
             }
-        }
-        if (width < texWidth - 1) {
-            for (int y = 0; y < texHeight; y++) {
-                for (int i = 0; i < perPixel; i++) {
-                    scratch.put(((y + 1) * (texWidth * perPixel)) - perPixel + i, scratch.get(y * (texWidth * perPixel) + i));
-                    scratch.put((y * (texWidth * perPixel)) + (width * perPixel) + i, scratch.get((y * (texWidth * perPixel)) + ((width - 1) * perPixel) + i));
+
+            int pixels = Math.min(runLength, (row.length - ofs) / perPixel);
+            if (runRepeats) {
+                for (int i = 0; i < pixels; i++) {
+                    for (int c = 0; c < perPixel; c++) {
+                        row[ofs++] = runPixel[c];
+                    }
                 }
+            } else {
+                dis.readFully(row, ofs, pixels * perPixel);
+                ofs += pixels * perPixel;
             }
+            runLength -= pixels;
         }
+    }
 
-        scratch.flip();
+    /**
+     * Read an unsigned little endian short from the header
+     *
+     * @param header The header data
+     * @param ofs The offset of the short
+     * @return The value of the short
+     */
+    private static int readShort(byte[] header, int ofs) {
+        return (header[ofs] & 0xFF) | ((header[ofs + 1] & 0xFF) << 8);
+    }
 
-        return scratch;
+    /**
+     * Skip a number of bytes in the stream
+     *
+     * @param dis The stream to skip
+     * @param count The number of bytes to skip
+     * @throws IOException Indicates the stream ended early
+     */
+    private static void skipFully(DataInputStream dis, int count) throws IOException {
+        while (count > 0) {
+            int skipped = dis.skipBytes(count);
+            if (skipped <= 0) {
+                dis.readByte();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
     }
 
     /**
@@ -299,4 +303,9 @@ public class TGAImageData implements LoadableImageData {
     @Override
     public void configureEdging(boolean edging) {
     }
+
+    @Override
+    public void configurePowerOfTwo(boolean powerOfTwo) {
+        this.powerOfTwo = powerOfTwo;
+    }
 }
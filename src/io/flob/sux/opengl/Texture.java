@@ -14,6 +14,17 @@ public interface Texture {
      */
     public boolean hasAlpha();
 
+    /**
+     * Check if the texture's colour channels are premultiplied by alpha, in
+     * which case it should be drawn with GL_ONE, GL_ONE_MINUS_SRC_ALPHA
+     * blending
+     *
+     * @return True if the texture's colour is premultiplied by alpha
+     */
+    public default boolean isPremultipliedAlpha() {
+        return false;
+    }
+
     /**
      * Get the reference from which this texture was loaded
      *
@@ -54,6 +65,28 @@ public interface Texture {
      */
     public float getWidth();
 
+    /**
+     * Get the horizontal offset of the image within the physical texture, as a
+     * ratio of the texture width. This is zero unless the image shares the
+     * texture with others, as in a TextureAtlas.
+     *
+     * @return The horizontal offset of the image within the texture
+     */
+    public default float getOffsetX() {
+        return 0;
+    }
+
+    /**
+     * Get the vertical offset of the image within the physical texture, as a
+     * ratio of the texture height. This is zero unless the image shares the
+     * texture with others, as in a TextureAtlas.
+     *
+     * @return The vertical offset of the image within the texture
+     */
+    public default float getOffsetY() {
+        return 0;
+    }
+
     /**
      * Get the height of the actual texture
      *
@@ -0,0 +1,604 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.Renderer;
+import io.flob.sux.opengl.renderer.SGL;
+import io.flob.sux.util.ResourceLoader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import org.lwjgl.BufferUtils;
+
+/**
+ * A collection of images packed into a small number of shared textures (pages)
+ * at runtime. Drawing many images from the same page needs no texture binds
+ * between them, which avoids flushing the batch in renderers such as the
+ * VAOGLRenderer.
+ *
+ * Each image added is returned as a Texture whose getWidth()/getHeight() and
+ * getOffsetX()/getOffsetY() describe the area of the page it occupies. Images
+ * are packed with a skyline packer and a new page is started whenever an image
+ * will not fit on the existing pages. Each image is surrounded by a one pixel
+ * border copied from its edges so linear filtering doesn't bleed in pixels from
+ * its neighbours. A copy of each page is kept so it's content can be restored
+ * when the texture is reloaded, for instance after the GL context is lost.
+ *
+ * @author agent
+ */
+public class TextureAtlas {
+
+    /**
+     * The renderer to use for all GL operations
+     */
+    protected static SGL GL = Renderer.get();
+
+    /**
+     * The default size of each page
+     */
+    private static final int DEFAULT_PAGE_SIZE = 1024;
+    /**
+     * The border left around each image
+     */
+    private static final int BORDER = 1;
+
+    /**
+     * The width and height of each page
+     */
+    private final int pageSize;
+    /**
+     * The filter to use when scaling the pages
+     */
+    private final int filter;
+    /**
+     * The pages images have been packed into
+     */
+    private final ArrayList pages = new ArrayList();
+
+    /**
+     * Create a new atlas with the default page size
+     *
+     * @param filter The filter to use when scaling the pages
+     */
+    public TextureAtlas(int filter) {
+        this(DEFAULT_PAGE_SIZE, filter);
+    }
+
+    /**
+     * Create a new atlas
+     *
+     * @param pageSize The width and height of each page, this will be reduced
+     * to the largest texture the hardware supports if required
+     * @param filter The filter to use when scaling the pages
+     */
+    public TextureAtlas(int pageSize, int filter) {
+        GLUtils.checkGLContext();
+
+        IntBuffer temp = BufferUtils.createIntBuffer(16);
+        GL.glGetInteger(SGL.GL_MAX_TEXTURE_SIZE, temp);
+
+        this.pageSize = Math.min(InternalTextureLoader.get2Fold(pageSize), temp.get(0));
+        this.filter = filter;
+    }
+
+    /**
+     * Load an image from a resource location and add it to the atlas
+     *
+     * @param resourceName The location to load the image from
+     * @param flipped True if we should flip the image on the y axis while
+     * loading
+     * @return The texture describing the image's area of the atlas
+     * @throws IOException Indicates a failure to load the image or that it is
+     * too big for a page
+     */
+    public Texture add(String resourceName, boolean flipped) throws IOException {
+        InputStream in = ResourceLoader.getResourceAsStream(resourceName);
+        try {
+            return add(in, resourceName, flipped);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load an image from a stream and add it to the atlas
+     *
+     * @param in The stream from which we can load the image
+     * @param resourceName The name of the image being loaded
+     * @param flipped True if we should flip the image on the y axis while
+     * loading
+     * @return The texture describing the image's area of the atlas
+     * @throws IOException Indicates a failure to load the image or that it is
+     * too big for a page
+     */
+    public Texture add(InputStream in, String resourceName, boolean flipped) throws IOException {
+        InternalTextureLoader loader = InternalTextureLoader.get();
+        DecodedImageData imageData = loader.decode(in, loader.createKey(resourceName, filter, flipped, null, false, false, 0,
+                InternalTextureLoader.DITHER_NONE));
+        if (imageData.isCompressed()) {
+            throw new IOException("Compressed images can't be added to an atlas: " + resourceName);
+        }
+
+        try {
+            return add(resourceName, imageData);
+        } finally {
+            BufferPool.get().release(imageData.getImageBufferData());
+        }
+    }
+
+    /**
+     * Add an image that has already been loaded to the atlas. The image's
+     * texture buffer is copied so may be discarded afterwards.
+     *
+     * @param resourceName The name of the image being added
+     * @param imageData The loaded image data, getImageBufferData() must return
+     * the image's RGB or RGBA pixels
+     * @return The texture describing the image's area of the atlas
+     * @throws IOException Indicates the image is too big for a page
+     */
+    public Texture add(String resourceName, ImageData imageData) throws IOException {
+        int width = imageData.getWidth();
+        int height = imageData.getHeight();
+        int paddedWidth = width + (BORDER * 2);
+        int paddedHeight = height + (BORDER * 2);
+
+        if ((paddedWidth > pageSize) || (paddedHeight > pageSize)) {
+            throw new IOException("Image too big to be added to atlas pages of " + pageSize + ": " + resourceName);
+        }
+
+        Page page = null;
+        int[] position = null;
+        for (int i = 0; i < pages.size(); i++) {
+            page = (Page) pages.get(i);
+            position = page.allocate(paddedWidth, paddedHeight);
+            if (position != null) {
+                break;
+            }
+        }
+        if (position == null) {
+            page = new Page();
+            pages.add(page);
+            position = page.allocate(paddedWidth, paddedHeight);
+        }
+
+        byte[] pixels = copyWithBorder(imageData, paddedWidth, paddedHeight);
+        page.store(position[0], position[1], paddedWidth, paddedHeight, pixels);
+        page.upload(position[0], position[1], paddedWidth, paddedHeight, pixels);
+
+        return new AtlasTexture(resourceName, page.texture,
+                position[0] + BORDER, position[1] + BORDER, width, height, imageData.getDepth() == 32);
+    }
+
+    /**
+     * Get the number of pages the atlas is using
+     *
+     * @return The number of pages
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * Get the size of the pages used by this atlas
+     *
+     * @return The width and height of each page
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Release every page of the atlas. Textures returned from the atlas may not
+     * be used afterwards.
+     */
+    public void release() {
+        for (int i = 0; i < pages.size(); i++) {
+            ((Page) pages.get(i)).texture.release();
+        }
+        pages.clear();
+    }
+
+    /**
+     * Copy an image into a new RGBA array surrounded by a border duplicated
+     * from its edge pixels
+     *
+     * @param imageData The image to copy
+     * @param paddedWidth The width of the image including the border
+     * @param paddedHeight The height of the image including the border
+     * @return The RGBA pixels
+     */
+    private byte[] copyWithBorder(ImageData imageData, int paddedWidth, int paddedHeight) {
+        int width = imageData.getWidth();
+        int height = imageData.getHeight();
+        int perPixel = imageData.getDepth() / 8;
+        int srcStride = imageData.getTexWidth() * perPixel;
+        ByteBuffer src = imageData.getImageBufferData();
+
+        byte[] row = new byte[width * perPixel];
+        byte[] out = new byte[paddedWidth * paddedHeight * 4];
+        int outStride = paddedWidth * 4;
+
+        for (int y = 0; y < height; y++) {
+            src.position(y * srcStride);
+            src.get(row);
+
+            int ofs = ((y + BORDER) * outStride) + (BORDER * 4);
+            if (perPixel == 4) {
+                System.arraycopy(row, 0, out, ofs, row.length);
+            } else {
+                for (int x = 0; x < width; x++) {
+                    out[ofs + (x * 4)] = row[x * 3];
+                    out[ofs + (x * 4) + 1] = row[(x * 3) + 1];
+                    out[ofs + (x * 4) + 2] = row[(x * 3) + 2];
+                    out[ofs + (x * 4) + 3] = (byte) 255;
+                }
+            }
+
+            // duplicate the first and last pixels into the border columns
+            int first = (y + BORDER) * outStride;
+            int last = first + ((BORDER + width) * 4);
+            System.arraycopy(out, first + (BORDER * 4), out, first, 4);
+            System.arraycopy(out, last - 4, out, last, 4);
+        }
+        src.position(0);
+
+        // duplicate the first and last rows into the border rows
+        System.arraycopy(out, BORDER * outStride, out, 0, outStride);
+        System.arraycopy(out, (height - 1 + BORDER) * outStride, out, (height + BORDER) * outStride, outStride);
+
+        return out;
+    }
+
+    /**
+     * A single texture images are packed into, with a skyline describing the
+     * space used
+     */
+    private class Page {
+
+        /**
+         * The texture holding the page's pixels
+         */
+        private final TextureImpl texture;
+        /**
+         * A copy of the page's RGBA pixels, restored to the texture when it's
+         * reloaded
+         */
+        private final byte[] pixels;
+        /**
+         * The skyline, each entry is an int[] of x, y and width describing a
+         * segment of the top edge of the used space
+         */
+        private final ArrayList skyline = new ArrayList();
+
+        /**
+         * Create a new empty page
+         *
+         * @throws IOException Indicates a failure to create the page texture
+         */
+        Page() throws IOException {
+            texture = (TextureImpl) InternalTextureLoader.get().createTexture(pageSize, pageSize, filter);
+            pixels = new byte[pageSize * pageSize * 4];
+            texture.setReloadCallback(new Runnable() {
+                @Override
+                public void run() {
+                    upload(0, 0, pageSize, pageSize, pixels);
+                }
+            });
+            skyline.add(new int[]{0, 0, pageSize});
+        }
+
+        /**
+         * Copy a rectangle of pixels into the page's copy
+         *
+         * @param x The x position of the rectangle
+         * @param y The y position of the rectangle
+         * @param width The width of the rectangle
+         * @param height The height of the rectangle
+         * @param rect The RGBA pixels of the rectangle
+         */
+        void store(int x, int y, int width, int height, byte[] rect) {
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(rect, row * width * 4, pixels, (((y + row) * pageSize) + x) * 4, width * 4);
+            }
+        }
+
+        /**
+         * Upload a rectangle of pixels to the page's texture
+         *
+         * @param x The x position of the rectangle
+         * @param y The y position of the rectangle
+         * @param width The width of the rectangle
+         * @param height The height of the rectangle
+         * @param rect The RGBA pixels of the rectangle
+         */
+        void upload(int x, int y, int width, int height, byte[] rect) {
+            ByteBuffer buffer = BufferPool.get().allocate(width * height * 4);
+            buffer.put(rect, 0, width * height * 4);
+            buffer.flip();
+
+            texture.bind();
+            GL.glTexSubImage2D(SGL.GL_TEXTURE_2D, 0, x, y, width, height, SGL.GL_RGBA, SGL.GL_UNSIGNED_BYTE, buffer);
+            BufferPool.get().release(buffer);
+        }
+
+        /**
+         * Find space for a rectangle on the page
+         *
+         * @param width The width of the rectangle
+         * @param height The height of the rectangle
+         * @return The x and y position of the rectangle or null if it doesn't
+         * fit on the page
+         */
+        int[] allocate(int width, int height) {
+            int bestIndex = -1;
+            int bestY = Integer.MAX_VALUE;
+            int bestWaste = Integer.MAX_VALUE;
+
+            for (int i = 0; i < skyline.size(); i++) {
+                int y = fit(i, width, height);
+                if (y < 0) {
+                    continue;
+                }
+
+                int waste = waste(i, width, y);
+                if ((y < bestY) || ((y == bestY) && (waste < bestWaste))) {
+                    bestIndex = i;
+                    bestY = y;
+                    bestWaste = waste;
+                }
+            }
+
+            if (bestIndex < 0) {
+                return null;
+            }
+
+            int x = ((int[]) skyline.get(bestIndex))[0];
+            insert(bestIndex, x, bestY + height, width);
+
+            return new int[]{x, bestY};
+        }
+
+        /**
+         * Work out where a rectangle placed at the start of a skyline segment
+         * would sit
+         *
+         * @param index The index of the segment
+         * @param width The width of the rectangle
+         * @param height The height of the rectangle
+         * @return The y position the rectangle would sit at or -1 if it doesn't
+         * fit
+         */
+        private int fit(int index, int width, int height) {
+            int x = ((int[]) skyline.get(index))[0];
+            if (x + width > pageSize) {
+                return -1;
+            }
+
+            int y = 0;
+            int remaining = width;
+            for (int i = index; remaining > 0; i++) {
+                int[] segment = (int[]) skyline.get(i);
+                y = Math.max(y, segment[1]);
+                if (y + height > pageSize) {
+                    return -1;
+                }
+                remaining -= segment[2];
+            }
+
+            return y;
+        }
+
+        /**
+         * Work out the area left unusable below a rectangle placed at the
+         * start of a skyline segment
+         *
+         * @param index The index of the segment
+         * @param width The width of the rectangle
+         * @param y The y position the rectangle would sit at
+         * @return The area wasted
+         */
+        private int waste(int index, int width, int y) {
+            int waste = 0;
+            int remaining = width;
+            for (int i = index; remaining > 0; i++) {
+                int[] segment = (int[]) skyline.get(i);
+                int covered = Math.min(segment[2], remaining);
+                waste += (y - segment[1]) * covered;
+                remaining -= covered;
+            }
+
+            return waste;
+        }
+
+        /**
+         * Raise the skyline where a rectangle has been placed
+         *
+         * @param index The index of the segment the rectangle starts on
+         * @param x The x position of the rectangle
+         * @param y The new height of the skyline under the rectangle
+         * @param width The width of the rectangle
+         */
+        private void insert(int index, int x, int y, int width) {
+            skyline.add(index, new int[]{x, y, width});
+
+            // trim or remove the segments now under the new one
+            int right = x + width;
+            for (int i = index + 1; i < skyline.size();) {
+                int[] segment = (int[]) skyline.get(i);
+                if (segment[0] >= right) {
+                    break;
+                }
+
+                int segmentRight = segment[0] + segment[2];
+                if (segmentRight <= right) {
+                    skyline.remove(i);
+                } else {
+                    segment[2] = segmentRight - right;
+                    segment[0] = right;
+                    break;
+                }
+            }
+
+            // merge neighbouring segments at the same height
+            for (int i = 0; i < skyline.size() - 1;) {
+                int[] segment = (int[]) skyline.get(i);
+                int[] next = (int[]) skyline.get(i + 1);
+                if (segment[1] == next[1]) {
+                    segment[2] += next[2];
+                    skyline.remove(i + 1);
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * A view of an image's area of an atlas page
+     */
+    private static class AtlasTexture implements Texture {
+
+        /**
+         * The name of the image
+         */
+        private final String ref;
+        /**
+         * The page the image is on
+         */
+        private final TextureImpl page;
+        /**
+         * The x position of the image on the page
+         */
+        private final int x;
+        /**
+         * The y position of the image on the page
+         */
+        private final int y;
+        /**
+         * The width of the image
+         */
+        private final int width;
+        /**
+         * The height of the image
+         */
+        private final int height;
+        /**
+         * True if the image has alpha
+         */
+        private final boolean alpha;
+
+        /**
+         * Create a new view of an image on a page
+         *
+         * @param ref The name of the image
+         * @param page The page the image is on
+         * @param x The x position of the image on the page
+         * @param y The y position of the image on the page
+         * @param width The width of the image
+         * @param height The height of the image
+         * @param alpha True if the image has alpha
+         */
+        AtlasTexture(String ref, TextureImpl page, int x, int y, int width, int height, boolean alpha) {
+            this.ref = ref;
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.alpha = alpha;
+        }
+
+        @Override
+        public boolean hasAlpha() {
+            return alpha;
+        }
+
+        @Override
+        public boolean isPremultipliedAlpha() {
+            return page.isPremultipliedAlpha();
+        }
+
+        @Override
+        public String getTextureRef() {
+            return ref;
+        }
+
+        @Override
+        public void bind() {
+            page.bind();
+        }
+
+        @Override
+        public int getImageHeight() {
+            return height;
+        }
+
+        @Override
+        public int getImageWidth() {
+            return width;
+        }
+
+        @Override
+        public float getHeight() {
+            return ((float) height) / page.getTextureHeight();
+        }
+
+        @Override
+        public float getWidth() {
+            return ((float) width) / page.getTextureWidth();
+        }
+
+        @Override
+        public float getOffsetX() {
+            return ((float) x) / page.getTextureWidth();
+        }
+
+        @Override
+        public float getOffsetY() {
+            return ((float) y) / page.getTextureHeight();
+        }
+
+        @Override
+        public int getTextureHeight() {
+            return page.getTextureHeight();
+        }
+
+        @Override
+        public int getTextureWidth() {
+            return page.getTextureWidth();
+        }
+
+        /**
+         * Images share their page so releasing a single image does nothing,
+         * release the whole atlas instead.
+         */
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public int getTextureID() {
+            return page.getTextureID();
+        }
+
+        @Override
+        public byte[] getTextureData() {
+            byte[] pageData = page.getTextureData();
+            int pageStride = page.getTextureWidth() * 4;
+            byte[] data = new byte[width * height * 4];
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(pageData, ((y + row) * pageStride) + (x * 4), data, row * width * 4, width * 4);
+            }
+
+            return data;
+        }
+
+        /**
+         * The filter applies to the whole page the image is on
+         */
+        @Override
+        public void setTextureFilter(int textureFilter) {
+            page.setTextureFilter(textureFilter);
+        }
+    }
+}
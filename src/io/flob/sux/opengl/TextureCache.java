@@ -0,0 +1,255 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.util.Log;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cache of textures that have been loaded by the InternalTextureLoader.
+ * Textures are kept in least recently used order and the cache is limited to a
+ * budget of texture memory rather than relying on the garbage collector. When
+ * the budget is exceeded the least recently used textures that aren't pinned
+ * are evicted and their GL textures deleted.
+ *
+ * An evicted texture that is still referenced will be restored the next time
+ * it is bound if it holds its texture data (see
+ * InternalTextureLoader.setHoldTextureData()). Textures that must always stay
+ * resident should be pinned.
+ *
+ * @author agent
+ */
+public class TextureCache {
+
+    /**
+     * The textures in the cache in least recently used order (TextureKey <->
+     * TextureImpl)
+     */
+    private final LinkedHashMap textures = new LinkedHashMap(16, 0.75f, true);
+    /**
+     * The maximum number of bytes of texture memory to keep resident
+     */
+    private long budget = Long.MAX_VALUE;
+    /**
+     * The number of bytes of texture memory currently used by the cache
+     */
+    private long size;
+    /**
+     * The number of requests satisfied by the cache
+     */
+    private long hits;
+    /**
+     * The number of requests not satisfied by the cache
+     */
+    private long misses;
+    /**
+     * The number of textures evicted to stay inside the budget
+     */
+    private long evictions;
+
+    /**
+     * Set the budget of texture memory the cache may keep resident. Textures
+     * will be evicted immediately if the cache is already over the new budget.
+     *
+     * @param budget The number of bytes of texture memory to keep resident
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        evict(null);
+    }
+
+    /**
+     * Get the budget of texture memory the cache may keep resident
+     *
+     * @return The number of bytes of texture memory to keep resident
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get the texture memory currently used by the textures in the cache
+     *
+     * @return The number of bytes of texture memory used
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of textures in the cache
+     *
+     * @return The number of textures in the cache
+     */
+    public int getTextureCount() {
+        return textures.size();
+    }
+
+    /**
+     * Get the number of requests satisfied by the cache
+     *
+     * @return The number of cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests not satisfied by the cache
+     *
+     * @return The number of cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of textures evicted to stay inside the budget
+     *
+     * @return The number of textures evicted
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Reset the hit, miss and eviction counters
+     */
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * Pin a texture so it is never evicted to satisfy the budget
+     *
+     * @param texture The texture to pin
+     */
+    public void pin(Texture texture) {
+        if (texture instanceof TextureImpl) {
+            ((TextureImpl) texture).setPinned(true);
+        }
+    }
+
+    /**
+     * Unpin a texture so it may be evicted to satisfy the budget again
+     *
+     * @param texture The texture to unpin
+     */
+    public void unpin(Texture texture) {
+        if (texture instanceof TextureImpl) {
+            ((TextureImpl) texture).setPinned(false);
+            evict(null);
+        }
+    }
+
+    /**
+     * Get a texture from the cache
+     *
+     * @param key The key the texture is stored against
+     * @return The texture or null if it isn't in the cache
+     */
+    TextureImpl get(TextureKey key) {
+        TextureImpl texture = (TextureImpl) textures.get(key);
+        if (texture != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        return texture;
+    }
+
+    /**
+     * Store a texture in the cache, evicting others if required to stay inside
+     * the budget
+     *
+     * @param key The key to store the texture against
+     * @param texture The texture to store
+     */
+    void put(TextureKey key, TextureImpl texture) {
+        texture.setCacheKey(key);
+
+        TextureImpl old = (TextureImpl) textures.put(key, texture);
+        if (old != null) {
+            size -= old.getMemoryUsage();
+        }
+        size += texture.getMemoryUsage();
+
+        evict(texture);
+    }
+
+    /**
+     * Remove a texture from the cache if it is still the one stored against
+     * its key. The GL texture is not deleted.
+     *
+     * @param key The key the texture is stored against
+     * @param texture The texture to remove
+     */
+    void remove(TextureKey key, TextureImpl texture) {
+        if (textures.get(key) == texture) {
+            textures.remove(key);
+            size -= texture.getMemoryUsage();
+        }
+    }
+
+    /**
+     * Remove every variant of a resource from the cache. The GL textures are
+     * not deleted.
+     *
+     * @param resourceName The name of the resource to remove
+     */
+    void remove(String resourceName) {
+        for (Iterator entries = textures.entrySet().iterator(); entries.hasNext();) {
+            Map.Entry entry = (Map.Entry) entries.next();
+            if (((TextureKey) entry.getKey()).getResourceName().equals(resourceName)) {
+                size -= ((TextureImpl) entry.getValue()).getMemoryUsage();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove all the textures from the cache. The GL textures are not deleted.
+     */
+    void clear() {
+        textures.clear();
+        size = 0;
+    }
+
+    /**
+     * Get a snapshot of the textures in the cache
+     *
+     * @return The list of textures in the cache
+     */
+    ArrayList getTextures() {
+        return new ArrayList(textures.values());
+    }
+
+    /**
+     * Evict the least recently used textures that aren't pinned until the
+     * cache is inside its budget
+     *
+     * @param keep A texture that must not be evicted, or null if none
+     */
+    private void evict(TextureImpl keep) {
+        Iterator entries = textures.values().iterator();
+        while ((size > budget) && entries.hasNext()) {
+            TextureImpl texture = (TextureImpl) entries.next();
+            if ((texture == keep) || texture.isPinned()) {
+                continue;
+            }
+
+            entries.remove();
+            size -= texture.getMemoryUsage();
+            evictions++;
+            texture.evict();
+        }
+
+        if (size > budget) {
+            Log.warn("Texture cache is over budget with only pinned textures resident: " + size + " > " + budget);
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * A persistent cache of decoded texture data held in a single file. Each entry
+ * is the padded pixel data produced by a loader along with the image's
+ * dimensions, stored against a hash of the source image's content and the
+ * options it was loaded with. Entries are memory mapped when read back so the
+ * pixel data can be handed to OpenGL without being decoded or copied.
+ *
+ * The file is an append only sequence of entries. The index is rebuilt when
+ * the file is opened and any entry left incomplete by an interrupted write is
+ * discarded. Compressed images are never cached since they aren't decoded.
+ *
+ * @author agent
+ */
+public class TextureDiskCache {
+
+    /**
+     * The magic number at the start of the cache file ("SUXT")
+     */
+    private static final int MAGIC = 0x53555854;
+    /**
+     * The version of the cache file format
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the file header
+     */
+    private static final int FILE_HEADER_SIZE = 8;
+    /**
+     * The size of the digest identifying each entry
+     */
+    private static final int DIGEST_SIZE = 20;
+    /**
+     * The size of the header in front of each entry's pixel data
+     */
+    private static final int ENTRY_HEADER_SIZE = DIGEST_SIZE + 24;
+
+    /**
+     * The file holding the cache
+     */
+    private final File file;
+    /**
+     * The channel used to read and write the cache file
+     */
+    private FileChannel channel;
+    /**
+     * The entries in the cache (String digest <-> Entry)
+     */
+    private final HashMap entries = new HashMap();
+    /**
+     * The number of bytes of the file used by complete entries
+     */
+    private long size;
+    /**
+     * The number of requests satisfied by the cache
+     */
+    private long hits;
+    /**
+     * The number of requests not satisfied by the cache
+     */
+    private long misses;
+
+    /**
+     * Open a disk cache, creating the file if it doesn't exist
+     *
+     * @param file The file holding the cache
+     * @throws IOException Indicates a failure to open or create the file
+     */
+    public TextureDiskCache(File file) throws IOException {
+        this.file = file;
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        readIndex();
+    }
+
+    /**
+     * Get the file holding the cache
+     *
+     * @return The file holding the cache
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get the number of textures in the cache
+     *
+     * @return The number of textures in the cache
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Get the size of the cache file
+     *
+     * @return The number of bytes used by the cache file
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of requests satisfied by the cache
+     *
+     * @return The number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests not satisfied by the cache
+     *
+     * @return The number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Remove every entry from the cache. Textures read from the cache may
+     * still be using mappings of the file, which would fault if it was
+     * truncated, so a new file is started and moved over the old one instead.
+     *
+     * @throws IOException Indicates a failure to create the new file
+     */
+    public synchronized void clear() throws IOException {
+        File fresh = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        FileChannel old = channel;
+        channel = new RandomAccessFile(fresh, "rw").getChannel();
+        entries.clear();
+        try {
+            writeHeader();
+        } catch (IOException e) {
+            channel.close();
+            channel = old;
+            fresh.delete();
+            throw e;
+        }
+        old.close();
+
+        try {
+            Files.move(fresh.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // some platforms won't replace a file that's mapped, the old file
+            // is kept for the next run and the new one used for this one
+            Log.warn("Failed to replace texture disk cache " + file + ", using " + fresh + " until exit");
+            fresh.deleteOnExit();
+        }
+    }
+
+    /**
+     * Close the cache file. Textures already read from the cache remain valid.
+     *
+     * @throws IOException Indicates a failure to close the file
+     */
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Read the whole of a stream so it can be hashed and then decoded
+     *
+     * @param in The stream to read
+     * @return The content of the stream
+     * @throws IOException Indicates a failure to read the stream
+     */
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Create the digest identifying a decode of an image
+     *
+     * @param content The content of the source image
+     * @param key The key describing the load
+     * @return The digest identifying the decoded data
+     */
+    static String createDigest(byte[] content, TextureKey key) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-1 not available", e);
+        }
+
+        digest.update(content);
+        digest.update(key.getPixelOptions().getBytes(Charset.forName("UTF-8")));
+
+        StringBuilder hex = new StringBuilder(DIGEST_SIZE * 2);
+        byte[] hash = digest.digest();
+        for (int i = 0; i < hash.length; i++) {
+            hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Get decoded texture data from the cache. The pixel data is a read only
+     * mapping of the cache file.
+     *
+     * @param digest The digest identifying the decoded data
+     * @return The decoded data or null if it isn't in the cache
+     * @throws IOException Indicates a failure to map the file
+     */
+    synchronized DecodedImageData get(String digest) throws IOException {
+        Entry entry = (Entry) entries.get(digest);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+        return new DecodedImageData(entry.depth, entry.width, entry.height, entry.texWidth, entry.texHeight,
+                buffer, null, 0);
+    }
+
+    /**
+     * Store decoded texture data in the cache
+     *
+     * @param digest The digest identifying the decoded data
+     * @param data The decoded data to store
+     * @throws IOException Indicates a failure to write the file
+     */
+    synchronized void put(String digest, DecodedImageData data) throws IOException {
+        if (data.isCompressed() || entries.containsKey(digest)) {
+            return;
+        }
+
+        ByteBuffer pixels = data.getImageBufferData().duplicate();
+        pixels.rewind();
+
+        Entry entry = new Entry();
+        entry.depth = data.getDepth();
+        entry.width = data.getWidth();
+        entry.height = data.getHeight();
+        entry.texWidth = data.getTexWidth();
+        entry.texHeight = data.getTexHeight();
+        entry.length = pixels.remaining();
+        entry.offset = size + ENTRY_HEADER_SIZE;
+
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        for (int i = 0; i < DIGEST_SIZE; i++) {
+            header.put((byte) Integer.parseInt(digest.substring(i * 2, (i * 2) + 2), 16));
+        }
+        header.putInt(entry.depth);
+        header.putInt(entry.width);
+        header.putInt(entry.height);
+        header.putInt(entry.texWidth);
+        header.putInt(entry.texHeight);
+        header.putInt(entry.length);
+        header.flip();
+
+        try {
+            write(header, size);
+            write(pixels, entry.offset);
+        } catch (IOException e) {
+            // leave the incomplete entry to be overwritten by the next one
+            channel.truncate(size);
+            throw e;
+        }
+
+        size = entry.offset + entry.length;
+        entries.put(digest, entry);
+    }
+
+    /**
+     * Write the whole of a buffer to the cache file
+     *
+     * @param buffer The buffer to write
+     * @param position The position in the file to write at
+     * @throws IOException Indicates a failure to write the file
+     */
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Start a new empty cache file. The file must not have been mapped.
+     *
+     * @throws IOException Indicates a failure to write the file
+     */
+    private void writeHeader() throws IOException {
+        channel.truncate(0);
+
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        write(header, 0);
+
+        size = FILE_HEADER_SIZE;
+    }
+
+    /**
+     * Rebuild the index of entries from the cache file
+     *
+     * @throws IOException Indicates a failure to read the file
+     */
+    private void readIndex() throws IOException {
+        long length = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+
+        header.limit(FILE_HEADER_SIZE);
+        if ((length < FILE_HEADER_SIZE) || (channel.read(header, 0) < FILE_HEADER_SIZE)
+                || (header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+            if (length > 0) {
+                Log.warn("Texture disk cache " + file + " is not a valid cache, starting a new one");
+            }
+            writeHeader();
+            return;
+        }
+
+        long position = FILE_HEADER_SIZE;
+        while (position + ENTRY_HEADER_SIZE <= length) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (channel.read(header, position + header.position()) < 0) {
+                    break;
+                }
+            }
+            header.flip();
+
+            Entry entry = new Entry();
+            StringBuilder digest = new StringBuilder(DIGEST_SIZE * 2);
+            for (int i = 0; i < DIGEST_SIZE; i++) {
+                byte b = header.get();
+                digest.append(Character.forDigit((b >> 4) & 0xF, 16));
+                digest.append(Character.forDigit(b & 0xF, 16));
+            }
+            entry.depth = header.getInt();
+            entry.width = header.getInt();
+            entry.height = header.getInt();
+            entry.texWidth = header.getInt();
+            entry.texHeight = header.getInt();
+            entry.length = header.getInt();
+            entry.offset = position + ENTRY_HEADER_SIZE;
+
+            if ((entry.length < 0) || (entry.offset + entry.length > length)) {
+                break;
+            }
+
+            entries.put(digest.toString(), entry);
+            position = entry.offset + entry.length;
+        }
+
+        if (position != length) {
+            Log.warn("Discarding incomplete entry at the end of texture disk cache " + file);
+            channel.truncate(position);
+        }
+        size = position;
+    }
+
+    /**
+     * The location and description of an entry in the cache file
+     */
+    private static class Entry {
+
+        /**
+         * The offset of the pixel data in the file
+         */
+        private long offset;
+        /**
+         * The number of bytes of pixel data
+         */
+        private int length;
+        /**
+         * The bit depth of the image
+         */
+        private int depth;
+        /**
+         * The width of the image
+         */
+        private int width;
+        /**
+         * The height of the image
+         */
+        private int height;
+        /**
+         * The width of the texture required for the image
+         */
+        private int texWidth;
+        /**
+         * The height of the texture required for the image
+         */
+        private int texHeight;
+    }
+}
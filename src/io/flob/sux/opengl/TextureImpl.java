@@ -3,6 +3,7 @@ package io.flob.sux.opengl;
 import io.flob.sux.opengl.renderer.Renderer;
 import io.flob.sux.opengl.renderer.SGL;
 import io.flob.sux.util.Log;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -77,12 +78,52 @@ public class TextureImpl implements Texture {
      * If this texture has alpha
      */
     private boolean alpha;
+    /**
+     * True if the colour channels are premultiplied by alpha
+     */
+    private boolean premultipliedAlpha;
+    /**
+     * The fence passed once OpenGL has read the uploaded pixel data, 0 if
+     * the upload is known to be complete
+     */
+    private long uploadFence;
+    /**
+     * The magnification filter the texture uses
+     */
+    private int filter = SGL.GL_LINEAR;
+    /**
+     * True if the texture is accounted for in the texture statistics
+     */
+    private boolean resident;
     /**
      * The reference this texture was loaded from
      */
     private String ref;
     /**
-     * The name the texture has in the cache
+     * The key the texture is stored against in the cache
+     */
+    private TextureKey cacheKey;
+    /**
+     * The bytes of texture memory used by this texture, or zero if not known
+     */
+    private long memoryUsage;
+    /**
+     * True if this texture must never be evicted from the cache
+     */
+    private boolean pinned;
+    /**
+     * True if this texture has been evicted from the cache and its GL texture
+     * deleted
+     */
+    private boolean evicted;
+    /**
+     * True if restoring this texture after it was evicted failed, so it isn't
+     * tried again on every bind
+     */
+    private boolean restoreFailed;
+    /**
+     * The name removed from the cache when this texture is released, or null
+     * to use the reference
      */
     private String cacheName;
 
@@ -90,6 +131,11 @@ public class TextureImpl implements Texture {
      * Data used to reload this texture
      */
     private ReloadData reloadData;
+    /**
+     * Run after the texture is reloaded to restore content given to it at
+     * runtime, or null if none
+     */
+    private Runnable reloadCallback;
 
     /**
      * For subclasses to utilise
@@ -116,11 +162,155 @@ public class TextureImpl implements Texture {
      * Set the name this texture is stored against in the cache
      *
      * @param cacheName The name the texture is stored against in the cache
+     * @deprecated Textures are stored against a key made from their resource
+     * and loading options by the loader. This only sets the resource whose
+     * textures are removed from the cache when this one is released.
      */
+    @Deprecated
     public void setCacheName(String cacheName) {
         this.cacheName = cacheName;
     }
 
+    /**
+     * Set the key this texture is stored against in the cache
+     *
+     * @param cacheKey The key the texture is stored against in the cache
+     */
+    void setCacheKey(TextureKey cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * Get the key this texture is stored against in the cache
+     *
+     * @return The key the texture is stored against or null if it isn't cached
+     */
+    TextureKey getCacheKey() {
+        return cacheKey;
+    }
+
+    /**
+     * Check if this texture holds the data it can be reloaded from
+     *
+     * @return True if the texture data is held
+     */
+    boolean hasTextureData() {
+        return reloadData != null;
+    }
+
+    /**
+     * Set the bytes of texture memory used by this texture
+     *
+     * @param memoryUsage The bytes of texture memory used by this texture
+     */
+    void setMemoryUsage(long memoryUsage) {
+        this.memoryUsage = memoryUsage;
+    }
+
+    /**
+     * Get the bytes of texture memory used by this texture. If the loader
+     * didn't record it, it is estimated from the texture size at four bytes a
+     * pixel.
+     *
+     * @return The bytes of texture memory used by this texture
+     */
+    public long getMemoryUsage() {
+        if (memoryUsage == 0) {
+            return (long) texWidth * texHeight * 4;
+        }
+
+        return memoryUsage;
+    }
+
+    /**
+     * Get the bytes of texture memory wasted padding the image out to the
+     * size of the texture
+     *
+     * @return The bytes of texture memory used by padding
+     */
+    public long getPaddingUsage() {
+        long texels = (long) texWidth * texHeight;
+        if (texels == 0) {
+            return 0;
+        }
+
+        long memory = getMemoryUsage();
+        return memory - ((memory * width * height) / texels);
+    }
+
+    /**
+     * Get the magnification filter the texture uses
+     *
+     * @return The magnification filter
+     */
+    public int getFilter() {
+        return filter;
+    }
+
+    /**
+     * Set the magnification filter the texture was created with
+     *
+     * @param filter The magnification filter
+     */
+    void setFilter(int filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Indicate whether the texture is in texture memory, keeping the texture
+     * statistics up to date
+     *
+     * @param resident True if the texture is in texture memory
+     */
+    void setResident(boolean resident) {
+        if (this.resident == resident) {
+            return;
+        }
+
+        this.resident = resident;
+        if (resident) {
+            TextureStats.get().added(this);
+        } else {
+            TextureStats.get().removed(this);
+        }
+    }
+
+    /**
+     * Indicate whether this texture must never be evicted from the cache
+     *
+     * @param pinned True if this texture must never be evicted
+     */
+    void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    /**
+     * Check if this texture must never be evicted from the cache
+     *
+     * @return True if this texture must never be evicted
+     */
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * Check if this texture has been evicted from the cache. An evicted
+     * texture that holds its texture data is restored when next bound.
+     *
+     * @return True if this texture has been evicted
+     */
+    public boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Delete the GL texture because the cache has evicted this texture
+     */
+    void evict() {
+        deleteTexture();
+        evicted = true;
+    }
+
     @Override
     public boolean hasAlpha() {
         return alpha;
@@ -140,6 +330,57 @@ public class TextureImpl implements Texture {
         this.alpha = alpha;
     }
 
+    @Override
+    public boolean isPremultipliedAlpha() {
+        return premultipliedAlpha;
+    }
+
+    /**
+     * Check if OpenGL has finished reading the pixel data uploaded for this
+     * texture. Textures uploaded through a pixel buffer object can be drawn
+     * straight away but the transfer may still be in progress, which this
+     * checks without waiting.
+     *
+     * @return True if the upload has completed
+     */
+    public boolean isUploadComplete() {
+        if ((uploadFence != 0) && PixelBufferRing.isSignalled(uploadFence)) {
+            setUploadFence(0);
+        }
+
+        return uploadFence == 0;
+    }
+
+    /**
+     * Set the fence that will be passed once OpenGL has read the uploaded pixel
+     * data, deleting any previous fence
+     *
+     * @param uploadFence The fence or 0 if the upload is complete
+     */
+    void setUploadFence(long uploadFence) {
+        if (this.uploadFence != 0) {
+            GL.glDeleteSync(this.uploadFence);
+        }
+        this.uploadFence = uploadFence;
+    }
+
+    /**
+     * Forget the upload fence without deleting it, used when the GL context it
+     * was created in has been lost
+     */
+    void lostUploadFence() {
+        uploadFence = 0;
+    }
+
+    /**
+     * Indicate if this texture's colour channels are premultiplied by alpha
+     *
+     * @param premultipliedAlpha True if the colour is premultiplied by alpha
+     */
+    public void setPremultipliedAlpha(boolean premultipliedAlpha) {
+        this.premultipliedAlpha = premultipliedAlpha;
+    }
+
     /**
      * Clear the binding of the texture
      */
@@ -158,6 +399,15 @@ public class TextureImpl implements Texture {
 
     @Override
     public void bind() {
+        if (evicted) {
+            if (!restoreFailed) {
+                restore();
+            }
+            if (evicted) {
+                bindNone();
+                return;
+            }
+        }
         if (lastBind != this) {
             lastBind = this;
             GL.glEnable(SGL.GL_TEXTURE_2D);
@@ -205,6 +455,16 @@ public class TextureImpl implements Texture {
         return widthRatio;
     }
 
+    @Override
+    public float getOffsetX() {
+        return 0;
+    }
+
+    @Override
+    public float getOffsetY() {
+        return 0;
+    }
+
     @Override
     public int getTextureHeight() {
         return texHeight;
@@ -255,20 +515,54 @@ public class TextureImpl implements Texture {
 
     @Override
     public void release() {
+        if (!evicted) {
+            deleteTexture();
+        }
+        discardTextureData();
+        setReloadCallback(null);
+
+        if (cacheKey != null) {
+            InternalTextureLoader.get().getCache().remove(cacheKey, this);
+        } else {
+            InternalTextureLoader.get().clear(cacheName != null ? cacheName : ref);
+        }
+    }
+
+    /**
+     * Delete the GL texture backing this texture
+     */
+    private void deleteTexture() {
+        // clearing the binding flushes anything batched against the texture
+        // before it's deleted
+        if (lastBind == this) {
+            bindNone();
+        }
+
         IntBuffer texBuf = createIntBuffer(1);
         texBuf.put(textureID);
         texBuf.flip();
 
         GL.glDeleteTextures(texBuf);
+        setUploadFence(0);
+        setResident(false);
+    }
 
-        if (lastBind == this) {
-            bindNone();
+    /**
+     * Restore a texture that was evicted from the cache, re-uploading it from
+     * the held texture data if there is any or otherwise from it's source. If
+     * this fails the texture is drawn untextured and not restored again.
+     */
+    private void restore() {
+        if (((reloadData == null) || !reloadHeld())
+                && ((cacheKey == null) || !InternalTextureLoader.get().reloadFromSource(this))) {
+            Log.warn("Failed to restore evicted texture, it will be drawn untextured: " + ref);
+            restoreFailed = true;
+            return;
         }
 
-        if (cacheName != null) {
-            InternalTextureLoader.get().clear(cacheName);
-        } else {
-            InternalTextureLoader.get().clear(ref);
+        evicted = false;
+        if (cacheKey != null) {
+            InternalTextureLoader.get().getCache().put(cacheKey, this);
         }
     }
 
@@ -302,7 +596,19 @@ public class TextureImpl implements Texture {
 
     @Override
     public byte[] getTextureData() {
-        ByteBuffer buffer = BufferUtils.createByteBuffer((hasAlpha() ? 4 : 3) * texWidth * texHeight);
+        int length = (hasAlpha() ? 4 : 3) * texWidth * texHeight;
+        if ((reloadData != null) && (reloadData.compressedFormat == 0) && (reloadData.packedFormat == 0)
+                && (reloadData.data.getLength(0) == length)) {
+            // the held copy saves reading the texture back from the card
+            try {
+                return reloadData.data.inflateTop();
+            } catch (IOException e) {
+                Log.error("Discarding corrupt held texture data: " + ref, e);
+                discardTextureData();
+            }
+        }
+
+        ByteBuffer buffer = BufferUtils.createByteBuffer(length);
         bind();
         GL.glGetTexImage(SGL.GL_TEXTURE_2D, 0, hasAlpha() ? SGL.GL_RGBA : SGL.GL_RGB, SGL.GL_UNSIGNED_BYTE,
                 buffer);
@@ -318,6 +624,13 @@ public class TextureImpl implements Texture {
         bind();
         GL.glTexParameteri(target, SGL.GL_TEXTURE_MIN_FILTER, textureFilter);
         GL.glTexParameteri(target, SGL.GL_TEXTURE_MAG_FILTER, textureFilter);
+
+        if (resident && (filter != textureFilter)) {
+            setResident(false);
+            filter = textureFilter;
+            setResident(true);
+        }
+        filter = textureFilter;
     }
 
     /**
@@ -332,21 +645,207 @@ public class TextureImpl implements Texture {
      */
     public void setTextureData(int srcPixelFormat, int componentCount,
             int minFilter, int magFilter, ByteBuffer textureBuffer) {
+        setTextureData(srcPixelFormat, componentCount, minFilter, magFilter, textureBuffer, null);
+    }
+
+    /**
+     * Set the texture data and mip map chain that this texture can be
+     * reloaded from. The data is copied and held compressed, so the buffers
+     * may be reused once this returns. If holding it would exceed the loader's
+     * held texture data limit the texture is reloaded from it's source
+     * instead.
+     *
+     * @param srcPixelFormat The pixel format
+     * @param componentCount The component count
+     * @param minFilter The OpenGL minification filter
+     * @param magFilter The OpenGL magnification filter
+     * @param textureBuffer The texture buffer containing the data for the
+     * texture
+     * @param mipMaps The mip map chain with the texture buffer at index 0, or
+     * null if none
+     */
+    public void setTextureData(int srcPixelFormat, int componentCount,
+            int minFilter, int magFilter, ByteBuffer textureBuffer, ByteBuffer[] mipMaps) {
+        setTextureData(compress(mipMaps == null ? new ByteBuffer[]{textureBuffer} : mipMaps), srcPixelFormat,
+                componentCount, minFilter, magFilter, mipMaps != null);
+    }
+
+    /**
+     * Set the already compressed texture data that this texture can be
+     * reloaded from
+     *
+     * @param held The held data or null to hold none
+     * @param srcPixelFormat The pixel format
+     * @param componentCount The component count
+     * @param minFilter The OpenGL minification filter
+     * @param magFilter The OpenGL magnification filter
+     * @param mipMapped True if the held levels are a mip map chain
+     */
+    void setTextureData(HeldTextureData held, int srcPixelFormat, int componentCount,
+            int minFilter, int magFilter, boolean mipMapped) {
+        ReloadData data = hold(held);
+        if (data != null) {
+            data.srcPixelFormat = srcPixelFormat;
+            data.componentCount = componentCount;
+            data.minFilter = minFilter;
+            data.magFilter = magFilter;
+            data.mipMapped = mipMapped;
+        }
+    }
+
+    /**
+     * Set the compressed texture data that this texture can be reloaded from.
+     * The data is copied as for setTextureData().
+     *
+     * @param internalFormat The compressed internal format of the data
+     * @param minFilter The OpenGL minification filter
+     * @param magFilter The OpenGL magnification filter
+     * @param levels The compressed mip map levels with the top level at index
+     * 0
+     */
+    public void setCompressedTextureData(int internalFormat, int minFilter, int magFilter, ByteBuffer[] levels) {
+        setCompressedTextureData(compress(levels), internalFormat, minFilter, magFilter);
+    }
+
+    /**
+     * Set the already compressed copy of block compressed texture data that
+     * this texture can be reloaded from
+     *
+     * @param held The held data or null to hold none
+     * @param internalFormat The compressed internal format of the data
+     * @param minFilter The OpenGL minification filter
+     * @param magFilter The OpenGL magnification filter
+     */
+    void setCompressedTextureData(HeldTextureData held, int internalFormat, int minFilter, int magFilter) {
+        ReloadData data = hold(held);
+        if (data != null) {
+            data.compressedFormat = internalFormat;
+            data.minFilter = minFilter;
+            data.magFilter = magFilter;
+        }
+    }
+
+    /**
+     * Set the packed 16 bit texture data that this texture can be reloaded
+     * from. The data is copied as for setTextureData().
+     *
+     * @param packedFormat The packed internal format of the data
+     * @param minFilter The OpenGL minification filter
+     * @param magFilter The OpenGL magnification filter
+     * @param levels The packed mip map levels with the top level at index 0
+     */
+    public void setPackedTextureData(int packedFormat, int minFilter, int magFilter, ByteBuffer[] levels) {
+        setPackedTextureData(compress(levels), packedFormat, minFilter, magFilter);
+    }
+
+    /**
+     * Set the already compressed copy of packed 16 bit texture data that this
+     * texture can be reloaded from
+     *
+     * @param held The held data or null to hold none
+     * @param packedFormat The packed internal format of the data
+     * @param minFilter The OpenGL minification filter
+     * @param magFilter The OpenGL magnification filter
+     */
+    void setPackedTextureData(HeldTextureData held, int packedFormat, int minFilter, int magFilter) {
+        ReloadData data = hold(held);
+        if (data != null) {
+            data.packedFormat = packedFormat;
+            data.minFilter = minFilter;
+            data.magFilter = magFilter;
+        }
+    }
+
+    /**
+     * Compress texture data to be held, discarding any held before so it
+     * doesn't count towards the limit
+     *
+     * @param levels The levels of the texture with the top level at index 0
+     * @return The held data or null if the data couldn't be held
+     */
+    private HeldTextureData compress(ByteBuffer[] levels) {
+        discardTextureData();
+
+        return InternalTextureLoader.get().hold(ref, levels);
+    }
+
+    /**
+     * Hold compressed texture data, replacing any held before
+     *
+     * @param held The held data or null to hold none
+     * @return The reload data to fill in or null if there's no data to hold
+     */
+    private ReloadData hold(HeldTextureData held) {
+        discardTextureData();
+        if (held == null) {
+            return null;
+        }
+
         reloadData = new ReloadData();
-        reloadData.srcPixelFormat = srcPixelFormat;
-        reloadData.componentCount = componentCount;
-        reloadData.minFilter = minFilter;
-        reloadData.magFilter = magFilter;
-        reloadData.textureBuffer = textureBuffer;
+        reloadData.data = held;
+        return reloadData;
+    }
+
+    /**
+     * Stop holding the texture data, if any
+     */
+    private void discardTextureData() {
+        if (reloadData != null) {
+            reloadData.data.discard();
+            reloadData = null;
+        }
+    }
+
+    /**
+     * Set the code run after this texture is reloaded to restore content given
+     * to it at runtime, such as pixels written with glTexSubImage2D, which
+     * neither held texture data nor a source can recreate. The texture is
+     * reloaded by InternalTextureLoader.reload() while a callback is set, and
+     * it's storage recreated empty if no data is held.
+     *
+     * @param reloadCallback The code to run on the GL thread after a reload,
+     * or null for none
+     */
+    public void setReloadCallback(Runnable reloadCallback) {
+        this.reloadCallback = reloadCallback;
+        if (cacheKey == null) {
+            InternalTextureLoader.get().setRestorable(this, reloadCallback != null);
+        }
     }
 
     /**
      * Reload this texture
      */
     public void reload() {
-        if (reloadData != null) {
+        boolean held = (reloadData != null) && reloadHeld();
+        if (!held && (reloadCallback != null)) {
+            textureID = InternalTextureLoader.get().reload(this, hasAlpha() ? SGL.GL_RGBA : SGL.GL_RGB,
+                    hasAlpha() ? 4 : 3, filter, filter, null);
+            setResident(true);
+        }
+
+        if (reloadCallback != null) {
+            reloadCallback.run();
+        }
+    }
+
+    /**
+     * Reload this texture from the held texture data, discarding the data if
+     * it's corrupt
+     *
+     * @return True if the texture was reloaded
+     */
+    private boolean reloadHeld() {
+        try {
             textureID = reloadData.reload();
+        } catch (IOException e) {
+            Log.error("Discarding corrupt held texture data: " + ref, e);
+            discardTextureData();
+            return false;
         }
+
+        setResident(true);
+        return true;
     }
 
     /**
@@ -371,18 +870,42 @@ public class TextureImpl implements Texture {
          */
         private int magFilter;
         /**
-         * The texture buffer of pixel data
+         * The held levels of pixel data
+         */
+        private HeldTextureData data;
+        /**
+         * True if the held levels are a mip map chain
+         */
+        private boolean mipMapped;
+        /**
+         * The compressed internal format or 0 if uncompressed
+         */
+        private int compressedFormat;
+        /**
+         * The packed 16 bit internal format or 0 if 8 bits per channel
          */
-        private ByteBuffer textureBuffer;
+        private int packedFormat;
 
         /**
          * Reload this texture
          *
          * @return The new texture ID assigned to this texture
+         * @throws IOException Indicates the held data is corrupt
          */
-        public int reload() {
+        public int reload() throws IOException {
             Log.error("Reloading texture: " + ref);
-            return InternalTextureLoader.get().reload(TextureImpl.this, srcPixelFormat, componentCount, minFilter, magFilter, textureBuffer);
+            ByteBuffer[] levels = data.inflate();
+            try {
+                if (compressedFormat != 0) {
+                    return InternalTextureLoader.get().reloadCompressed(TextureImpl.this, compressedFormat, minFilter, magFilter, levels);
+                }
+                if (packedFormat != 0) {
+                    return InternalTextureLoader.get().reloadPacked(TextureImpl.this, packedFormat, minFilter, magFilter, levels);
+                }
+                return InternalTextureLoader.get().reload(TextureImpl.this, srcPixelFormat, componentCount, minFilter, magFilter, levels[0], mipMapped ? levels : null);
+            } finally {
+                HeldTextureData.release(levels);
+            }
         }
     }
 }
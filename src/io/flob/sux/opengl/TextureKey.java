@@ -0,0 +1,229 @@
+package io.flob.sux.opengl;
+
+import java.util.Arrays;
+
+/**
+ * The key a texture is stored against in the texture cache. Two loads produce
+ * the same texture only when the resource and every option that changes the
+ * uploaded pixels or sampling match.
+ *
+ * @author agent
+ */
+final class TextureKey {
+
+    /**
+     * The name of the resource the texture was loaded from
+     */
+    private final String resourceName;
+    /**
+     * The filter the texture was loaded with
+     */
+    private final int filter;
+    /**
+     * True if the image was flipped on the y-axis while loading
+     */
+    private final boolean flipped;
+    /**
+     * The colour interpreted as transparent or null if none
+     */
+    private final int[] transparent;
+    /**
+     * True if the texture was padded to power of two dimensions
+     */
+    private final boolean powerOfTwo;
+    /**
+     * True if a mip map chain was generated for the texture
+     */
+    private final boolean mipMapped;
+    /**
+     * True if the colour channels were premultiplied by alpha
+     */
+    private final boolean premultiplied;
+    /**
+     * The packed 16 bit internal format or 0 if 8 bits per channel
+     */
+    private final int packedFormat;
+    /**
+     * The dithering applied when packing
+     */
+    private final int dithering;
+    /**
+     * The cached hash code
+     */
+    private final int hash;
+
+    /**
+     * Create a new key
+     *
+     * @param resourceName The name of the resource the texture was loaded from
+     * @param filter The filter the texture was loaded with
+     * @param flipped True if the image was flipped on the y-axis while loading
+     * @param transparent The colour interpreted as transparent or null if none
+     * @param powerOfTwo True if the texture was padded to power of two
+     * dimensions
+     * @param mipMapped True if a mip map chain was generated for the texture
+     * @param premultiplied True if the colour channels were premultiplied by
+     * alpha
+     * @param packedFormat The packed 16 bit internal format or 0 if 8 bits per
+     * channel
+     * @param dithering The dithering applied when packing
+     */
+    TextureKey(String resourceName, int filter, boolean flipped, int[] transparent, boolean powerOfTwo, boolean mipMapped,
+            boolean premultiplied, int packedFormat, int dithering) {
+        this.resourceName = resourceName;
+        this.filter = filter;
+        this.flipped = flipped;
+        this.transparent = transparent == null ? null : new int[]{transparent[0], transparent[1], transparent[2]};
+        this.powerOfTwo = powerOfTwo;
+        this.mipMapped = mipMapped;
+        this.premultiplied = premultiplied;
+        this.packedFormat = packedFormat;
+        this.dithering = packedFormat == 0 ? InternalTextureLoader.DITHER_NONE : dithering;
+
+        int h = resourceName.hashCode();
+        h = (31 * h) + filter;
+        h = (31 * h) + (flipped ? 1 : 0);
+        h = (31 * h) + Arrays.hashCode(this.transparent);
+        h = (31 * h) + (powerOfTwo ? 1 : 0);
+        h = (31 * h) + (mipMapped ? 1 : 0);
+        h = (31 * h) + (premultiplied ? 1 : 0);
+        h = (31 * h) + packedFormat;
+        h = (31 * h) + this.dithering;
+        hash = h;
+    }
+
+    /**
+     * Get the name of the resource the texture was loaded from
+     *
+     * @return The name of the resource the texture was loaded from
+     */
+    String getResourceName() {
+        return resourceName;
+    }
+
+    /**
+     * Get the filter the texture was loaded with
+     *
+     * @return The filter the texture was loaded with
+     */
+    int getFilter() {
+        return filter;
+    }
+
+    /**
+     * Check if the image was flipped on the y-axis while loading
+     *
+     * @return True if the image was flipped on the y-axis while loading
+     */
+    boolean isFlipped() {
+        return flipped;
+    }
+
+    /**
+     * Get the colour interpreted as transparent
+     *
+     * @return The colour interpreted as transparent or null if none
+     */
+    int[] getTransparent() {
+        return transparent;
+    }
+
+    /**
+     * Check if the texture was padded to power of two dimensions
+     *
+     * @return True if the texture was padded to power of two dimensions
+     */
+    boolean isPowerOfTwo() {
+        return powerOfTwo;
+    }
+
+    /**
+     * Check if a mip map chain was generated for the texture
+     *
+     * @return True if a mip map chain was generated for the texture
+     */
+    boolean isMipMapped() {
+        return mipMapped;
+    }
+
+    /**
+     * Check if the colour channels were premultiplied by alpha
+     *
+     * @return True if the colour channels were premultiplied by alpha
+     */
+    boolean isPremultiplied() {
+        return premultiplied;
+    }
+
+    /**
+     * Get the packed 16 bit format the texture was converted to
+     *
+     * @return The packed internal format or 0 if 8 bits per channel
+     */
+    int getPackedFormat() {
+        return packedFormat;
+    }
+
+    /**
+     * Get the dithering applied when packing the texture
+     *
+     * @return One of the InternalTextureLoader.DITHER_ constants
+     */
+    int getDithering() {
+        return dithering;
+    }
+
+    /**
+     * Get a description of the options that change the decoded pixels, as
+     * opposed to how they are uploaded or sampled
+     *
+     * @return The description of the options affecting the decoded pixels
+     */
+    String getPixelOptions() {
+        String options = "flipped=" + flipped + ",pot=" + powerOfTwo;
+        if (transparent != null) {
+            options += ",transparent=" + transparent[0] + ":" + transparent[1] + ":" + transparent[2];
+        }
+        if (premultiplied) {
+            options += ",premultiplied";
+        }
+        return options;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof TextureKey)) {
+            return false;
+        }
+
+        TextureKey key = (TextureKey) other;
+        return (hash == key.hash)
+                && (filter == key.filter)
+                && (flipped == key.flipped)
+                && (powerOfTwo == key.powerOfTwo)
+                && (mipMapped == key.mipMapped)
+                && (premultiplied == key.premultiplied)
+                && (packedFormat == key.packedFormat)
+                && (dithering == key.dithering)
+                && resourceName.equals(key.resourceName)
+                && Arrays.equals(transparent, key.transparent);
+    }
+
+    @Override
+    public String toString() {
+        String name = resourceName;
+        if (transparent != null) {
+            name += ":" + transparent[0] + ":" + transparent[1] + ":" + transparent[2];
+        }
+        return name + ":" + flipped + ":" + filter + (powerOfTwo ? "" : ":npot") + (mipMapped ? ":mipmap" : "")
+                + (premultiplied ? ":premultiplied" : "") + (packedFormat != 0 ? ":packed" + packedFormat + ":" + dithering : "");
+    }
+}
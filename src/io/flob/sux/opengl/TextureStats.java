@@ -0,0 +1,389 @@
+package io.flob.sux.opengl;
+
+import io.flob.sux.opengl.renderer.SGL;
+import io.flob.sux.util.Log;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Statistics of the texture memory used by SUX and the time spent loading
+ * textures. Every texture resident in texture memory is accounted for,
+ * including the memory wasted by padding images to power of two textures, so
+ * budgets can be set and wasteful assets found. The statistics can be read at
+ * runtime or exported over JMX with register().
+ *
+ * @author agent
+ */
+public class TextureStats implements TextureStatsMXBean {
+
+    /**
+     * The name the statistics are registered under with JMX
+     */
+    public static final String OBJECT_NAME = "io.flob.sux:type=TextureStats";
+    /**
+     * The number of textures listed by the largest and most padded reports
+     */
+    private static final int REPORT_SIZE = 10;
+
+    /**
+     * The single instance of the statistics
+     */
+    private static final TextureStats stats = new TextureStats();
+
+    /**
+     * Get the single instance of the statistics
+     *
+     * @return The single instance of the statistics
+     */
+    public static TextureStats get() {
+        return stats;
+    }
+
+    /**
+     * The resident textures and the memory recorded for them (TextureImpl <->
+     * Entry)
+     */
+    private final HashMap textures = new HashMap();
+    /**
+     * The bytes of texture memory used by resident textures
+     */
+    private long totalBytes;
+    /**
+     * The largest number of bytes used at once
+     */
+    private long peakBytes;
+    /**
+     * The bytes of texture memory used by padding
+     */
+    private long paddingBytes;
+    /**
+     * The bytes of texture memory used by linear filtered textures
+     */
+    private long linearBytes;
+    /**
+     * The bytes of texture memory used by nearest filtered textures
+     */
+    private long nearestBytes;
+    /**
+     * The number of images decoded
+     */
+    private long decodeCount;
+    /**
+     * The total time spent decoding in nanoseconds
+     */
+    private long decodeNanos;
+    /**
+     * The longest decode in nanoseconds
+     */
+    private long maxDecodeNanos;
+    /**
+     * The number of textures uploaded
+     */
+    private long uploadCount;
+    /**
+     * The total time spent uploading in nanoseconds
+     */
+    private long uploadNanos;
+    /**
+     * The longest upload in nanoseconds
+     */
+    private long maxUploadNanos;
+
+    /**
+     * Create the statistics
+     */
+    private TextureStats() {
+    }
+
+    /**
+     * Register the statistics with the platform MBean server so they can be
+     * monitored over JMX. Does nothing if they're already registered.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(stats, name);
+            }
+        } catch (JMException e) {
+            Log.warn("Failed to register texture statistics with JMX", e);
+        }
+    }
+
+    @Override
+    public synchronized int getTextureCount() {
+        return textures.size();
+    }
+
+    @Override
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    @Override
+    public synchronized long getPaddingBytes() {
+        return paddingBytes;
+    }
+
+    @Override
+    public synchronized long getLinearBytes() {
+        return linearBytes;
+    }
+
+    @Override
+    public synchronized long getNearestBytes() {
+        return nearestBytes;
+    }
+
+    @Override
+    public synchronized long getDecodeCount() {
+        return decodeCount;
+    }
+
+    @Override
+    public synchronized double getDecodeMillis() {
+        return decodeNanos / 1000000.0;
+    }
+
+    @Override
+    public synchronized double getMaxDecodeMillis() {
+        return maxDecodeNanos / 1000000.0;
+    }
+
+    @Override
+    public synchronized long getUploadCount() {
+        return uploadCount;
+    }
+
+    @Override
+    public synchronized double getUploadMillis() {
+        return uploadNanos / 1000000.0;
+    }
+
+    @Override
+    public synchronized double getMaxUploadMillis() {
+        return maxUploadNanos / 1000000.0;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return InternalTextureLoader.get().getCache().getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return InternalTextureLoader.get().getCache().getMisses();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return InternalTextureLoader.get().getCache().getEvictions();
+    }
+
+    @Override
+    public String[] getLargestTextures() {
+        return report(new Comparator() {
+            @Override
+            public int compare(Object a, Object b) {
+                return Long.compare(((Entry) b).bytes, ((Entry) a).bytes);
+            }
+        }, false);
+    }
+
+    @Override
+    public String[] getMostPaddedTextures() {
+        return report(new Comparator() {
+            @Override
+            public int compare(Object a, Object b) {
+                return Long.compare(((Entry) b).padding, ((Entry) a).padding);
+            }
+        }, true);
+    }
+
+    @Override
+    public synchronized void resetStatistics() {
+        decodeCount = 0;
+        decodeNanos = 0;
+        maxDecodeNanos = 0;
+        uploadCount = 0;
+        uploadNanos = 0;
+        maxUploadNanos = 0;
+        peakBytes = totalBytes;
+    }
+
+    /**
+     * Get the texture memory used by textures with a given filter
+     *
+     * @param filter The magnification filter, SGL.GL_LINEAR or SGL.GL_NEAREST
+     * @return The number of bytes used by textures with the filter
+     */
+    public synchronized long getBytes(int filter) {
+        return filter == SGL.GL_NEAREST ? nearestBytes : linearBytes;
+    }
+
+    /**
+     * Get the resident textures
+     *
+     * @return The list of resident textures
+     */
+    public synchronized ArrayList getTextures() {
+        return new ArrayList(textures.keySet());
+    }
+
+    /**
+     * Notification that a texture has been created in texture memory
+     *
+     * @param texture The texture created
+     */
+    synchronized void added(TextureImpl texture) {
+        if (textures.containsKey(texture)) {
+            return;
+        }
+
+        Entry entry = new Entry();
+        entry.ref = texture.getTextureRef();
+        entry.width = texture.getImageWidth();
+        entry.height = texture.getImageHeight();
+        entry.texWidth = texture.getTextureWidth();
+        entry.texHeight = texture.getTextureHeight();
+        entry.bytes = texture.getMemoryUsage();
+        entry.padding = texture.getPaddingUsage();
+        entry.nearest = texture.getFilter() == SGL.GL_NEAREST;
+        textures.put(texture, entry);
+
+        totalBytes += entry.bytes;
+        paddingBytes += entry.padding;
+        if (entry.nearest) {
+            nearestBytes += entry.bytes;
+        } else {
+            linearBytes += entry.bytes;
+        }
+        peakBytes = Math.max(peakBytes, totalBytes);
+    }
+
+    /**
+     * Notification that a texture has been deleted from texture memory
+     *
+     * @param texture The texture deleted
+     */
+    synchronized void removed(TextureImpl texture) {
+        Entry entry = (Entry) textures.remove(texture);
+        if (entry == null) {
+            return;
+        }
+
+        totalBytes -= entry.bytes;
+        paddingBytes -= entry.padding;
+        if (entry.nearest) {
+            nearestBytes -= entry.bytes;
+        } else {
+            linearBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Record the time taken to decode an image
+     *
+     * @param nanos The time taken in nanoseconds
+     */
+    synchronized void decoded(long nanos) {
+        decodeCount++;
+        decodeNanos += nanos;
+        maxDecodeNanos = Math.max(maxDecodeNanos, nanos);
+    }
+
+    /**
+     * Record the time taken to upload a texture
+     *
+     * @param nanos The time taken in nanoseconds
+     */
+    synchronized void uploaded(long nanos) {
+        uploadCount++;
+        uploadNanos += nanos;
+        maxUploadNanos = Math.max(maxUploadNanos, nanos);
+    }
+
+    /**
+     * Describe the first few resident textures in a given order
+     *
+     * @param order The order to list the textures in
+     * @param padded True if only textures with padding should be listed
+     * @return The descriptions of the textures
+     */
+    private String[] report(Comparator order, boolean padded) {
+        ArrayList entries;
+        synchronized (this) {
+            entries = new ArrayList(textures.values());
+        }
+
+        if (padded) {
+            for (Iterator i = entries.iterator(); i.hasNext();) {
+                if (((Entry) i.next()).padding == 0) {
+                    i.remove();
+                }
+            }
+        }
+        Collections.sort(entries, order);
+
+        String[] report = new String[Math.min(REPORT_SIZE, entries.size())];
+        for (int i = 0; i < report.length; i++) {
+            Entry entry = (Entry) entries.get(i);
+            report[i] = entry.ref + " " + entry.width + "x" + entry.height + " in " + entry.texWidth + "x"
+                    + entry.texHeight + ": " + entry.bytes + " bytes, " + entry.padding + " padding";
+        }
+
+        return report;
+    }
+
+    /**
+     * The memory recorded for a resident texture
+     */
+    private static class Entry {
+
+        /**
+         * The reference the texture was loaded from
+         */
+        private String ref;
+        /**
+         * The width of the image
+         */
+        private int width;
+        /**
+         * The height of the image
+         */
+        private int height;
+        /**
+         * The width of the texture
+         */
+        private int texWidth;
+        /**
+         * The height of the texture
+         */
+        private int texHeight;
+        /**
+         * The bytes of texture memory used
+         */
+        private long bytes;
+        /**
+         * The bytes of texture memory used by padding
+         */
+        private long padding;
+        /**
+         * True if the texture uses nearest filtering
+         */
+        private boolean nearest;
+    }
+}
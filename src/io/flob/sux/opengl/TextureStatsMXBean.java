@@ -0,0 +1,137 @@
+package io.flob.sux.opengl;
+
+/**
+ * The management interface of the texture statistics, as exported over JMX by
+ * TextureStats.register()
+ *
+ * @author agent
+ */
+public interface TextureStatsMXBean {
+
+    /**
+     * Get the number of textures resident in texture memory
+     *
+     * @return The number of resident textures
+     */
+    public int getTextureCount();
+
+    /**
+     * Get the texture memory used by the resident textures
+     *
+     * @return The number of bytes of texture memory used
+     */
+    public long getTotalBytes();
+
+    /**
+     * Get the largest amount of texture memory that has been used at once
+     *
+     * @return The peak number of bytes of texture memory used
+     */
+    public long getPeakBytes();
+
+    /**
+     * Get the texture memory wasted padding images out to power of two
+     * textures
+     *
+     * @return The number of bytes used by padding
+     */
+    public long getPaddingBytes();
+
+    /**
+     * Get the texture memory used by textures with linear filtering
+     *
+     * @return The number of bytes used by linear filtered textures
+     */
+    public long getLinearBytes();
+
+    /**
+     * Get the texture memory used by textures with nearest filtering
+     *
+     * @return The number of bytes used by nearest filtered textures
+     */
+    public long getNearestBytes();
+
+    /**
+     * Get the number of images decoded
+     *
+     * @return The number of images decoded
+     */
+    public long getDecodeCount();
+
+    /**
+     * Get the total time spent decoding images
+     *
+     * @return The time spent decoding in milliseconds
+     */
+    public double getDecodeMillis();
+
+    /**
+     * Get the longest time spent decoding a single image
+     *
+     * @return The longest decode in milliseconds
+     */
+    public double getMaxDecodeMillis();
+
+    /**
+     * Get the number of textures uploaded
+     *
+     * @return The number of textures uploaded
+     */
+    public long getUploadCount();
+
+    /**
+     * Get the total time spent uploading textures
+     *
+     * @return The time spent uploading in milliseconds
+     */
+    public double getUploadMillis();
+
+    /**
+     * Get the longest time spent uploading a single texture
+     *
+     * @return The longest upload in milliseconds
+     */
+    public double getMaxUploadMillis();
+
+    /**
+     * Get the number of texture requests satisfied by the texture cache
+     *
+     * @return The number of cache hits
+     */
+    public long getCacheHits();
+
+    /**
+     * Get the number of texture requests not satisfied by the texture cache
+     *
+     * @return The number of cache misses
+     */
+    public long getCacheMisses();
+
+    /**
+     * Get the number of textures evicted from the texture cache to stay inside
+     * it's budget
+     *
+     * @return The number of textures evicted
+     */
+    public long getCacheEvictions();
+
+    /**
+     * Get a description of the resident textures using the most memory
+     *
+     * @return The descriptions, largest first
+     */
+    public String[] getLargestTextures();
+
+    /**
+     * Get a description of the resident textures wasting the most memory on
+     * padding
+     *
+     * @return The descriptions, most wasteful first
+     */
+    public String[] getMostPaddedTextures();
+
+    /**
+     * Reset the load counters and times, and the peak memory usage
+     */
+    public void resetStatistics();
+}
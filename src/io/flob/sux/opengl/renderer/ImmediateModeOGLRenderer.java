@@ -7,9 +7,16 @@ import java.nio.IntBuffer;
 import org.lwjgl.opengl.EXTSecondaryColor;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
+import org.lwjgl.opengl.GLCapabilities;
 
 /**
- * The default OpenGL renderer, uses immediate mode for everything
+ * The default OpenGL renderer, uses immediate mode for everything. Whether
+ * blending and the alpha test are enabled, and the alpha test function, are
+ * cached as they're set so querying them doesn't wait for the pipeline.
  *
  * @author kevin
  */
@@ -31,6 +38,27 @@ public class ImmediateModeOGLRenderer implements SGL {
      * The global colour scale
      */
     protected float alphaScale = 1;
+    /**
+     * Whether blending is enabled, or null if unknown
+     */
+    private Boolean blend;
+    /**
+     * Whether the alpha test is enabled, or null if unknown
+     */
+    private Boolean alphaTest;
+    /**
+     * The alpha test function last set, or 0 if unknown
+     */
+    private int alphaFunc;
+    /**
+     * The alpha test reference value last set, or NaN if unknown
+     */
+    private float alphaRef = Float.NaN;
+    /**
+     * The number of display lists being compiled, while state set isn't
+     * known to take effect
+     */
+    private int lists;
 
     @Override
     public void initDisplay(int width, int height) {
@@ -47,6 +75,8 @@ public class ImmediateModeOGLRenderer implements SGL {
 
         GL11.glEnable(GL11.GL_BLEND);
         GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);
+        clearStateCache();
+        blend = Boolean.TRUE;
 
         GL11.glViewport(0, 0, width, height);
         GL11.glMatrixMode(GL11.GL_MODELVIEW);
@@ -81,6 +111,9 @@ public class ImmediateModeOGLRenderer implements SGL {
     @Override
     public void glCallList(int id) {
         GL11.glCallList(id);
+
+        // the list may have changed any state
+        clearStateCache();
     }
 
     @Override
@@ -128,11 +161,61 @@ public class ImmediateModeOGLRenderer implements SGL {
     @Override
     public void glDisable(int item) {
         GL11.glDisable(item);
+        setEnabled(item, false);
+    }
+
+    @Override
+    public void glAlphaFunc(int func, float ref) {
+        GL11.glAlphaFunc(func, ref);
+        alphaFunc = lists > 0 ? 0 : func;
+        alphaRef = lists > 0 ? Float.NaN : ref;
     }
 
     @Override
     public void glEnable(int item) {
         GL11.glEnable(item);
+        setEnabled(item, true);
+    }
+
+    @Override
+    public boolean glIsEnabled(int item) {
+        if (item == GL11.GL_BLEND) {
+            if (blend == null) {
+                blend = Boolean.valueOf(GL11.glIsEnabled(item));
+            }
+            return blend.booleanValue();
+        }
+        if (item == GL11.GL_ALPHA_TEST) {
+            if (alphaTest == null) {
+                alphaTest = Boolean.valueOf(GL11.glIsEnabled(item));
+            }
+            return alphaTest.booleanValue();
+        }
+
+        return GL11.glIsEnabled(item);
+    }
+
+    @Override
+    public void clearStateCache() {
+        blend = null;
+        alphaTest = null;
+        alphaFunc = 0;
+        alphaRef = Float.NaN;
+    }
+
+    /**
+     * Note a capability being enabled or disabled in the state cache
+     *
+     * @param item The capability
+     * @param enabled True if it was enabled
+     */
+    private void setEnabled(int item, boolean enabled) {
+        Boolean state = lists > 0 ? null : Boolean.valueOf(enabled);
+        if (item == GL11.GL_BLEND) {
+            blend = state;
+        } else if (item == GL11.GL_ALPHA_TEST) {
+            alphaTest = state;
+        }
     }
 
     @Override
@@ -142,6 +225,7 @@ public class ImmediateModeOGLRenderer implements SGL {
 
     @Override
     public void glEndList() {
+        lists--;
         GL11.glEndList();
     }
 
@@ -152,12 +236,28 @@ public class ImmediateModeOGLRenderer implements SGL {
 
     @Override
     public void glGetFloat(int id, FloatBuffer ret) {
+        if ((id == GL11.GL_ALPHA_TEST_REF) && !Float.isNaN(alphaRef)) {
+            ret.put(ret.position(), alphaRef);
+            return;
+        }
+
         GL11.glGetFloatv(id, ret);
+        if ((id == GL11.GL_ALPHA_TEST_REF) && (lists == 0)) {
+            alphaRef = ret.get(ret.position());
+        }
     }
 
     @Override
     public void glGetInteger(int id, IntBuffer ret) {
+        if ((id == GL11.GL_ALPHA_TEST_FUNC) && (alphaFunc != 0)) {
+            ret.put(ret.position(), alphaFunc);
+            return;
+        }
+
         GL11.glGetIntegerv(id, ret);
+        if ((id == GL11.GL_ALPHA_TEST_FUNC) && (lists == 0)) {
+            alphaFunc = ret.get(ret.position());
+        }
     }
 
     @Override
@@ -177,6 +277,7 @@ public class ImmediateModeOGLRenderer implements SGL {
 
     @Override
     public void glNewList(int id, int option) {
+        lists++;
         GL11.glNewList(id, option);
     }
 
@@ -308,11 +409,128 @@ public class ImmediateModeOGLRenderer implements SGL {
         GL11.glTexSubImage2D(glTexture2d, i, pageX, pageY, width, height, glBgra, glUnsignedByte, scratchByteBuffer);
     }
 
+    @Override
+    public void glPixelStorei(int param, int value) {
+        GL11.glPixelStorei(param, value);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat,
+            int width, int height, int border, ByteBuffer data) {
+        GL13.glCompressedTexImage2D(target, level, internalFormat, width, height, border, data);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat,
+            int width, int height, int border, int format,
+            int type, long offset) {
+        GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, offset);
+    }
+
+    @Override
+    public int glGenBuffers() {
+        return GL15.glGenBuffers();
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        GL15.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GL15.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, long size, int usage) {
+        GL15.glBufferData(target, size, usage);
+    }
+
+    @Override
+    public ByteBuffer glMapBuffer(int target, int access, long length, ByteBuffer old) {
+        return GL15.glMapBuffer(target, access, length, old);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        return GL15.glUnmapBuffer(target);
+    }
+
+    @Override
+    public long glFenceSync(int condition, int flags) {
+        return GL32.glFenceSync(condition, flags);
+    }
+
+    @Override
+    public int glClientWaitSync(long sync, int flags, long timeout) {
+        return GL32.glClientWaitSync(sync, flags, timeout);
+    }
+
+    @Override
+    public void glDeleteSync(long sync) {
+        GL32.glDeleteSync(sync);
+    }
+
+    @Override
+    public int glGenFramebuffers() {
+        return GL30.glGenFramebuffers();
+    }
+
+    @Override
+    public void glDeleteFramebuffers(int framebuffer) {
+        GL30.glDeleteFramebuffers(framebuffer);
+    }
+
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        GL30.glBindFramebuffer(target, framebuffer);
+    }
+
+    @Override
+    public void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+        GL30.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+    }
+
+    @Override
+    public int glCheckFramebufferStatus(int target) {
+        return GL30.glCheckFramebufferStatus(target);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        GL11.glViewport(x, y, width, height);
+    }
+
     @Override
     public boolean canTextureMirrorClamp() {
         return GL.createCapabilities().GL_ARB_texture_mirror_clamp_to_edge;
     }
 
+    @Override
+    public boolean canTextureNonPowerOfTwo() {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return capabilities.OpenGL20 || capabilities.GL_ARB_texture_non_power_of_two;
+    }
+
+    @Override
+    public boolean canTextureCompressionS3TC() {
+        return GL.getCapabilities().GL_EXT_texture_compression_s3tc;
+    }
+
+    @Override
+    public boolean canPixelBufferObjects() {
+        GLCapabilities caps = GL.getCapabilities();
+        return (caps.OpenGL21 || caps.GL_ARB_pixel_buffer_object) && (caps.OpenGL32 || caps.GL_ARB_sync);
+    }
+
+    @Override
+    public boolean canFramebufferObjects() {
+        // the ARB extension shares it's entry points with core GL 3.0
+        GLCapabilities caps = GL.getCapabilities();
+        return caps.OpenGL30 || caps.GL_ARB_framebuffer_object;
+    }
+
     @Override
     public boolean canSecondaryColor() {
         return GL.createCapabilities().GL_EXT_secondary_color;
@@ -5,13 +5,20 @@ import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import org.lwjgl.opengl.EXTSecondaryColor;
+import org.lwjgl.opengl.EXTTextureCompressionS3TC;
 import org.lwjgl.opengl.EXTTextureMirrorClamp;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL21;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL32;
 
 /**
  * The description of the OpenGL functions used by SUX. Any other rendering
- * method will need to emulate these.
+ * method will need to emulate these. Functions added for optional features
+ * default to doing nothing and the checks for those features to false, so a
+ * renderer that doesn't implement them still works without the feature.
  *
  * @author kevin
  */
@@ -42,6 +49,14 @@ public interface SGL {
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
     public static final int GL_NEAREST = GL11.GL_NEAREST;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_LINEAR_MIPMAP_LINEAR = GL11.GL_LINEAR_MIPMAP_LINEAR;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_NEAREST_MIPMAP_LINEAR = GL11.GL_NEAREST_MIPMAP_LINEAR;
     /**
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
@@ -146,6 +161,22 @@ public interface SGL {
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
     public static final int GL_BLEND = GL11.GL_BLEND;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_ALPHA_TEST = GL11.GL_ALPHA_TEST;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_ALPHA_TEST_FUNC = GL11.GL_ALPHA_TEST_FUNC;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_ALPHA_TEST_REF = GL11.GL_ALPHA_TEST_REF;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_GREATER = GL11.GL_GREATER;
     /**
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
@@ -184,10 +215,38 @@ public interface SGL {
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
     public static final int GL_RGBA16 = GL11.GL_RGBA16;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_RGBA4 = GL11.GL_RGBA4;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_RGB5 = GL11.GL_RGB5;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_RGB5_A1 = GL11.GL_RGB5_A1;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_UNSIGNED_SHORT_4_4_4_4 = GL12.GL_UNSIGNED_SHORT_4_4_4_4;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_UNSIGNED_SHORT_5_6_5 = GL12.GL_UNSIGNED_SHORT_5_6_5;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_UNSIGNED_SHORT_5_5_5_1 = GL12.GL_UNSIGNED_SHORT_5_5_5_1;
     /**
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
     public static final int GL_BGRA = GL12.GL_BGRA;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_TEXTURE_MAX_LEVEL = GL12.GL_TEXTURE_MAX_LEVEL;
     /**
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
@@ -242,12 +301,84 @@ public interface SGL {
      * OpenGL Enum - @url http://www.opengl.org/documentation
      */
     public static final int GL_MODELVIEW_MATRIX = GL11.GL_MODELVIEW_MATRIX;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_UNPACK_ALIGNMENT = GL11.GL_UNPACK_ALIGNMENT;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_COMPRESSED_RGB_S3TC_DXT1_EXT = EXTTextureCompressionS3TC.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_COMPRESSED_RGBA_S3TC_DXT1_EXT = EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_COMPRESSED_RGBA_S3TC_DXT3_EXT = EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT3_EXT;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_COMPRESSED_RGBA_S3TC_DXT5_EXT = EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_PIXEL_UNPACK_BUFFER = GL21.GL_PIXEL_UNPACK_BUFFER;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_STREAM_DRAW = GL15.GL_STREAM_DRAW;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_WRITE_ONLY = GL15.GL_WRITE_ONLY;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_SYNC_GPU_COMMANDS_COMPLETE = GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_ALREADY_SIGNALED = GL32.GL_ALREADY_SIGNALED;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_CONDITION_SATISFIED = GL32.GL_CONDITION_SATISFIED;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_FRAMEBUFFER = GL30.GL_FRAMEBUFFER;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_FRAMEBUFFER_BINDING = GL30.GL_FRAMEBUFFER_BINDING;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_FRAMEBUFFER_COMPLETE = GL30.GL_FRAMEBUFFER_COMPLETE;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_COLOR_ATTACHMENT0 = GL30.GL_COLOR_ATTACHMENT0;
+    /**
+     * OpenGL Enum - @url http://www.opengl.org/documentation
+     */
+    public static final int GL_VIEWPORT = GL11.GL_VIEWPORT;
 
     /**
      * Flush the current state of the renderer down to GL
      */
     public void flush();
 
+    /**
+     * Forget any OpenGL state the renderer caches rather than querying, so
+     * it's read from OpenGL when next needed. Must be called after changing
+     * state directly through OpenGL instead of the renderer.
+     */
+    public default void clearStateCache() {
+    }
+
     /**
      * Initialise the display
      *
@@ -351,6 +482,25 @@ public interface SGL {
      */
     public void glDisable(int item);
 
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param item
+     * @return
+     */
+    public default boolean glIsEnabled(int item) {
+        return false;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param func
+     * @param ref
+     */
+    public default void glAlphaFunc(int func, float ref) {
+    }
+
     /**
      * OpenGL Method - @url http://www.opengl.org/documentation/
      *
@@ -648,6 +798,197 @@ public interface SGL {
             int width, int height, int glBgra, int glUnsignedByte,
             ByteBuffer scratchByteBuffer);
 
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param param
+     * @param value
+     */
+    public default void glPixelStorei(int param, int value) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param level
+     * @param internalFormat
+     * @param width
+     * @param height
+     * @param border
+     * @param data
+     */
+    public default void glCompressedTexImage2D(int target, int level, int internalFormat,
+            int width, int height, int border, ByteBuffer data) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param level
+     * @param internalFormat
+     * @param width
+     * @param height
+     * @param border
+     * @param format
+     * @param type
+     * @param offset
+     */
+    public default void glTexImage2D(int target, int level, int internalFormat,
+            int width, int height, int border, int format,
+            int type, long offset) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @return
+     */
+    public default int glGenBuffers() {
+        return 0;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param buffer
+     */
+    public default void glDeleteBuffers(int buffer) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param buffer
+     */
+    public default void glBindBuffer(int target, int buffer) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param size
+     * @param usage
+     */
+    public default void glBufferData(int target, long size, int usage) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param access
+     * @param length
+     * @param old
+     * @return
+     */
+    public default ByteBuffer glMapBuffer(int target, int access, long length, ByteBuffer old) {
+        return null;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @return
+     */
+    public default boolean glUnmapBuffer(int target) {
+        return false;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param condition
+     * @param flags
+     * @return
+     */
+    public default long glFenceSync(int condition, int flags) {
+        return 0;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param sync
+     * @param flags
+     * @param timeout
+     * @return
+     */
+    public default int glClientWaitSync(long sync, int flags, long timeout) {
+        return 0;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param sync
+     */
+    public default void glDeleteSync(long sync) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @return
+     */
+    public default int glGenFramebuffers() {
+        return 0;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param framebuffer
+     */
+    public default void glDeleteFramebuffers(int framebuffer) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param framebuffer
+     */
+    public default void glBindFramebuffer(int target, int framebuffer) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @param attachment
+     * @param textarget
+     * @param texture
+     * @param level
+     */
+    public default void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param target
+     * @return
+     */
+    public default int glCheckFramebufferStatus(int target) {
+        return 0;
+    }
+
+    /**
+     * OpenGL Method - @url http://www.opengl.org/documentation/
+     *
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    public default void glViewport(int x, int y, int width, int height) {
+    }
+
     /**
      * Check if the mirror clamp extension is available
      *
@@ -655,6 +996,44 @@ public interface SGL {
      */
     public boolean canTextureMirrorClamp();
 
+    /**
+     * Check if textures with dimensions that aren't powers of two are supported
+     *
+     * @return True if non power of two textures are supported
+     */
+    public default boolean canTextureNonPowerOfTwo() {
+        return false;
+    }
+
+    /**
+     * Check if the S3TC (DXT) texture compression extension is available
+     *
+     * @return True if DXT compressed textures are supported
+     */
+    public default boolean canTextureCompressionS3TC() {
+        return false;
+    }
+
+    /**
+     * Check if pixel buffer objects and fence syncs are available, allowing
+     * textures to be uploaded from buffer objects
+     *
+     * @return True if pixel buffer uploads are supported
+     */
+    public default boolean canPixelBufferObjects() {
+        return false;
+    }
+
+    /**
+     * Check if framebuffer objects are available, allowing rendering into
+     * textures
+     *
+     * @return True if framebuffer objects are supported
+     */
+    public default boolean canFramebufferObjects() {
+        return false;
+    }
+
     public boolean canSecondaryColor();
 
     public void glSecondaryColor3ubEXT(byte b, byte c, byte d);
@@ -75,9 +75,20 @@ public class VAOGLRenderer extends ImmediateModeOGLRenderer {
      */
     private int listMode = 0;
 
+    /**
+     * The source blend factor last applied, or NONE if unknown
+     */
+    private int blendSrc = NONE;
+    /**
+     * The destination blend factor last applied, or NONE if unknown
+     */
+    private int blendDest = NONE;
+
     @Override
     public void initDisplay(int width, int height) {
         super.initDisplay(width, height);
+        blendSrc = GL11.GL_SRC_ALPHA;
+        blendDest = GL11.GL_ONE_MINUS_SRC_ALPHA;
 
         startBuffer();
         GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
@@ -265,8 +276,26 @@ public class VAOGLRenderer extends ImmediateModeOGLRenderer {
         super.glBindTexture(target, id);
     }
 
+    @Override
+    public void glBindFramebuffer(int target, int framebuffer) {
+        applyBuffer();
+        super.glBindFramebuffer(target, framebuffer);
+    }
+
     @Override
     public void glBlendFunc(int src, int dest) {
+        if (listMode > 0) {
+            // the list may be called with any blend state current
+            blendSrc = NONE;
+            blendDest = NONE;
+        } else if ((src == blendSrc) && (dest == blendDest)) {
+            // the batch can carry on with the same blending
+            return;
+        } else {
+            blendSrc = src;
+            blendDest = dest;
+        }
+
         applyBuffer();
         super.glBlendFunc(src, dest);
     }
@@ -277,6 +306,13 @@ public class VAOGLRenderer extends ImmediateModeOGLRenderer {
         super.glCallList(id);
     }
 
+    @Override
+    public void clearStateCache() {
+        super.clearStateCache();
+        blendSrc = NONE;
+        blendDest = NONE;
+    }
+
     @Override
     public void glClear(int value) {
         applyBuffer();
@@ -301,6 +337,12 @@ public class VAOGLRenderer extends ImmediateModeOGLRenderer {
         super.glDisable(item);
     }
 
+    @Override
+    public void glAlphaFunc(int func, float ref) {
+        applyBuffer();
+        super.glAlphaFunc(func, ref);
+    }
+
     @Override
     public void glEnable(int item) {
         applyBuffer();
@@ -349,6 +391,12 @@ public class VAOGLRenderer extends ImmediateModeOGLRenderer {
         super.glScissor(x, y, width, height);
     }
 
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        applyBuffer();
+        super.glViewport(x, y, width, height);
+    }
+
     @Override
     public void glTexEnvi(int target, int mode, int value) {
         applyBuffer();
@@ -0,0 +1,142 @@
+package io.flob.sux.tests;
+
+import io.flob.sux.Color;
+import io.flob.sux.TrueTypeFont;
+import java.awt.Font;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.lwjgl.glfw.GLFWErrorCallback;
+import org.lwjgl.opengl.GL;
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * A benchmark of drawing the same strings every frame, as a HUD does, with and
+ * without the TrueTypeFont layout cache. Each mode is warmed up before being
+ * timed, and the bytes allocated by the drawing thread over the timed frames
+ * are reported so the steady state can be checked to be allocation free. A
+ * hidden window is created for the GL context.
+ *
+ * @author agent
+ */
+public class FontLayoutBenchmark {
+
+    /**
+     * The number of strings drawn each frame
+     */
+    private static final int STRINGS = 300;
+    /**
+     * The number of untimed frames to warm up the JIT and the caches
+     */
+    private static final int WARMUP = 500;
+    /**
+     * The number of timed frames
+     */
+    private static final int FRAMES = 2000;
+
+    /**
+     * Entry point to the benchmark
+     *
+     * @param argv The arguments passed to the benchmark
+     */
+    public static void main(String[] argv) {
+        GLFWErrorCallback errorCallback = GLFWErrorCallback.createPrint(System.err);
+        glfwSetErrorCallback(errorCallback);
+        if (glfwInit() != GL_TRUE) {
+            throw new IllegalStateException("Unable to initialize GLFW");
+        }
+
+        try {
+            glfwDefaultWindowHints();
+            glfwWindowHint(GLFW_VISIBLE, GL_FALSE);
+            long window = glfwCreateWindow(640, 480, "SUX Font Layout Benchmark", NULL, NULL);
+            if (window == NULL) {
+                throw new RuntimeException("Failed to create the GLFW window");
+            }
+            glfwMakeContextCurrent(window);
+            GL.createCapabilities();
+
+            glMatrixMode(GL_PROJECTION);
+            glLoadIdentity();
+            glOrtho(0, 640, 480, 0, 1, -1);
+            glMatrixMode(GL_MODELVIEW);
+            glEnable(GL_BLEND);
+            glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+
+            TrueTypeFont font = new TrueTypeFont(new Font("Dialog", Font.PLAIN, 16), true);
+            String[] strings = new String[STRINGS];
+            for (int i = 0; i < STRINGS; i++) {
+                strings[i] = "Score " + i + ": " + (i * 7919) + " / Health " + (i % 100) + "%";
+            }
+
+            System.out.println("Drawing " + STRINGS + " strings per frame");
+            font.setLayoutCacheSize(0);
+            benchmark("layout cache disabled", font, strings);
+            font.setLayoutCacheSize(STRINGS);
+            benchmark("layout cache enabled ", font, strings);
+
+            font.release();
+            glfwDestroyWindow(window);
+        } finally {
+            glfwTerminate();
+            errorCallback.release();
+        }
+    }
+
+    /**
+     * Draw the strings for a number of frames and report the time taken and
+     * the bytes allocated
+     *
+     * @param name The name of the mode being benchmarked
+     * @param font The font to draw with
+     * @param strings The strings to draw each frame
+     */
+    private static void benchmark(String name, TrueTypeFont font, String[] strings) {
+        for (int i = 0; i < WARMUP; i++) {
+            frame(font, strings);
+        }
+        glFinish();
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            frame(font, strings);
+        }
+        glFinish();
+        long nanos = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+
+        System.out.println(name + ": " + String.format("%8.1f us/frame, %8.1f bytes allocated/frame",
+                (nanos / 1000.0) / FRAMES, (double) allocated / FRAMES));
+    }
+
+    /**
+     * Draw and measure every string once
+     *
+     * @param font The font to draw with
+     * @param strings The strings to draw
+     */
+    private static void frame(TrueTypeFont font, String[] strings) {
+        glClear(GL_COLOR_BUFFER_BIT);
+        for (int i = 0; i < strings.length; i++) {
+            int x = 640 - font.getWidth(strings[i]);
+            font.drawString(x, (i % 28) * 17, strings[i], Color.white);
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread, where the JVM
+     * supports measuring it
+     *
+     * @return The number of bytes allocated or 0 if it can't be measured
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+
+        return 0;
+    }
+}
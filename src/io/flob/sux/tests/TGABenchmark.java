@@ -0,0 +1,228 @@
+package io.flob.sux.tests;
+
+import io.flob.sux.opengl.BufferPool;
+import io.flob.sux.opengl.TGAImageData;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.lwjgl.BufferUtils;
+
+/**
+ * A throughput benchmark for the TGA loader. Synthetic uncompressed and RLE
+ * compressed images are decoded repeatedly with the scanline loader and, for
+ * the uncompressed image, with a copy of the previous per-byte loader so the
+ * two can be compared. No GL context is needed.
+ *
+ * @author agent
+ */
+public class TGABenchmark {
+
+    /**
+     * The width and height of the synthetic images
+     */
+    private static final int SIZE = 1024;
+    /**
+     * The number of untimed decodes to warm up the JIT
+     */
+    private static final int WARMUP = 20;
+    /**
+     * The number of timed decodes
+     */
+    private static final int ITERATIONS = 50;
+
+    /**
+     * Entry point to the benchmark
+     *
+     * @param argv The arguments passed to the benchmark
+     * @throws IOException Indicates a failure to decode the images
+     */
+    public static void main(String[] argv) throws IOException {
+        byte[] raw = createImage(false);
+        byte[] rle = createImage(true);
+
+        System.out.println("TGA decode of " + SIZE + "x" + SIZE + " 32 bit images");
+        report("per-byte loader, uncompressed", raw.length, benchmark(raw, true));
+        report("scanline loader, uncompressed", raw.length, benchmark(raw, false));
+        report("scanline loader, RLE         ", rle.length, benchmark(rle, false));
+    }
+
+    /**
+     * Decode an image repeatedly and time it
+     *
+     * @param data The TGA file to decode
+     * @param legacy True if the per-byte loader should be used
+     * @return The average time of a decode in nanoseconds
+     * @throws IOException Indicates a failure to decode the image
+     */
+    private static long benchmark(byte[] data, boolean legacy) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            decode(data, legacy);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            decode(data, legacy);
+        }
+
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    /**
+     * Decode an image once
+     *
+     * @param data The TGA file to decode
+     * @param legacy True if the per-byte loader should be used
+     * @throws IOException Indicates a failure to decode the image
+     */
+    private static void decode(byte[] data, boolean legacy) throws IOException {
+        if (legacy) {
+            loadPerByte(new ByteArrayInputStream(data));
+        } else {
+            BufferPool.get().release(new TGAImageData().loadImage(new ByteArrayInputStream(data), false, null));
+        }
+    }
+
+    /**
+     * Print the result of a benchmark
+     *
+     * @param name The name of the benchmark
+     * @param bytes The size of the file decoded
+     * @param nanos The average time of a decode in nanoseconds
+     */
+    private static void report(String name, int bytes, long nanos) {
+        double millis = nanos / 1000000.0;
+        double pixelsPerSecond = (SIZE * SIZE) / (nanos / 1000000000.0);
+        System.out.println(name + ": " + String.format("%8.2f ms, %7.1f Mpixels/s, %8d bytes", millis,
+                pixelsPerSecond / 1000000.0, bytes));
+    }
+
+    /**
+     * Create a synthetic 32 bit TGA with runs of repeated pixels, like flat
+     * coloured sprite art
+     *
+     * @param rle True if the image should be RLE compressed
+     * @return The TGA file
+     */
+    private static byte[] createImage(boolean rle) {
+        Random random = new Random(42);
+        byte[] pixels = new byte[SIZE * SIZE * 4];
+        for (int i = 0; i < pixels.length;) {
+            int run = 1 + random.nextInt(24);
+            int colour = random.nextInt();
+            for (int j = 0; (j < run) && (i < pixels.length); j++, i += 4) {
+                pixels[i] = (byte) colour;
+                pixels[i + 1] = (byte) (colour >> 8);
+                pixels[i + 2] = (byte) (colour >> 16);
+                pixels[i + 3] = (byte) (colour >> 24);
+            }
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0);
+        out.write(0);
+        out.write(rle ? 10 : 2);
+        for (int i = 0; i < 9; i++) {
+            out.write(0);
+        }
+        out.write(SIZE & 0xFF);
+        out.write(SIZE >> 8);
+        out.write(SIZE & 0xFF);
+        out.write(SIZE >> 8);
+        out.write(32);
+        out.write(0x28);
+
+        if (!rle) {
+            out.write(pixels, 0, pixels.length);
+            return out.toByteArray();
+        }
+
+        for (int y = 0; y < SIZE; y++) {
+            int x = 0;
+            while (x < SIZE) {
+                int ofs = ((y * SIZE) + x) * 4;
+                int run = 1;
+                while ((x + run < SIZE) && (run < 128) && samePixel(pixels, ofs, ofs + (run * 4))) {
+                    run++;
+                }
+
+                if (run > 1) {
+                    out.write(0x80 | (run - 1));
+                    out.write(pixels, ofs, 4);
+                    x += run;
+                } else {
+                    out.write(0);
+                    out.write(pixels, ofs, 4);
+                    x++;
+                }
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Check if two pixels are the same
+     *
+     * @param pixels The pixel data
+     * @param a The offset of the first pixel
+     * @param b The offset of the second pixel
+     * @return True if the pixels are the same
+     */
+    private static boolean samePixel(byte[] pixels, int a, int b) {
+        return (pixels[a] == pixels[b]) && (pixels[a + 1] == pixels[b + 1])
+                && (pixels[a + 2] == pixels[b + 2]) && (pixels[a + 3] == pixels[b + 3]);
+    }
+
+    /**
+     * The previous TGA loader's decode of an uncompressed 32 bit image, which
+     * read each channel of each pixel from a DataInputStream
+     *
+     * @param fis The stream to read the TGA from
+     * @return The decoded pixels
+     * @throws IOException Indicates a failure to read the stream
+     */
+    private static ByteBuffer loadPerByte(InputStream fis) throws IOException {
+        BufferedInputStream bis = new BufferedInputStream(fis, 100000);
+        DataInputStream dis = new DataInputStream(bis);
+
+        byte[] header = new byte[18];
+        dis.readFully(header);
+        int width = (header[12] & 0xFF) | ((header[13] & 0xFF) << 8);
+        int height = (header[14] & 0xFF) | ((header[15] & 0xFF) << 8);
+        int texWidth = width;
+
+        byte[] rawData = new byte[width * height * 4];
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                byte blue = dis.readByte();
+                byte green = dis.readByte();
+                byte red = dis.readByte();
+                byte alpha = dis.readByte();
+
+                int ofs = ((j + (i * texWidth)) * 4);
+                rawData[ofs] = red;
+                rawData[ofs + 1] = green;
+                rawData[ofs + 2] = blue;
+                rawData[ofs + 3] = alpha;
+
+                if (alpha == 0) {
+                    rawData[ofs + 2] = 0;
+                    rawData[ofs + 1] = 0;
+                    rawData[ofs] = 0;
+                }
+            }
+        }
+        fis.close();
+
+        ByteBuffer scratch = BufferUtils.createByteBuffer(rawData.length);
+        scratch.put(rawData);
+        scratch.flip();
+
+        return scratch;
+    }
+}
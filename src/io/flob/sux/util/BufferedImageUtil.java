@@ -1,5 +1,6 @@
 package io.flob.sux.util;
 
+import io.flob.sux.opengl.BufferPool;
 import io.flob.sux.opengl.ImageIOImageData;
 import io.flob.sux.opengl.InternalTextureLoader;
 import io.flob.sux.opengl.Texture;
@@ -91,14 +92,13 @@ public class BufferedImageUtil {
         texture.setWidth(bufferedImage.getWidth());
         texture.setHeight(bufferedImage.getHeight());
 
-        if (bufferedImage.getColorModel().hasAlpha()) {
+        // convert that image into a byte buffer of texture data
+        ByteBuffer textureBuffer = data.imageToByteBuffer(bufferedImage, false, false, null);
+        if (data.getDepth() == 32) {
             srcPixelFormat = SGL.GL_RGBA;
         } else {
             srcPixelFormat = SGL.GL_RGB;
         }
-
-        // convert that image into a byte buffer of texture data
-        ByteBuffer textureBuffer = data.imageToByteBuffer(bufferedImage, false, false, null);
         texture.setTextureHeight(data.getTexHeight());
         texture.setTextureWidth(data.getTexWidth());
         texture.setAlpha(data.getDepth() == 32);
@@ -125,6 +125,7 @@ public class BufferedImageUtil {
                 srcPixelFormat,
                 SGL.GL_UNSIGNED_BYTE,
                 textureBuffer);
+        BufferPool.get().release(textureBuffer);
 
         return texture;
     }